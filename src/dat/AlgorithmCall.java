@@ -0,0 +1,26 @@
+package dat;
+
+
+/**
+ * A call to an {@link Algorithm} executed asynchronously in the algorithm's own thread 
+ * (see {@link Node#invokeAsync(String, Class, AlgorithmCall)}).
+ * 
+ * As the call is processed as part of the algorithm's work, between the handling of events and 
+ * messages, it can access the algorithm's state without any synchronization.
+ * 
+ * @author Pablo Chacin
+ *
+ * @param <A> the interface used to access the algorithm
+ * @param <R> the result of the call
+ */
+public interface AlgorithmCall<A,R> {
+
+	/**
+	 * Invokes the algorithm
+	 * 
+	 * @param algorithm the algorithm
+	 * @return the result of the call, which completes the future returned to the caller
+	 * @throws Exception which completes exceptionally the future returned to the caller
+	 */
+	public R call(A algorithm) throws Exception;
+}
@@ -0,0 +1,31 @@
+package dat;
+
+import java.util.List;
+
+
+/**
+ * An {@link Algorithm} which can process several messages at once. 
+ * 
+ * When an algorithm implements this interface, all the messages pending when it is ready to process
+ * work (up to the batch size configured with the alg.&lt;name&gt;.batch.size parameter) are delivered 
+ * in a single call to {@link #handleMessages(List)}, instead of one call to 
+ * {@link Algorithm#handleMessage(Message)} per message. This allows the algorithm to amortize work 
+ * like the acquisition of locks or the retrieval of shared data over the whole batch. 
+ * 
+ * Events are always delivered one at a time to the handleEvent methods.
+ * 
+ * @author Pablo Chacin
+ *
+ */
+public interface BatchAlgorithm extends Algorithm {
+
+	/**
+	 * Handles a batch of messages, in the order they were received.
+	 * 
+	 * Implementations are responsible for dispatching each message to the specialized handleMessage 
+	 * methods, if any. The list is reused by the caller and must not be kept after returning.
+	 * 
+	 * @param messages a non empty list of messages
+	 */
+	public void handleMessages(List<Message> messages);
+}
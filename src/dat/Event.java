@@ -1,14 +1,29 @@
 package dat;
 
 
-import java.util.UUID;
-
+import java.io.Serializable;
+import dat.utils.IdGenerator;
 import dat.utils.TypedMap;
 import dat.utils.FormattingUtils;
 
-public class Event {
+public class Event implements Serializable {
+
+	private static final long serialVersionUID = 1L;
 
-	private String id;
+	/**
+	 * Identifier of the event (see {@link IdGenerator})
+	 */
+	private long id;
+	
+	/**
+	 * Identifier given as a String which is not the form of a generated identifier, if any
+	 */
+	private String customId;
+	
+	/**
+	 * String form of the generated identifier, created when requested
+	 */
+	private transient String idString;
 	
 	private long time;
 	
@@ -26,7 +41,7 @@ public class Event {
 	 */
 	public Event(String id, long time, String type, TypedMap attributes) {
 		super();
-		this.id = id;
+		assignId(id);
 		this.time = time;
 		this.type = type;
 		this.attributes = attributes;
@@ -34,7 +49,7 @@ public class Event {
 
 	public Event() {
 		super();
-		this.id = UUID.randomUUID().toString();
+		this.id = IdGenerator.newId();
 	}
 	
 	/**
@@ -45,7 +60,10 @@ public class Event {
 	 * @param attributes
 	 */
 	public Event(long time, String type, TypedMap attributes) {
-		this(UUID.randomUUID().toString(),time,type,attributes);
+		this.id = IdGenerator.newId();
+		this.time = time;
+		this.type = type;
+		this.attributes = attributes;
 	}
 	
 	/**
@@ -54,7 +72,7 @@ public class Event {
 	 * @param type
 	 */
 	public Event(long time, String type) {
-		this(UUID.randomUUID().toString(),time,type);
+		this(time,type,new TypedMap());
 	}
 
 	public Event(String id, long time, String type) {
@@ -68,7 +86,26 @@ public class Event {
 	 * @return
 	 */
 	public String getId(){
-		return this.id;
+		if(customId != null){
+			return customId;
+		}
+		
+		String s = idString;
+		if(s == null){
+			s = IdGenerator.toString(id);
+			idString = s;
+		}
+		return s;
+	}
+	
+	/**
+	 * Returns the id of the event as a long. Events with the same {@link #getId()} have the same
+	 * long id.
+	 * 
+	 * @return
+	 */
+	public long getLongId(){
+		return id;
 	}
 	/**
 	 * Get the time at which this event will be triggered.
@@ -99,8 +136,30 @@ public class Event {
 	
 	
 	
+	/**
+	 * Sets the id of the event. If null, a new id is generated.
+	 * 
+	 * @param id
+	 */
 	public void setId(String id) {
+		assignId(id);
+	}
+	
+	/**
+	 * Sets the id. Used by the constructors, which must not call overridable methods.
+	 * 
+	 * @param id the id, or null to generate a new one
+	 */
+	private void assignId(String id) {
+		this.id = (id == null) ? IdGenerator.newId() : IdGenerator.toLong(id);
+		this.customId = (id == null || IdGenerator.isGenerated(id)) ? null : id;
+		this.idString = null;
+	}
+	
+	public void setLongId(long id) {
 		this.id = id;
+		this.customId = null;
+		this.idString = null;
 	}
 
 	public void setTime(long time) {
@@ -127,7 +186,7 @@ public class Event {
 	
 	public String toString(){
 		
-		return String.format(format, type,id,FormattingUtils.mapToString(attributes));
+		return String.format(format, type,getId(),FormattingUtils.mapToString(attributes));
 	}
 	
 	
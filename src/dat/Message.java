@@ -1,11 +1,19 @@
 package dat;
 
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Map;
 import java.util.UUID;
 
 import dat.network.NodeAddress;
+import dat.utils.IdGenerator;
 import dat.utils.TypedMap;
 import dat.utils.FormattingUtils;
 
@@ -14,7 +22,7 @@ import dat.utils.FormattingUtils;
  * @author Pablo Chacin
  *
  */
-public class Message implements Serializable {
+public class Message implements Serializable, Cloneable {
 		
 	/**
 	 * 
@@ -23,7 +31,20 @@ public class Message implements Serializable {
 
 	private String algorithm;
 	
-	private String id;
+	/**
+	 * Identifier of the message (see {@link IdGenerator})
+	 */
+	private long id;
+	
+	/**
+	 * Identifier given as a String which is not the form of a generated identifier, if any
+	 */
+	private String customId;
+	
+	/**
+	 * String form of the generated identifier, created when requested
+	 */
+	private transient String idString;
 	
 	private String type;
 	
@@ -47,7 +68,7 @@ public class Message implements Serializable {
 	public Message(String id, String algorithm, String type,
 			NodeAddress sender, NodeAddress destination,Map<String,Object> attributes) {
 
-		this.id = id;
+		assignId(id);
 		this.algorithm = algorithm;
 		this.type = type;
 		this.sender = sender;
@@ -65,7 +86,7 @@ public class Message implements Serializable {
 	 * @param attributes
 	 */
 	public Message(String id, String type,TypedMap attributes){
-		this.id = id;
+		assignId(id);
 		this.type = type;
 		this.attributes = attributes;
 		
@@ -76,7 +97,7 @@ public class Message implements Serializable {
 	 * 
 	 */
 	public Message(){
-		this.id = UUID.randomUUID().toString();
+		this.id = IdGenerator.newId();
 		this.attributes = new TypedMap();
 		this.type = this.getClass().getSimpleName();
 	}
@@ -91,6 +112,25 @@ public class Message implements Serializable {
 	 * @return a String with the Id of the message
 	 */
 	public String getId() {
+		if(customId != null){
+			return customId;
+		}
+		
+		String s = idString;
+		if(s == null){
+			s = IdGenerator.toString(id);
+			idString = s;
+		}
+		return s;
+	}
+	
+	/**
+	 * Returns the message's unique id as a long. Messages with the same {@link #getId()} have the same
+	 * long id.
+	 * 
+	 * @return the Id of the message
+	 */
+	public long getLongId() {
 		return id;
 	}
 
@@ -136,8 +176,30 @@ public class Message implements Serializable {
 		this.algorithm = algorithm;
 	}
 
+	/**
+	 * Sets the id of the message. If null, a new id is generated.
+	 * 
+	 * @param id
+	 */
 	public void setId(String id) {
+		assignId(id);
+	}
+	
+	/**
+	 * Sets the id. Used by the constructors, which must not call overridable methods.
+	 * 
+	 * @param id the id, or null to generate a new one
+	 */
+	private void assignId(String id) {
+		this.id = (id == null) ? IdGenerator.newId() : IdGenerator.toLong(id);
+		this.customId = (id == null || IdGenerator.isGenerated(id)) ? null : id;
+		this.idString = null;
+	}
+	
+	public void setLongId(long id) {
 		this.id = id;
+		this.customId = null;
+		this.idString = null;
 	}
 
 	public void setType(String type) {
@@ -163,6 +225,118 @@ public class Message implements Serializable {
 	}
 		
 	
+	/**
+	 * Writes the fields of the message, for encodings which don't use Java serialization
+	 * (see {@link dat.network.socket.MessageSerializers}). Subclasses which add fields must override 
+	 * this method and {@link #readFields(ObjectInput)}, calling the method of the super class first, 
+	 * otherwise they are encoded with Java serialization.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeFields(ObjectOutput out) throws IOException {
+		out.writeLong(id);
+		out.writeObject(customId);
+		out.writeObject(algorithm);
+		out.writeObject(type);
+		out.writeObject(sender);
+		out.writeObject(destination);
+		out.writeObject(attributes);
+	}
+	
+	/**
+	 * Reads the fields written by {@link #writeFields(ObjectOutput)}
+	 * 
+	 * @param in
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public void readFields(ObjectInput in) throws IOException, ClassNotFoundException {
+		id = in.readLong();
+		customId = (String)in.readObject();
+		idString = null;
+		algorithm = (String)in.readObject();
+		type = (String)in.readObject();
+		sender = (NodeAddress)in.readObject();
+		destination = (NodeAddress)in.readObject();
+		attributes = (TypedMap)in.readObject();
+	}
+	
+	
+	/**
+	 * Returns a copy of this message, which can be delivered without serialization. The attributes 
+	 * are copied to a new map. Values which are not known to be immutable are copied too 
+	 * (see {@link #copyValue(Object)}), so neither the sender nor the receivers see the changes
+	 * made by the others, as with a serializing transport.
+	 * 
+	 * Subclasses with fields which can be modified must override this method to copy them.
+	 * 
+	 * @return a copy of the message, of the same class
+	 */
+	public Message copy(){
+		try {
+			Message copy = (Message)super.clone();
+			if(attributes != null){
+				copy.attributes = new TypedMap(attributes);
+				for(Map.Entry<String,Object> e: attributes.entrySet()){
+					if(!isImmutable(e.getValue())){
+						copy.attributes.put(e.getKey(), copyValue(e.getValue()));
+					}
+				}
+			}
+			return copy;
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException("Exception copying message",e);
+		}
+	}
+	
+	
+	/**
+	 * Returns a copy of a value, serializing and deserializing it, or the value itself if it is 
+	 * known to be immutable. Java serialization is used regardless of the codec of the network,
+	 * as the value must be serializable anyway to be sent by any transport.
+	 * 
+	 * @param value
+	 * @return
+	 */
+	protected static Object copyValue(Object value){
+		if(isImmutable(value)){
+			return value;
+		}
+		
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(value);
+			out.close();
+			
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+			try{
+				return in.readObject();
+			}finally{
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Exception copying value " + value,e);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("Exception copying value " + value,e);
+		}
+	}
+	
+	
+	private static boolean isImmutable(Object value){
+		if((value instanceof Number) && !(value.getClass().getName().startsWith("java.lang.") || 
+		                                  value.getClass().getName().startsWith("java.math."))){
+			//for example, atomic numbers
+			return false;
+		}
+		
+		return (value == null) || (value instanceof String) || (value instanceof Number) || 
+		       (value instanceof Boolean) || (value instanceof Character) || (value instanceof Enum) || 
+		       (value instanceof UUID) || (value instanceof NodeAddress);
+	}
+	
+	
 	/**
 	 * Format used to 
 	 */
@@ -172,7 +346,9 @@ public class Message implements Serializable {
 		
 		String attributes = FormattingUtils.mapToString(getAttributes());
 
-		return String.format(format, sender.getLocation(),destination.getLocation(),algorithm,type,id,attributes);
+		String destinationLocation = (destination != null) ? destination.getLocation() : null;
+
+		return String.format(format, sender.getLocation(),destinationLocation,algorithm,type,getId(),attributes);
 
 	}
 	
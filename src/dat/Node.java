@@ -3,6 +3,8 @@ package dat;
 import java.net.InetAddress;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.configuration.Configuration;
 import org.apache.log4j.Logger;
@@ -16,10 +18,15 @@ import dat.utils.TypedMap;
  * 
  * A network node where one or more {@link Algorithm} execute.
  * 
+ * The node is also an {@link Executor} which runs tasks in the algorithm's thread, so it can be used 
+ * to continue the processing of a {@link CompletableFuture} (for example, one returned by 
+ * {@link #invokeAsync(String, Class, AlgorithmCall)}) without accessing the algorithm's state 
+ * concurrently.
+ * 
  * @author Pablo Chacin
  *
  */
-public interface Node {
+public interface Node extends Executor {
 
 	/**
 	 * Constructs and sends a {@link Message}. The id and source are added by
@@ -156,7 +163,24 @@ public interface Node {
 	 * @param interfaces
 	 * @return the {@link Algorithm} or null, in none has been registered under this name
 	 */
-	public Object getAlgorithm(String name,Class...interfaces);
+	public Object getAlgorithm(String name,Class<?>...interfaces);
+	
+	
+	/**
+	 * Invokes asynchronously a previously registered algorithm. The call is queued as work for the 
+	 * algorithm and executed in its thread, in order of arrival with its pending events and messages.
+	 * 
+	 * The returned future is completed in the thread of the invoked algorithm. The caller can continue
+	 * the processing in its own thread using the *Async methods of the future with this node as executor.
+	 * An algorithm must never wait for the result of a call to itself.
+	 * 
+	 * @param name the name under which the algorithm was registered
+	 * @param type the interface used to access the algorithm
+	 * @param call the call to execute
+	 * @return a future completed with the result of the call
+	 * @throws IllegalArgumentException if no algorithm has been registered under this name
+	 */
+	public <A,R> CompletableFuture<R> invokeAsync(String name,Class<A> type,AlgorithmCall<A,R> call);
 		
 	
 	/**
@@ -1,23 +1,22 @@
 package dat.algorithms.gcast;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
-import dat.Algorithm;
+import dat.BatchAlgorithm;
 import dat.DatException;
 import dat.Event;
 import dat.Message;
 import dat.Node;
 import dat.algorithms.membership.MembershipAlgorithm;
 import dat.network.NodeAddress;
+import dat.utils.LongHashSet;
 
 
-public class FloodingGroupcastAlgorithm implements GroupcastProtocol, Algorithm {
+public class FloodingGroupcastAlgorithm implements GroupcastProtocol, BatchAlgorithm {
 
-	private Set<String> messages;
+	private LongHashSet messages;
 
 	private Map<String,GroupcastHandler> handlers;
 
@@ -26,7 +25,7 @@ public class FloodingGroupcastAlgorithm implements GroupcastProtocol, Algorithm
 	private MembershipAlgorithm membership;
 
 	public FloodingGroupcastAlgorithm(){
-		this.messages = new HashSet<String>();
+		this.messages = new LongHashSet();
 
 		//initialize with a dummy handler
 		this.handlers = new HashMap<String,GroupcastHandler>();
@@ -37,7 +36,7 @@ public class FloodingGroupcastAlgorithm implements GroupcastProtocol, Algorithm
 
 		message.setString("group", group);
 		message.setObject("targets",targets);
-		messages.add(message.getId());
+		messages.add(message.getLongId());
 
 
 		try {
@@ -64,8 +63,28 @@ public class FloodingGroupcastAlgorithm implements GroupcastProtocol, Algorithm
 
 	@Override
 	public void handleMessage(Message message) {
+		
+		handleMessage(message,membership.getKnownNodes());
+	}
+	
+	
+	/**
+	 * Handles a batch of messages, retrieving the known nodes only once for all the batch
+	 */
+	@Override
+	public void handleMessages(List<Message> messages) {
+		
+		List<NodeAddress> neighbors = membership.getKnownNodes();
+		
+		for(Message m: messages){
+			handleMessage(m,neighbors);
+		}
+	}
+	
+	
+	private void handleMessage(Message message,List<NodeAddress> neighbors) {
 
-		String id = message.getId();
+		long id = message.getLongId();
 		NodeAddress[] targets = (NodeAddress[]) message.getObject("targets");
 
 		if(!messages.contains(id) && isTarget(targets)){
@@ -86,7 +105,7 @@ public class FloodingGroupcastAlgorithm implements GroupcastProtocol, Algorithm
 		try {
 
 			//send to all neighbors, but the one the message came from
-			for(NodeAddress n: membership.getKnownNodes()){
+			for(NodeAddress n: neighbors){
 				if(!n.equals(message.getSender()))
 					node.sendMessage(n, message);
 			}
@@ -9,12 +9,14 @@ public interface LeaderElection {
 
 	/**
 	 * Returns  the currently elected leader. If none exists, an election process
-	 * is started and the method waits until one node is elected.
+	 * is started and the method waits until one node is elected, up to a maximum time
+	 * defined by the implementation.
 	 * 
 	 * 
 	 * There's no guaranty that the leader node is still currently active.
 	 * 
-	 * @return the NodeAddress of the currently elected leader
+	 * @return the NodeAddress of the currently elected leader, or null if no leader was
+	 *         elected in the maximum wait time
 	 */
 	public NodeAddress getLeader();
 	
@@ -23,7 +25,8 @@ public interface LeaderElection {
 	 * Forces the election of a leader. Used when the application suspects the
 	 * leader is no longer active.
 	 * 
-	 * @return the NodeAddress of the currently elected leader.
+	 * @return the NodeAddress of the currently elected leader, or null if no leader was
+	 *         elected in the maximum wait time.
 	 */
 	public NodeAddress electLeader();
 	
@@ -1,5 +1,11 @@
 package dat.algorithms.leader.bully;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import dat.Algorithm;
 import dat.DatException;
@@ -18,6 +24,11 @@ public class Bully implements Algorithm,LeaderElection {
 	 */
 	protected static long TIMEOUT=1000;
 	
+	/**
+	 * Default maximum time a caller waits for the election of a leader
+	 */
+	protected static long WAIT=10000;
+	
 	/**
 	 * Algorithm used to find participants for the leader election
 	 */
@@ -26,7 +37,12 @@ public class Bully implements Algorithm,LeaderElection {
 	/**
 	 * Address of the leader
 	 */
-	protected NodeAddress leader;
+	protected volatile NodeAddress leader;
+	
+	/**
+	 * Callers waiting for the end of the current election
+	 */
+	protected List<CompletableFuture<NodeAddress>> waiting = new ArrayList<CompletableFuture<NodeAddress>>();
 	
 	/**
 	 * Node on which this algorithms executes
@@ -48,6 +64,11 @@ public class Bully implements Algorithm,LeaderElection {
 	 */
 	protected long timeout;
 	
+	/**
+	 * Maximum time a caller waits for the election of a leader
+	 */
+	protected long wait;
+	
 	/**
 	 * Indicates that this node already started an election
 	 */
@@ -99,28 +120,102 @@ public class Bully implements Algorithm,LeaderElection {
 	/**
 	 * Request a new leader. The application may suspect the current leader is not
 	 * longer valid (for example, it is unresponsive ) 
+	 * 
+	 * The election is started in the algorithm's thread, so its state is never accessed
+	 * concurrently, and the caller waits until the leader is elected, up to the time given by the
+	 * wait parameter. Must not be called from the algorithm's thread.
+	 * 
+	 * @return the leader, or null if no leader was elected in the wait time
 	 */
 	public NodeAddress electLeader(){
-						
-		startElection();
 		
-		while(leader == null){
+		long deadline = System.currentTimeMillis() + wait;
+		
+		while(true){
+			final CompletableFuture<NodeAddress> elected = new CompletableFuture<NodeAddress>();
+			
+			node.execute(new Runnable(){
+				@Override public void run(){
+					startElection();
+					if(leader != null){
+						elected.complete(leader);
+					}
+					else{
+						waiting.add(elected);
+					}
+				}
+			});
+			
 			try {
-				Thread.sleep(100);
-			} catch (InterruptedException e) {}
+				return elected.get(Math.max(deadline - System.currentTimeMillis(),0), TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				forget(elected);
+				return leader;
+			} catch (ExecutionException e) {
+				//the election was restarted, wait for the new one
+				if(System.currentTimeMillis() >= deadline){
+					return leader;
+				}
+			} catch (TimeoutException e) {
+				forget(elected);
+				return leader;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Stops waiting for the end of the election
+	 * 
+	 * @param elected
+	 */
+	private void forget(final CompletableFuture<NodeAddress> elected){
+		node.execute(new Runnable(){
+			@Override public void run(){
+				waiting.remove(elected);
+			}
+		});
+	}
+	
+	
+	/**
+	 * Sets the leader and ends the current election, if any
+	 * 
+	 * @param newLeader
+	 */
+	protected void setLeader(NodeAddress newLeader){
+		leader = newLeader;
+		inElection = false;
+		
+		for(CompletableFuture<NodeAddress> w: waiting){
+			w.complete(newLeader);
 		}
-		return leader;
+		waiting.clear();
 	}
 	
 	
+	/**
+	 * Discards the current leader. The callers waiting for the current election are failed,
+	 * so they wait for the new one.
+	 */
+	protected void resetLeader(){
+		leader = null;
+		
+		for(CompletableFuture<NodeAddress> w: waiting){
+			w.completeExceptionally(new IllegalStateException("Election restarted"));
+		}
+		waiting.clear();
+	}
+	
 	
-	protected synchronized void  startElection(){
+	protected void  startElection(){
 				
 		if(inElection)
 			return;
 		
 		inElection = true;
-		leader = null;
+		resetLeader();
 				
 		ElectionRequestMessage message = new ElectionRequestMessage();
 				
@@ -180,8 +275,7 @@ public class Bully implements Algorithm,LeaderElection {
 				}
 			}
 		}
-		leader = node.getAddress();
-		inElection = false;
+		setLeader(node.getAddress());
 
 	}
 
@@ -200,7 +294,7 @@ public class Bully implements Algorithm,LeaderElection {
 	public void handleMessage(ElectionRequestMessage request){
 				
 		//current leader is no longer valid
-		leader = null;
+		resetLeader();
 		
 		membership.candidate(request.getSender());
 		
@@ -251,8 +345,7 @@ public class Bully implements Algorithm,LeaderElection {
 			if(electionTimeout != null)
 				node.cancelEvent(electionTimeout.getId());
 			
-			leader =  message.getSender();
-			inElection = false;
+			setLeader(message.getSender());
 		}
 		
 
@@ -262,6 +355,7 @@ public class Bully implements Algorithm,LeaderElection {
 	public void init(Node node) {
 		this.node = node;
 		this.timeout = node.getParameters().getLong("timeout",TIMEOUT);
+		this.wait = node.getParameters().getLong("wait",WAIT);
 		this.membership = (MembershipAlgorithm) node.getAlgorithm(node.getParameters().getString("membership"), 
 				                            MembershipAlgorithm.class);
 		this.membership.join();
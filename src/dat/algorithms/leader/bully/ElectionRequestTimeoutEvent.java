@@ -5,4 +5,6 @@ import dat.Event;
 
 public class ElectionRequestTimeoutEvent extends Event {
 
+	private static final long serialVersionUID = 1L;
+
 }
@@ -5,6 +5,6 @@ import dat.Event;
 
 public class ElectionTimeoutEvent extends Event {
 
-
+	private static final long serialVersionUID = 1L;
 
 }
@@ -1,7 +1,12 @@
 package dat.algorithms.leader.lcr;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import dat.Algorithm;
 import dat.DatException;
@@ -19,18 +24,33 @@ import dat.network.NodeAddress;
  */
 public class LCR implements LeaderElection, Algorithm {
 
+	/**
+	 * Default maximum time a caller waits for the election of a leader
+	 */
+	protected static long WAIT=10000;
+
 	/**
 	 * Higest ID seen by this node
 	 */
 	private String higestId;
 
-	protected NodeAddress leader;
+	protected volatile NodeAddress leader;
+	
+	/**
+	 * Callers waiting for the end of the current election
+	 */
+	protected List<CompletableFuture<NodeAddress>> waiting = new ArrayList<CompletableFuture<NodeAddress>>();
 
 	protected Node node;
 
 	protected boolean inElection;
 
 	protected MembershipAlgorithm membership;
+	
+	/**
+	 * Maximum time a caller waits for the election of a leader
+	 */
+	protected long wait;
 
 	@Override
 	public NodeAddress getLeader() {
@@ -54,25 +74,101 @@ public class LCR implements LeaderElection, Algorithm {
 	/**
 	 * Request a new leader. The application may suspect the current leader is not
 	 * longer valid (for example, it is unresponsive ) 
+	 * 
+	 * The election is started in the algorithm's thread, so its state is never accessed
+	 * concurrently, and the caller waits until the leader is elected, up to the time given by the
+	 * wait parameter. Must not be called from the algorithm's thread.
+	 * 
+	 * @return the leader, or null if no leader was elected in the wait time
 	 */
 	public NodeAddress electLeader(){
 
-		if(!inElection)
-			startElection();
-
-		while(leader == null){
+		long deadline = System.currentTimeMillis() + wait;
+		
+		while(true){
+			final CompletableFuture<NodeAddress> elected = new CompletableFuture<NodeAddress>();
+			
+			node.execute(new Runnable(){
+				@Override public void run(){
+					if(!inElection)
+						startElection();
+					
+					if(leader != null){
+						elected.complete(leader);
+					}
+					else{
+						waiting.add(elected);
+					}
+				}
+			});
+			
 			try {
-				Thread.sleep(100);
-			} catch (InterruptedException e) {}
+				return elected.get(Math.max(deadline - System.currentTimeMillis(),0), TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				forget(elected);
+				return leader;
+			} catch (ExecutionException e) {
+				//the election was restarted, wait for the new one
+				if(System.currentTimeMillis() >= deadline){
+					return leader;
+				}
+			} catch (TimeoutException e) {
+				forget(elected);
+				return leader;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Stops waiting for the end of the election
+	 * 
+	 * @param elected
+	 */
+	private void forget(final CompletableFuture<NodeAddress> elected){
+		node.execute(new Runnable(){
+			@Override public void run(){
+				waiting.remove(elected);
+			}
+		});
+	}
+	
+	
+	/**
+	 * Sets the leader and ends the current election, if any
+	 * 
+	 * @param newLeader
+	 */
+	protected void setLeader(NodeAddress newLeader){
+		leader = newLeader;
+		inElection = false;
+		
+		for(CompletableFuture<NodeAddress> w: waiting){
+			w.complete(newLeader);
 		}
-		return leader;
+		waiting.clear();
 	}
 
-	protected synchronized void  startElection(){
+	/**
+	 * Discards the current leader. The callers waiting for the current election are failed,
+	 * so they wait for the new one.
+	 */
+	protected void resetLeader(){
+		leader = null;
+		
+		for(CompletableFuture<NodeAddress> w: waiting){
+			w.completeExceptionally(new IllegalStateException("Election restarted"));
+		}
+		waiting.clear();
+	}
+
+
+	protected void  startElection(){
 
 
 		inElection = true;
-		leader = null;
+		resetLeader();
 
 		Message message = new ElectionRequestMessage();
 		message.setString("candidate", higestId);
@@ -93,8 +189,7 @@ public class LCR implements LeaderElection, Algorithm {
 
 		//none of the nodes was available, therefore
 		//current node is the leader
-		leader = node.getAddress();
-		inElection = false;
+		setLeader(node.getAddress());
 
 	}
 	@Override
@@ -129,7 +224,7 @@ public class LCR implements LeaderElection, Algorithm {
 		String candidate = request.getString("candidate");
 		
 		if(candidate.equals(node.getAddress().getLocation())){
-			leader = node.getAddress();
+			setLeader(node.getAddress());
 			ElectionResultMessage result = new ElectionResultMessage();
 			
 			for(NodeAddress n: membership.getKnownNodes()){
@@ -139,7 +234,6 @@ public class LCR implements LeaderElection, Algorithm {
 					node.getLog().debug("Unable to contact Neighbor " + n.getLocation());
 				}
 			}
-			inElection = false;
 		
 		}
 		else{
@@ -155,15 +249,15 @@ public class LCR implements LeaderElection, Algorithm {
 
 	
 	public void handleMessage(ElectionResultMessage message) {
-		leader = message.getSender();
+		setLeader(message.getSender());
 		higestId = leader.getLocation();
-		inElection = false;
 	}
 
 	@Override
 	public void init(Node node) {
 		this.node = node;
 		this.higestId = node.getAddress().getLocation();
+		this.wait = node.getParameters().getLong("wait",WAIT);
 		this.membership = (MembershipAlgorithm) node.getAlgorithm(node.getParameters().getString("membership"), 
                 MembershipAlgorithm.class);
 		
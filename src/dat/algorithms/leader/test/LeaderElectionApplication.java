@@ -20,7 +20,7 @@ public class LeaderElectionApplication implements Runnable {
 		
 		try {
 			while(true){
-				Thread.sleep(Exponential.nextInt(1.0/delay)*1000);
+				DAT.sleep(Exponential.nextInt(1.0/delay)*1000);
 				DAT.getLog().info("Leader:" + election.getLeader().getLocation());
 			}
 		} catch (InterruptedException e) {
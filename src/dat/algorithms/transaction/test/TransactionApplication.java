@@ -32,7 +32,7 @@ public class TransactionApplication implements Runnable, ResourceManager {
 			String resource = UUID.randomUUID().toString();
 			
 			while(true){
-				Thread.sleep(Exponential.nextInt(1.0/delay)*1000);
+				DAT.sleep(Exponential.nextInt(1.0/delay)*1000);
 				String transaction = UUID.randomUUID().toString();		
 				DAT.getLog().info("Executing transaction " + transaction + 
 						          " on resource " + resource);
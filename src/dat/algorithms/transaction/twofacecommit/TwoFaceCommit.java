@@ -304,7 +304,7 @@ public class TwoFaceCommit extends RequestReply implements TransactionCoordinato
 		}
 
 
-		new Thread(new TransactionThread(request)).start();
+		DAT.newThread(new TransactionThread(request)).start();
 	}
 
 
@@ -317,7 +317,7 @@ public class TwoFaceCommit extends RequestReply implements TransactionCoordinato
 	 */
 	public void processRequest(OperationRequest request){
 		
-		new Thread(new OperationThread(request)).start();
+		DAT.newThread(new OperationThread(request)).start();
 
 	}
 
@@ -1,7 +1,11 @@
 package dat.algorithms.voting;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
 
+import dat.Message;
 import dat.network.NodeAddress;
 import dat.patterns.requestor.RequestMessage;
 import dat.utils.TypedMap;
@@ -42,6 +46,25 @@ public class VotingRequest extends RequestMessage {
 		this.subject = subject;
 	}
 	
+	@Override
+	public Message copy() {
+		VotingRequest copy = (VotingRequest)super.copy();
+		copy.subject = (Serializable)copyValue(subject);
+		return copy;
+	}
+	
+	@Override
+	public void writeFields(ObjectOutput out) throws IOException {
+		super.writeFields(out);
+		out.writeObject(subject);
+	}
+	
+	@Override
+	public void readFields(ObjectInput in) throws IOException, ClassNotFoundException {
+		super.readFields(in);
+		subject = (Serializable)in.readObject();
+	}
+	
 	
 	
 }
@@ -1,7 +1,11 @@
 package dat.algorithms.voting;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
 
+import dat.Message;
 import dat.patterns.requestor.ResponseMessage;
 import dat.utils.TypedMap;
 
@@ -44,6 +48,27 @@ public class VotingResponse extends ResponseMessage {
 		this.vote = vote;
 	}
 	
+	@Override
+	public Message copy() {
+		VotingResponse copy = (VotingResponse)super.copy();
+		copy.subject = (Serializable)copyValue(subject);
+		return copy;
+	}
+	
+	@Override
+	public void writeFields(ObjectOutput out) throws IOException {
+		super.writeFields(out);
+		out.writeObject(subject);
+		out.writeObject(vote);
+	}
+	
+	@Override
+	public void readFields(ObjectInput in) throws IOException, ClassNotFoundException {
+		super.readFields(in);
+		subject = (Serializable)in.readObject();
+		vote = (Boolean)in.readObject();
+	}
+	
 	
 
 }
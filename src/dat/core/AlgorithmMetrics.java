@@ -0,0 +1,157 @@
+package dat.core;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import dat.Message;
+import dat.network.NodeAddress;
+
+/**
+ * Metrics of the execution of an algorithm in a node: the state of its {@link Mailbox}, the
+ * execution time of its handlers and the messages it sends and receives.
+ *
+ * The metrics are updated by the threads of the algorithm and the transport, using
+ * {@link LongAdder}s and {@link Histogram}s, so they can be always enabled.
+ * They are published over JMX by the {@link NodeMetrics} of the node.
+ *
+ * @author Pablo Chacin
+ *
+ */
+public class AlgorithmMetrics implements AlgorithmMetricsMXBean {
+
+	/**
+	 * Type under which the execution of tasks is recorded
+	 */
+	public static final String TASK = "task";
+
+	/**
+	 * Type under which the processing of batches of messages is recorded
+	 */
+	public static final String BATCH = "batch";
+
+	private Mailbox mailbox;
+
+	private ConcurrentMap<String,LongAdder> received = new ConcurrentHashMap<String, LongAdder>();
+
+	private ConcurrentMap<String,LongAdder> sent = new ConcurrentHashMap<String, LongAdder>();
+
+	private ConcurrentMap<String,LongAdder> sentByDestination = new ConcurrentHashMap<String, LongAdder>();
+
+	private ConcurrentMap<String,Histogram> handlerTime = new ConcurrentHashMap<String, Histogram>();
+
+
+	AlgorithmMetrics(Mailbox mailbox){
+		this.mailbox = mailbox;
+	}
+
+
+	void messageReceived(Message message){
+		increment(received,message.getType());
+	}
+
+
+	void messageSent(NodeAddress destination,Message message){
+		increment(sent,message.getType());
+		increment(sentByDestination,destination.getLocation());
+	}
+
+
+	/**
+	 * Records the execution of a handler
+	 *
+	 * @param type type of the message or event handled, {@link #TASK} or {@link #BATCH}
+	 * @param time execution time, in nanoseconds
+	 */
+	void handlerExecuted(String type,long time){
+		Histogram histogram = handlerTime.get(type);
+		if(histogram == null){
+			handlerTime.putIfAbsent(type, new Histogram());
+			histogram = handlerTime.get(type);
+		}
+		histogram.record(time);
+	}
+
+
+	private void increment(ConcurrentMap<String,LongAdder> counters,String key){
+		LongAdder counter = counters.get(key);
+		if(counter == null){
+			counters.putIfAbsent(key, new LongAdder());
+			counter = counters.get(key);
+		}
+		counter.increment();
+	}
+
+
+	private Map<String,Long> snapshot(ConcurrentMap<String,LongAdder> counters){
+		Map<String,Long> values = new TreeMap<String, Long>();
+		for(Map.Entry<String, LongAdder> e: counters.entrySet()){
+			values.put(e.getKey(), e.getValue().sum());
+		}
+		return values;
+	}
+
+
+	@Override
+	public int getMailboxDepth() {
+		return mailbox.size();
+	}
+
+	@Override
+	public int getMailboxCapacity() {
+		return mailbox.getCapacity();
+	}
+
+	@Override
+	public long getMailboxHighWaterMark() {
+		return mailbox.getHighWaterMark();
+	}
+
+	@Override
+	public long getMailboxDropped() {
+		return mailbox.getDropped();
+	}
+
+	@Override
+	public long getMailboxRejected() {
+		return mailbox.getRejected();
+	}
+
+	@Override
+	public Histogram.Snapshot getMailboxWaitTime() {
+		return mailbox.getWaitTime().getSnapshot();
+	}
+
+	@Override
+	public Map<String, Histogram.Snapshot> getHandlerTime() {
+		Map<String,Histogram.Snapshot> values = new TreeMap<String, Histogram.Snapshot>();
+		for(Map.Entry<String, Histogram> e: handlerTime.entrySet()){
+			values.put(e.getKey(), e.getValue().getSnapshot());
+		}
+		return values;
+	}
+
+	@Override
+	public Map<String, Long> getMessagesReceived() {
+		return snapshot(received);
+	}
+
+	@Override
+	public Map<String, Long> getMessagesSent() {
+		return snapshot(sent);
+	}
+
+	@Override
+	public Map<String, Long> getMessagesSentByDestination() {
+		return snapshot(sentByDestination);
+	}
+
+
+	@Override
+	public String toString(){
+		return "received=" + getMessagesReceived() + " sent=" + getMessagesSent() +
+		       " handler time=" + getHandlerTime() + " mailbox wait time=" + getMailboxWaitTime();
+	}
+}
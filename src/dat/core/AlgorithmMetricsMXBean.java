@@ -0,0 +1,58 @@
+package dat.core;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link AlgorithmMetrics} of an algorithm. Durations are
+ * given in nanoseconds.
+ * 
+ * @author Pablo Chacin
+ *
+ */
+public interface AlgorithmMetricsMXBean {
+
+	/**
+	 * 
+	 * @return the number of messages pending in the mailbox
+	 */
+	public int getMailboxDepth();
+	
+	public int getMailboxCapacity();
+	
+	public long getMailboxHighWaterMark();
+	
+	public long getMailboxDropped();
+	
+	public long getMailboxRejected();
+	
+	/**
+	 * 
+	 * @return the distribution of the time messages wait in the mailbox
+	 */
+	public Histogram.Snapshot getMailboxWaitTime();
+	
+	/**
+	 * 
+	 * @return the distribution of the execution time of the handlers, by type of message
+	 *         or event
+	 */
+	public Map<String,Histogram.Snapshot> getHandlerTime();
+	
+	/**
+	 * 
+	 * @return the number of messages received, by type
+	 */
+	public Map<String,Long> getMessagesReceived();
+	
+	/**
+	 * 
+	 * @return the number of messages sent, by type
+	 */
+	public Map<String,Long> getMessagesSent();
+	
+	/**
+	 * 
+	 * @return the number of messages sent, by destination
+	 */
+	public Map<String,Long> getMessagesSentByDestination();
+}
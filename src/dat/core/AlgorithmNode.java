@@ -1,11 +1,14 @@
 package dat.core;
 
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.UUID;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.configuration.Configuration;
 import org.apache.log4j.Level;
@@ -13,20 +16,42 @@ import org.apache.log4j.Logger;
 import org.apache.log4j.MDC;
 
 import dat.Algorithm;
+import dat.AlgorithmCall;
+import dat.BatchAlgorithm;
 import dat.DatException;
 import dat.Event;
 import dat.Message;
 import dat.Node;
+import dat.jfr.MessageDispatchEvent;
+import dat.jfr.MessageSendEvent;
+import dat.replay.InputRecorder;
+import dat.trace.Tracer;
 import dat.network.NodeAddress;
 import dat.network.TransportException;
-import dat.utils.ReflectionUtils;
+import dat.utils.DispatchTable;
 import dat.utils.TypedMap;
 
 /**
  * 
  * Controls the execution of an Algorithm, isolating from other algorithms.
  * 
- * Executes in its own {@link Thread}
+ * Executes in its own {@link Thread}, created by the {@link NodeThreadFactory} of the {@link NetworkNode}
+ * 
+ * Messages and events pending to be processed are kept in a {@link Mailbox}, which is configured with
+ * the following parameters (relative to the algorithm's configuration alg.&lt;name&gt;):
+ * <ul>
+ * <li> queue.capacity: maximum number of pending messages (default 1024).
+ * <li> queue.policy: what to do with messages received when the queue is full: block (the sender, default),
+ *      drop-newest, drop-oldest or reject (see {@link Mailbox.OverflowPolicy}). Messages are only
+ *      discarded if one of the drop policies is configured.
+ * <li> queue.block.timeout: maximum time, in milliseconds, a sender is blocked by the block policy
+ *      before its message is rejected (default 1000).
+ * <li> batch.size: maximum number of messages delivered at once to algorithms which implement
+ *      {@link BatchAlgorithm} (default 64). 
+ * </ul>
+ * 
+ * The execution of the algorithm is measured by its {@link AlgorithmMetrics}. Its inputs can be
+ * recorded by an {@link InputRecorder}.
  * 
  * @author 
  *
@@ -34,37 +59,8 @@ import dat.utils.TypedMap;
 public class AlgorithmNode implements Node, Runnable {
 
 
-	/**
-	 * Any work pending to be processed by the algorithm
-	 * 
-	 */
-	private enum WorkElementType {Message,Event};
-
-	private class WorkElement {
-
-		
-		private WorkElementType type;
-		
-
-		private Object element;
-
-
-		public WorkElement(WorkElementType type, Object element) {
-			this.type = type;
-			this.element = element;
-		}
-
-		public WorkElementType getType() {
-			return type;
-		}
-
-		public Object getElement() {
-			return element;
-		}
-
-
-	}
-
+	public static final int DEFAULT_BATCH_SIZE = 64;
+	
 	private static Random rand = new Random();
 	
 	/**
@@ -76,11 +72,39 @@ public class AlgorithmNode implements Node, Runnable {
 	 * Algorithm
 	 */
 	private Algorithm algorithm;
+	
+	/**
+	 * Handlers of the algorithm for each class of Message
+	 */
+	private DispatchTable messageHandlers;
+	
+	/**
+	 * Handlers of the algorithm for each class of Event
+	 */
+	private DispatchTable eventHandlers;
+
+	/**
+	 * Mediates the invocations to the algorithm through its proxies. Created when first
+	 * needed, so this node doesn't escape from its constructor.
+	 */
+	private volatile AlgorithmProxy proxy;
 
 	/**
-	 * Queue of work for this 
+	 * Queue of work for this algorithm
+	 */
+	private Mailbox mailbox;
+	
+	private AlgorithmMetrics metrics;
+	
+	/**
+	 * Records the inputs of the algorithm, null if they are not recorded
+	 */
+	private volatile InputRecorder recorder = null;
+	
+	/**
+	 * Maximum number of messages delivered at once to a BatchAlgorithm 
 	 */
-	private BlockingQueue<WorkElement> workQueue;
+	private int batchSize;
 	
 	/**
 	 * Name under which this algorithm is registered
@@ -90,6 +114,53 @@ public class AlgorithmNode implements Node, Runnable {
 	private Configuration parameters;
 	
 	private Logger log;
+	
+	/**
+	 * Indicates the algorithm's thread is running
+	 */
+	private volatile boolean running = false;
+	
+	private BatchAlgorithm batchAlgorithm = null;
+	
+	/**
+	 * Batch of messages delivered to a BatchAlgorithm. Reused for each batch.
+	 */
+	private List<Message> batch = new ArrayList<Message>();
+	
+	/**
+	 * Loop which executes the algorithm, if it has no thread of its own
+	 */
+	private EventLoop loop = null;
+	
+	private int throughput;
+	
+	/**
+	 * Location of the node, for the logging context of the loop's workers
+	 */
+	private String location;
+	
+	/**
+	 * Indicates the algorithm is scheduled (or running) in the loop
+	 */
+	private AtomicBoolean scheduled = new AtomicBoolean(false);
+	
+	private volatile boolean stopped = false;
+	
+	/**
+	 * Indicates the algorithm must be initialized the next time it is scheduled
+	 */
+	private volatile boolean initPending = false;
+	
+	private Runnable slice = new Runnable(){
+		@Override public void run(){
+			runSlice();
+		}
+	};
+	
+	/**
+	 * Signals the end of the algorithm's initialization, each time it is started
+	 */
+	private volatile CountDownLatch initialized = new CountDownLatch(1);
 		
 	/**
 	 * Constructor 
@@ -107,7 +178,8 @@ public class AlgorithmNode implements Node, Runnable {
 		
 		try {
 			this.algorithm = (Algorithm) Class.forName(algClass).newInstance();
-			
+			this.messageHandlers = DispatchTable.getTable(algorithm.getClass(), "handleMessage", Message.class);
+			this.eventHandlers = DispatchTable.getTable(algorithm.getClass(), "handleEvent", Event.class);
 			log = Logger.getLogger("dat.node.algorithm."+name);
 			String logLevel = config.getString("loglevel");
 			if(logLevel != null){
@@ -117,7 +189,13 @@ public class AlgorithmNode implements Node, Runnable {
 			Configuration parameters = config.subset("param");
 			
 			this.parameters = parameters;
-			this.workQueue = new LinkedBlockingQueue<WorkElement>();
+			
+			int capacity = config.getInt("queue.capacity", Mailbox.DEFAULT_CAPACITY);
+			String policy = config.getString("queue.policy", Mailbox.DEFAULT_POLICY.name());
+			long blockTimeout = config.getLong("queue.block.timeout", Mailbox.DEFAULT_BLOCK_TIMEOUT);
+			this.mailbox = new Mailbox(capacity,Mailbox.OverflowPolicy.parse(policy),blockTimeout);
+			this.metrics = new AlgorithmMetrics(mailbox);
+			this.batchSize = config.getInt("batch.size", DEFAULT_BATCH_SIZE);
 		} catch (Exception e) {
 			throw new IllegalArgumentException("Exception instantiating algorithm",e);
 		}
@@ -129,16 +207,26 @@ public class AlgorithmNode implements Node, Runnable {
 
 	public void signalEvent(Event event){
 
-		workQueue.add(new WorkElement(WorkElementType.Event,event));		
+		mailbox.putEvent(event);
 
 	}
 	
 	
+	/**
+	 * Adds a message to the algorithm's queue
+	 * 
+	 * @param message
+	 * @throws RejectedExecutionException if the queue is full and its policy is to reject messages, or to
+	 *         block the sender and it can't wait
+	 */
 	public void signalMessage(Message message){
 
-		try{
-			workQueue.add(new WorkElement(WorkElementType.Message,message));
-		}catch(IllegalStateException e){
+		metrics.messageReceived(message);
+		
+		if(!mailbox.putMessage(message)){
+			if(Tracer.isEnabled()){
+				Tracer.traceMessage(Tracer.DROP, getAddress().getLocation(), name, message, message.getSender());
+			}
 			log.warn("Discarting message due to lack of capacity \n" + message.toString());
 		}
 
@@ -152,7 +240,14 @@ public class AlgorithmNode implements Node, Runnable {
 
 	@Override
 	public long getTime() {
-		return networkNode.getTime();
+		long time = networkNode.getTime();
+		
+		InputRecorder r = recorder;
+		if((r != null) && (DAT.peekNode() == this)){
+			r.recordTime(time);
+		}
+		
+		return time;
 	}
 	
 
@@ -195,11 +290,24 @@ public class AlgorithmNode implements Node, Runnable {
 			throw new IllegalArgumentException("Message can't be null");
 		}
 		
+		MessageSendEvent event = new MessageSendEvent();
+		event.begin();
+		
 		message.setDestination(destination);
 		message.setSender(getAddress());
 		message.setAlgorithm(getName());
 		
 		sendNetworkMessage(destination, message);
+		
+		metrics.messageSent(destination, message);
+		
+		if(event.shouldCommit()){
+			event.algorithm = name;
+			event.messageType = message.getType();
+			event.destination = destination.getLocation();
+			event.attributes = message.getAttributes().size();
+			event.commit();
+		}
 	}
 
 
@@ -218,23 +326,75 @@ public class AlgorithmNode implements Node, Runnable {
 	@Override
 	public void sendMessage(List<NodeAddress>  destination, String id,String type, TypedMap attributes) throws DatException {
 		
-		for(NodeAddress d: destination){
-			sendMessage(d,id,type,attributes);
-		}
+		Message message = new Message(id,getName(),type,getAddress(),null,attributes);
+		
+		sendMessage(destination, message);
 	}
 
+	/**
+	 * Sends the message to all the destinations at once, so the transport can encode it only once.
+	 * The message is sent without destination, and each node receives it with its own address 
+	 * as destination.
+	 */
 	@Override
 	public void sendMessage(List<NodeAddress>  destination, Message message) throws DatException {
 		
+		if(destination == null){
+			throw new IllegalArgumentException("Destination can't be null");
+		}
+		
+		if(message == null){
+			throw new IllegalArgumentException("Message can't be null");
+		}
+		
+		if(destination.isEmpty()){
+			return;
+		}
+		
+		if(destination.size() == 1){
+			sendMessage(destination.get(0), message);
+			return;
+		}
+		
+		MessageSendEvent event = new MessageSendEvent();
+		event.begin();
+		
+		message.setDestination(null);
+		message.setSender(getAddress());
+		message.setAlgorithm(getName());
+		
+		if(Tracer.isEnabled()){
+			for(NodeAddress d: destination){
+				Tracer.traceMessage(Tracer.SEND, getAddress().getLocation(), name, message, d);
+			}
+		}
+		if(log.isDebugEnabled()){
+			log.debug("Sending message to " + destination.size() + " nodes " + message.toString());
+		}
+		networkNode.sendNetworkMessage(destination, message);
+		
 		for(NodeAddress d: destination){
-			sendMessage(d,message);
+			metrics.messageSent(d, message);
+		}
+		
+		if(event.shouldCommit()){
+			event.algorithm = name;
+			event.messageType = message.getType();
+			event.destination = destination.size() + " nodes";
+			event.attributes = message.getAttributes().size();
+			event.commit();
 		}
 	}
 
 	
 	private void sendNetworkMessage(NodeAddress destination,Message message) throws DatException{
 				
-		log.debug("Sending message " + message.toString());
+		if(Tracer.isEnabled()){
+			Tracer.traceMessage(Tracer.SEND, getAddress().getLocation(), name, message, destination);
+		}
+		if(log.isDebugEnabled()){
+			log.debug("Sending message " + message.toString());
+		}
 		networkNode.sendNetworkMessage(destination, message);
 	}
 	
@@ -247,9 +407,24 @@ public class AlgorithmNode implements Node, Runnable {
 	}
 
 	@Override
-	public Object getAlgorithm(String name, Class... interfaces) {
+	public Object getAlgorithm(String name, Class<?>... interfaces) {
 		return networkNode.getAlgorithm(name,interfaces);
 	}
+	
+	
+	@Override
+	public <A,R> CompletableFuture<R> invokeAsync(String name, Class<A> type, AlgorithmCall<A,R> call) {
+		return networkNode.invokeAsync(name, type, call);
+	}
+	
+	
+	/**
+	 * Executes a task in the algorithm's thread, after the events and messages already pending.
+	 */
+	@Override
+	public void execute(Runnable task) {
+		mailbox.putTask(task);
+	}
 
 
 	/**
@@ -269,45 +444,262 @@ public class AlgorithmNode implements Node, Runnable {
 	}
 	
 	
+	/**
+	 * Prepares to wait for a new initialization of the algorithm. Must be called before
+	 * starting the algorithm's thread.
+	 */
+	void resetInitialization(){
+		initialized = new CountDownLatch(1);
+	}
+	
+	/**
+	 * Waits until the algorithm has been initialized
+	 * 
+	 * @throws InterruptedException
+	 */
+	void awaitInitialization() throws InterruptedException{
+		initialized.await();
+	}
+	
+	
 	@Override
-	public synchronized void run() {
+	public void run() {
 		
 		DAT.setAlgorithmNode(this);
 		MDC.put("context", name);
 		
-		algorithm.init(this);
-		
-		synchronized (algorithm) {
-			algorithm.notify();
+		running = true;
+		try{
+			processWork();
+		}finally{
+			running = false;
 		}
-
+	}
+	
+	
+	/**
+	 * Initializes the algorithm and processes the work in the mailbox until interrupted
+	 */
+	private void processWork(){
+		
+		initialize();
 
 		while(true){
 
 			try {
-				WorkElement e =  workQueue.take();
-				
-				log.debug("Processing " + e.type.name() + " " + e.getElement().toString());
-				
-				//dynamically find the method to execute based on the event type and
-				//the argument's class
-				String methodName = "handle"+e.type.name();
-				Object arg = e.getElement();
-				
-				ReflectionUtils.invoke(methodName,algorithm,arg);
-				
-
+				process(mailbox.take());
 			} catch (InterruptedException e) {
 				log.trace("Interrupted while processing work queue");
+				log.debug("Work queue " + mailbox.toString());
 				return;
-			} catch (Exception e) {
-				log.error("Exception processing work element",e);
-			} 
-
-
+			}
+		}
+	}
+	
+	
+	/**
+	 * Initializes the algorithm, signaling the end of the initialization
+	 */
+	private void initialize(){
+		
+		InputRecorder r = recorder;
+		if(r != null){
+			r.recordInit();
+		}
+		
+		try{
+			algorithm.init(this);
+		}finally{
+			initialized.countDown();
 		}
 
-
+		if((algorithm instanceof BatchAlgorithm) && (batchSize > 1)){
+			batchAlgorithm = (BatchAlgorithm)algorithm;
+		}
+	}
+	
+	
+	/**
+	 * Processes an element of work taken from the mailbox 
+	 * 
+	 * @param work
+	 * @return the number of elements processed, which is greater than one if a batch of messages 
+	 *         was drained from the mailbox
+	 */
+	private int process(Object work){
+		
+		int processed = 1;
+		String type = null;
+		long start = System.nanoTime();
+		
+		MessageDispatchEvent event = new MessageDispatchEvent();
+		event.begin();
+		
+		InputRecorder r = recorder;
+		
+		try {
+			//find the handler to execute based on the kind of work and
+			//the argument's class
+			if((work instanceof Message) && (batchAlgorithm != null)){
+				type = AlgorithmMetrics.BATCH;
+				batch.add((Message)work);
+				processed += mailbox.drainMessages(batch, batchSize-1);
+				if(Tracer.isEnabled()){
+					Tracer.traceBatch(getAddress().getLocation(), name, batch.size());
+				}
+				if(log.isDebugEnabled()){
+					log.debug("Processing batch of " + batch.size() + " messages");
+				}
+				if(r != null){
+					r.recordBatch(batch);
+				}
+				try{
+					batchAlgorithm.handleMessages(batch);
+				}finally{
+					batch.clear();
+				}
+			}
+			else if(work instanceof Message){
+				type = ((Message)work).getType();
+				if(Tracer.isEnabled()){
+					Tracer.traceMessage(Tracer.MESSAGE, getAddress().getLocation(), name, (Message)work, ((Message)work).getSender());
+				}
+				if(log.isDebugEnabled()){
+					log.debug("Processing Message " + work.toString());
+				}
+				if(r != null){
+					r.recordMessage((Message)work);
+				}
+				messageHandlers.invoke(algorithm,work);
+			}
+			else if(work instanceof Runnable){
+				type = AlgorithmMetrics.TASK;
+				if(r != null){
+					r.recordTask();
+				}
+				((Runnable)work).run();
+			}
+			else{
+				type = ((Event)work).getType();
+				if(Tracer.isEnabled()){
+					Tracer.traceEvent(getAddress().getLocation(), name, (Event)work);
+				}
+				if(log.isDebugEnabled()){
+					log.debug("Processing Event " + work.toString());
+				}
+				if(r != null){
+					r.recordEvent((Event)work);
+				}
+				eventHandlers.invoke(algorithm,work);
+			}
+		} catch (Exception e) {
+			log.error("Exception processing work element",e);
+		} finally {
+			if(type != null){
+				metrics.handlerExecuted(type, System.nanoTime() - start);
+			}
+			
+			if(event.shouldCommit()){
+				event.algorithm = name;
+				event.messageType = type;
+				event.count = (work instanceof Runnable) ? 0 : processed;
+				if(work instanceof Message){
+					event.attributes = ((Message)work).getAttributes().size();
+					event.queueTime = mailbox.getLastWaitTime();
+				}
+				else if(work instanceof Event){
+					event.attributes = ((Event)work).getAttributes().size();
+				}
+				event.commit();
+			}
+		}
+		
+		return processed;
+	}
+	
+	
+	/**
+	 * Starts the execution of the algorithm in an {@link EventLoop}, instead of its own thread.
+	 * The algorithm is initialized in the loop. 
+	 * 
+	 * @param loop
+	 * @param throughput maximum number of work elements processed each time the algorithm is scheduled
+	 */
+	void startLoop(EventLoop loop,int throughput){
+		this.loop = loop;
+		this.throughput = throughput;
+		this.location = networkNode.getAddress().getLocation();
+		this.stopped = false;
+		this.initPending = true;
+		
+		mailbox.setNotifier(new Runnable(){
+			@Override public void run(){
+				schedule();
+			}
+		});
+		
+		schedule();
+	}
+	
+	
+	/**
+	 * Stops the execution of the algorithm in the {@link EventLoop}. The pending work is kept 
+	 * until the algorithm is started again. 
+	 */
+	void stopLoop(){
+		stopped = true;
+	}
+	
+	
+	/**
+	 * Schedules the execution of the algorithm in the loop, unless it is already scheduled
+	 */
+	private void schedule(){
+		if(!stopped && scheduled.compareAndSet(false, true)){
+			loop.execute(slice);
+		}
+	}
+	
+	
+	/**
+	 * Processes the pending work, up to the throughput, in a worker of the loop. 
+	 */
+	private void runSlice(){
+		
+		//workers are shared by all the nodes, so the context must be set each time
+		DAT.setNetworkNode(networkNode);
+		DAT.setAlgorithmNode(this);
+		MDC.put("location", location);
+		MDC.put("context", name);
+		
+		running = true;
+		try{
+			if(initPending){
+				initPending = false;
+				try{
+					initialize();
+				}catch(RuntimeException e){
+					log.error("Exception initializing algorithm",e);
+					stopped = true;
+					return;
+				}
+			}
+			
+			int processed = 0;
+			Object work;
+			while((processed < throughput) && !stopped && !initPending && ((work = mailbox.poll()) != null)){
+				processed += process(work);
+			}
+		}finally{
+			running = false;
+			DAT.setAlgorithmNode(null);
+			scheduled.set(false);
+		}
+		
+		//work added while the slice was running (or left by the throughput limit)
+		if(initPending || mailbox.hasWork()){
+			schedule();
+		}
 	}
 
 	
@@ -318,6 +710,57 @@ public class AlgorithmNode implements Node, Runnable {
 	Algorithm getAlgorithm(){
 		return this.algorithm;
 	}
+	
+	/**
+	 * 
+	 * @return the invocation handler shared by all the proxies of this algorithm
+	 */
+	AlgorithmProxy getProxy(){
+		AlgorithmProxy p = this.proxy;
+		if(p == null){
+			synchronized(this){
+				p = this.proxy;
+				if(p == null){
+					p = new AlgorithmProxy(this);
+					this.proxy = p;
+				}
+			}
+		}
+		return p;
+	}
+	
+	Mailbox getMailbox(){
+		return this.mailbox;
+	}
+	
+	AlgorithmMetrics getMetrics(){
+		return this.metrics;
+	}
+	
+	InputRecorder getRecorder(){
+		return this.recorder;
+	}
+	
+	/**
+	 * Sets the recorder of the algorithm's inputs
+	 * 
+	 * @param recorder
+	 */
+	void setRecorder(InputRecorder recorder){
+		this.recorder = recorder;
+	}
+	
+	/**
+	 * Indicates if the algorithm has processed all its pending work (or is not running) 
+	 * 
+	 * @return true if the algorithm is idle
+	 */
+	boolean isIdle(){
+		if(loop != null){
+			return stopped || (!scheduled.get() && !mailbox.hasWork());
+		}
+		return !running || mailbox.isIdle();
+	}
 
 
 	@Override
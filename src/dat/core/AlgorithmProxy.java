@@ -1,56 +1,116 @@
 package dat.core;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.log4j.MDC;
 
+import dat.replay.InputRecorder;
+
 
 /**
- * 
- * Mediates in the invocation to the methods exposed by the algorithm to the application 
- * and other algorithms, allowing for tracing, locking, etc. 
- * 
- * This default implementation adds no functionality. 
- * 
+ *
+ * Mediates in the invocation to the methods exposed by the algorithm to the application
+ * and other algorithms, allowing for tracing, locking, etc.
+ *
+ * This default implementation adds no functionality.
+ *
+ * Each method is resolved only once, as a {@link MethodHandle} bound to the algorithm, so an
+ * invocation costs a map lookup plus the direct call to the algorithm. A single instance is created
+ * for each algorithm and shared by all the proxies of the algorithm.
+ *
  * @author Pablo Chacin
  *
  */
 public class AlgorithmProxy implements InvocationHandler {
 
+	/**
+	 * Signature used to invoke all methods: (arguments) -> result
+	 */
+	private static final MethodType INVOKE_TYPE = MethodType.methodType(Object.class,Object[].class);
+
+	private static final Object[] NO_ARGS = new Object[0];
+
 	private AlgorithmNode node;
-	
+
+	/**
+	 * Handle of each method, bound to the algorithm
+	 */
+	private ConcurrentMap<Method,MethodHandle> handles = new ConcurrentHashMap<Method, MethodHandle>();
+
 	public AlgorithmProxy(AlgorithmNode node){
 		this.node = node;
 	}
-	
+
 	@Override
 	/**
 	 * Invokes the method in the target algorithms, ensuring the environment is
 	 * properly set.
 	 */
 	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-	
-			//save current state
-			AlgorithmNode currentNode = null;
-			
-			//If call is made from application, there's no current algorithm
-			//and a IllegalStateException is thrown;
-			try{
-				currentNode = DAT.getNode();
-			}catch(IllegalStateException e){};
-			
+
+			MethodHandle handle = handles.get(method);
+			if(handle == null){
+				handle = resolve(method);
+				handles.putIfAbsent(method, handle);
+			}
+
+			if(args == null){
+				args = NO_ARGS;
+			}
+
+			//save current state. If call is made from application, there's no current algorithm
+			AlgorithmNode currentNode = DAT.peekNode();
+
+			//call made by the algorithm itself, nothing to switch
+			if(currentNode == node){
+				return (Object)handle.invokeExact(args);
+			}
+
+			InputRecorder recorder = node.getRecorder();
+			if(recorder != null){
+				recorder.recordCall(method, args);
+			}
+
 			DAT.setAlgorithmNode(node);
 			MDC.put("algorithm", node.getName());
-			
-			Object result =  method.invoke(node.getAlgorithm(), args);
-			
-			//restore state
-			DAT.setAlgorithmNode(currentNode);
-			if(currentNode != null) {
-				MDC.put("algorithm", currentNode.getName());
+
+			try{
+				return (Object)handle.invokeExact(args);
+			}finally{
+				//restore state
+				DAT.setAlgorithmNode(currentNode);
+				if(currentNode != null) {
+					MDC.put("algorithm", currentNode.getName());
+				}
+				else{
+					MDC.remove("algorithm");
+				}
 			}
-			return result;
 	}
 
+
+	/**
+	 * Creates a handle to invoke a method on the algorithm, adapted to the invocation signature
+	 *
+	 * @param method
+	 * @return the MethodHandle
+	 */
+	private MethodHandle resolve(Method method){
+		try {
+			method.setAccessible(true);
+			return MethodHandles.lookup().unreflect(method)
+					                     .bindTo(node.getAlgorithm())
+					                     .asSpreader(Object[].class, method.getParameterTypes().length)
+					                     .asType(INVOKE_TYPE);
+		} catch (Exception e) {
+			throw new IllegalStateException("Exception accessing method " + method.getName() +
+					                        " in algorithm " + node.getName(),e);
+		}
+	}
 }
@@ -1,8 +1,18 @@
 package dat.core;
 
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.configuration.CompositeConfiguration;
 import org.apache.commons.configuration.Configuration;
@@ -11,10 +21,16 @@ import org.apache.commons.configuration.PropertiesConfiguration;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
+import dat.AlgorithmCall;
 import dat.DatException;
+import dat.Node;
 import dat.network.Network;
 import dat.network.NodeAddress;
+import dat.simulation.SimulatedNetwork;
+import dat.simulation.Simulation;
+import dat.trace.Tracer;
 import dat.utils.CmdLineArgs;
+import dat.utils.IdGenerator;
 import dat.utils.LoggingUtils;
 
 
@@ -28,6 +44,16 @@ import dat.utils.LoggingUtils;
  * <li> -config.log <path>: path to the log configuration file. Default is "log4j.properties" 
  * </ul>
  * 
+ * If the simulation.enabled parameter is true, the nodes are executed in a {@link Simulation}, 
+ * using a {@link SimulatedNetwork}, and the process ends when the simulation finishes.
+ * 
+ * If the dat.launcher.processes parameter is greater than 1, the nodes are distributed among
+ * that number of processes (see {@link Launcher}).
+ * 
+ * If the dat.trace.dir parameter is set, the processing of messages and events is traced to that
+ * directory (see {@link Tracer}). The size of the segment files and the number of records buffered
+ * by each thread are given by dat.trace.segment.size and dat.trace.buffer.records. 
+ * 
  * @author Pablo Chacin
  *
  */
@@ -49,6 +75,7 @@ public class DAT {
 	 */
 	static void setNetworkNode(NetworkNode node){
 		networkNode.set(node);
+		IdGenerator.setCurrent(node == null ? null : node.getIdGenerator());
 	}	
 
 	
@@ -95,6 +122,17 @@ public class DAT {
 		return node;
 	}
 	
+	
+	/**
+	 * Returns the {@link AlgorithmNode} under which the current thread runs, or null if the
+	 * thread doesn't run as a registered algorithm (for example, the application).
+	 * 
+	 * @return the current {@link AlgorithmNode} or null
+	 */
+	public static AlgorithmNode peekNode(){
+		return algorithmNode.get();
+	}
+	
 
 	/**
 	 * Logger for currently executiong thread
@@ -115,13 +153,61 @@ public class DAT {
 		return appLog;
 	}
 	
-	public static Object getAlgorithm(String name,Class...interfaces){
+	public static Object getAlgorithm(String name,Class<?>...interfaces){
 		return networkNode.get().getAlgorithm(name, interfaces);
 	}
 	
+	/**
+	 * Invokes asynchronously an algorithm of the current {@link NetworkNode} 
+	 * (see {@link Node#invokeAsync(String, Class, AlgorithmCall)}).
+	 * 
+	 * @param name
+	 * @param type
+	 * @param call
+	 * @return a future for the result of the call
+	 */
+	public static <A,R> CompletableFuture<R> invokeAsync(String name,Class<A> type,AlgorithmCall<A,R> call){
+		return networkNode.get().invokeAsync(name, type, call);
+	}
+	
 	public static void schedule(long delay,Runnable task){
 		networkNode.get().schedule(delay,task);
 	}
+	
+	/**
+	 * Returns the time of the current {@link NetworkNode}, which is simulated if the node 
+	 * runs in a {@link Simulation}.
+	 * 
+	 * @return the current time, in milliseconds
+	 */
+	public static long getTime(){
+		return getNetworkNode().getTime();
+	}
+	
+	/**
+	 * Blocks the current thread for a delay in the time of the current {@link NetworkNode}.
+	 * Applications must use this method instead of {@link Thread#sleep(long)} to run in 
+	 * a {@link Simulation}.
+	 * 
+	 * @param delay delay in milliseconds
+	 * @throws InterruptedException
+	 */
+	public static void sleep(long delay) throws InterruptedException{
+		getNetworkNode().sleep(delay);
+	}
+	
+	/**
+	 * Creates a thread, not yet started, to execute a task in the context of the current
+	 * {@link NetworkNode}, using the kind of threads configured with the node.executor 
+	 * parameter. The thread inherits the current execution context (network node and algorithm)
+	 * and is interrupted when the node is stopped.
+	 * 
+	 * @param task
+	 * @return the new Thread
+	 */
+	public static Thread newThread(Runnable task){
+		return getNetworkNode().newThread(task);
+	}
 
 	
 	public static Configuration getAppParameters(){
@@ -208,6 +294,33 @@ public class DAT {
 		Logger.getLogger("dat").setLevel(Level.toLevel(logLevel));
 		
 		
+		int processes = datParms.getInt("launcher.processes",1);
+		if((processes > 1) && !datParms.containsKey("launcher.child")){
+			try {
+				System.exit(new Launcher(config,args,processes).run());
+			} catch (Exception e) {
+				log.error("Exception launching processes",e);
+				System.exit(1);
+			}
+		}
+		
+		//nodes of processes started by a launcher must have distinct message ids
+		if(datParms.containsKey("launcher.child") && datParms.containsKey("launcher.ids")){
+			IdGenerator.setProcess(datParms.getInt("launcher.ids"), datParms.getInt("launcher.child"));
+		}
+		
+		String traceDir = datParms.getString("trace.dir");
+		if(traceDir != null){
+			try {
+				Tracer.open(new File(traceDir), 
+						    datParms.getInt("trace.segment.size",Tracer.DEFAULT_SEGMENT_SIZE),
+						    datParms.getInt("trace.buffer.records",Tracer.DEFAULT_BUFFER_RECORDS));
+			} catch (IOException e) {
+				log.error("Exception opening trace",e);
+				System.exit(1);
+			}
+		}
+		
 		int nodes = 0;
 		try{
 			 nodes= config.getInt("network.nodes",1);
@@ -250,20 +363,55 @@ public class DAT {
 			//network configuraion
 			Configuration networkConfig = config.subset("network.param");
 			
-			//start each node
-			for(int n=0;n < nodes;n++){
-
-				Network network = networkClass.newInstance();
-				network.init(networkConfig);
-				Runnable application = applicationClass.newInstance();
-				NetworkNode node = new NetworkNode(nodeConfig,network,application,appConfig);
-								
-				//install algorithms
-				registerAlgorithms(node,config);
-				
-				//start node in a new Thread
+			Simulation simulation = null;
+			if(config.getBoolean("simulation.enabled",false)){
+				simulation = new Simulation(config.subset("simulation"));
+			}
+			
+			long startTime = System.currentTimeMillis();
+			
+			List<NetworkNode> nodeList;
+			if(simulation != null){
+				//nodes are created in order, so the simulation is reproducible
+				nodeList = new ArrayList<NetworkNode>();
+				for(int n=0;n < nodes;n++){
+					nodeList.add(createNode(n, config, nodeConfig, networkConfig, appConfig, simulation));
+				}
+			}
+			else{
+				nodeList = createNodes(nodes, config, nodeConfig, networkConfig, appConfig);
+			}
+			
+			long createdTime = System.currentTimeMillis();
+			
+			//start each node in a new Thread
+			for(NetworkNode node: nodeList){
 				new Thread(node).start();
 			}
+			
+			for(NetworkNode node: nodeList){
+				node.awaitStarted();
+			}
+			
+			long startedTime = System.currentTimeMillis();
+			log.info("Startup of " + nodes + " nodes: creation=" + (createdTime - startTime) + 
+					 "ms start=" + (startedTime - createdTime) + "ms total=" + (startedTime - startTime) + "ms");
+			
+			//report the metrics of the nodes to the launcher when the process ends
+			if(datParms.containsKey("launcher.child")){
+				final List<NetworkNode> launched = nodeList;
+				Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+					@Override public void run(){
+						System.out.println(Launcher.reportMetrics(launched));
+						System.out.flush();
+					}
+				},"dat.launcher.metrics"));
+			}
+			
+			if(simulation != null){
+				simulation.run();
+				System.exit(0);
+			}
 
 		
 		} catch (Exception e) {
@@ -276,6 +424,88 @@ public class DAT {
 	}
 
 
+	/**
+	 * Creates a node, with its network and application, and registers its algorithms
+	 * 
+	 * @param n index of the node
+	 * @return the NetworkNode, not yet started
+	 * @throws Exception
+	 */
+	private NetworkNode createNode(int n,Configuration config,Configuration nodeConfig,
+			                       Configuration networkConfig,Configuration appConfig,
+			                       Simulation simulation) throws Exception {
+		
+		long start = System.nanoTime();
+		
+		Network network = networkClass.newInstance();
+		
+		Simulation.NodeScheduler scheduler = null;
+		if(simulation != null){
+			if(!(network instanceof SimulatedNetwork)){
+				throw new DatException("Simulation requires network.class=" + SimulatedNetwork.class.getName());
+			}
+			scheduler = simulation.forNode(n);
+			((SimulatedNetwork)network).setScheduler(scheduler);
+		}
+		
+		network.init(networkConfig);
+		Runnable application = applicationClass.newInstance();
+		NetworkNode node = new NetworkNode(nodeConfig,network,application,appConfig);
+		
+		if(simulation != null){
+			node.setScheduler(scheduler);
+			simulation.addNode(scheduler,node);
+		}
+						
+		//install algorithms
+		registerAlgorithms(node,config);
+		
+		node.getMetrics().created(System.nanoTime() - start);
+		
+		return node;
+	}
+	
+	
+	/**
+	 * Creates the nodes concurrently, using a thread per processor. 
+	 * 
+	 * @param nodes number of nodes
+	 * @return the list of nodes, ordered by index
+	 * @throws Exception if the creation of any node fails
+	 */
+	private List<NetworkNode> createNodes(int nodes,final Configuration config,final Configuration nodeConfig,
+			                              final Configuration networkConfig,final Configuration appConfig) throws Exception {
+		
+		int threads = Math.max(1,Math.min(nodes, Runtime.getRuntime().availableProcessors()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		
+		try{
+			List<Future<NetworkNode>> futures = new ArrayList<Future<NetworkNode>>();
+			for(int n=0;n < nodes;n++){
+				final int index = n;
+				futures.add(executor.submit(new Callable<NetworkNode>(){
+					@Override public NetworkNode call() throws Exception{
+						return createNode(index, config, nodeConfig, networkConfig, appConfig, null);
+					}
+				}));
+			}
+			
+			List<NetworkNode> nodeList = new ArrayList<NetworkNode>();
+			for(Future<NetworkNode> f: futures){
+				try{
+					nodeList.add(f.get());
+				}catch(ExecutionException e){
+					throw (e.getCause() instanceof Exception) ? (Exception)e.getCause() : e;
+				}
+			}
+			
+			return nodeList;
+		}finally{
+			executor.shutdown();
+		}
+	}
+	
+
 	/**
 	 * Convenience method to install and start an algorithm from the application.
 	 * 
@@ -326,7 +556,7 @@ public class DAT {
 		
 		node.stop();
 		try {
-			Thread.sleep(delay);
+			node.sleep(delay);
 		} catch (InterruptedException e) {
 			return;
 		}
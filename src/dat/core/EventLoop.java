@@ -0,0 +1,88 @@
+package dat.core;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Executes the algorithms of all the nodes of the JVM on a fixed pool of worker threads, instead of 
+ * a thread for each algorithm. Selected with node.executor=eventloop.
+ * 
+ * Each {@link AlgorithmNode} behaves as an actor: when work is added to its {@link Mailbox}, the node is 
+ * scheduled in the pool (unless it was already scheduled) and a worker processes the pending work, up to 
+ * a maximum number of elements (the throughput) before giving other nodes a chance to execute. As a node 
+ * is never scheduled twice at the same time, its work is always processed serially, as with a thread. 
+ * 
+ * The pool is a work-stealing {@link ForkJoinPool} in asynchronous (FIFO) mode, with as many workers as 
+ * processors. Algorithms should not block (for example, waiting for other algorithms) as they hold one of 
+ * the workers while blocked.
+ * 
+ * A single loop is shared by all the nodes in the JVM (see {@link #getDefault()}).
+ * 
+ * @author Pablo Chacin
+ *
+ */
+public class EventLoop implements Executor {
+
+	public static final String EVENTLOOP = "eventloop";
+	
+	/**
+	 * Default maximum number of work elements processed by a node each time it is scheduled
+	 */
+	public static final int DEFAULT_THROUGHPUT = 32;
+	
+	private static Logger log = Logger.getLogger("dat.node.loop");
+	
+	private static EventLoop defaultLoop = null;
+	
+	/**
+	 * Returns the loop shared by all the nodes of the JVM, creating it if needed.
+	 * 
+	 * @return the default EventLoop
+	 */
+	public static EventLoop getDefault(){
+		synchronized (EventLoop.class) {
+			if(defaultLoop == null){
+				defaultLoop = new EventLoop(Runtime.getRuntime().availableProcessors());
+			}
+		}
+		
+		return defaultLoop;
+	}
+	
+	
+	private ForkJoinPool pool;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param workers number of worker threads
+	 */
+	public EventLoop(int workers){
+		this.pool = new ForkJoinPool(workers,
+				                     ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+				                     new Thread.UncaughtExceptionHandler() {
+										@Override
+										public void uncaughtException(Thread t, Throwable e) {
+											log.error("Exception in event loop worker " + t.getName(),e);
+										}
+									},
+				                     true);
+	}
+	
+	
+	/**
+	 * Executes a task in one of the workers
+	 */
+	@Override
+	public void execute(Runnable task){
+		pool.execute(task);
+	}
+	
+	
+	public int getWorkers(){
+		return pool.getParallelism();
+	}
+}
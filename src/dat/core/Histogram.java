@@ -0,0 +1,208 @@
+package dat.core;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Distribution of non negative values (for example, durations in nanoseconds) in a fixed set of
+ * buckets. The bucket i holds the values in the range [2^(i-1), 2^i), so the error of any
+ * percentile is below a factor of two, using a fixed amount of memory.
+ *
+ * Values can be recorded concurrently from multiple threads without locks: each bucket is a
+ * {@link LongAdder}, which spreads the updates of contending threads over separated cells.
+ *
+ * @author Pablo Chacin
+ *
+ */
+public class Histogram {
+
+	/**
+	 * Summary of the distribution at a point in time
+	 *
+	 */
+	public static class Snapshot {
+
+		private long count;
+
+		private long mean;
+
+		private long max;
+
+		private long p50;
+
+		private long p90;
+
+		private long p99;
+
+		Snapshot(long count, long mean, long max, long p50, long p90, long p99) {
+			this.count = count;
+			this.mean = mean;
+			this.max = max;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getMean() {
+			return mean;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		public long getP50() {
+			return p50;
+		}
+
+		public long getP90() {
+			return p90;
+		}
+
+		public long getP99() {
+			return p99;
+		}
+
+		@Override
+		public String toString(){
+			return "count=" + count + " mean=" + mean + " max=" + max +
+			       " p50=" + p50 + " p90=" + p90 + " p99=" + p99;
+		}
+	}
+
+
+	public static final int BUCKETS = 64;
+
+	private static final LongBinaryOperator MAX = new LongBinaryOperator(){
+		@Override public long applyAsLong(long a, long b){
+			return Math.max(a, b);
+		}
+	};
+
+	private LongAdder[] buckets = new LongAdder[BUCKETS];
+
+	private LongAdder sum = new LongAdder();
+
+	private LongAccumulator max = new LongAccumulator(MAX, 0);
+
+
+	public Histogram(){
+		for(int i = 0; i < BUCKETS; i++){
+			buckets[i] = new LongAdder();
+		}
+	}
+
+
+	/**
+	 * Records a value. Negative values are recorded as 0.
+	 *
+	 * @param value
+	 */
+	public void record(long value){
+		if(value < 0){
+			value = 0;
+		}
+
+		buckets[Math.min(BUCKETS - Long.numberOfLeadingZeros(value), BUCKETS-1)].increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+
+	/**
+	 *
+	 * @return the number of values recorded
+	 */
+	public long getCount(){
+		long count = 0;
+		for(LongAdder b: buckets){
+			count += b.sum();
+		}
+		return count;
+	}
+
+
+	public long getSum(){
+		return sum.sum();
+	}
+
+
+	public long getMax(){
+		return max.get();
+	}
+
+
+	public long getMean(){
+		long count = getCount();
+		return count == 0 ? 0 : getSum()/count;
+	}
+
+
+	/**
+	 * Returns an upper bound of a percentile: the upper limit of the bucket which holds it,
+	 * or the maximum value, if lower.
+	 *
+	 * @param percentile a value in the range (0,100]
+	 * @return the upper bound of the percentile, 0 if no value has been recorded
+	 */
+	public long getPercentile(double percentile){
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		for(int i = 0; i < BUCKETS; i++){
+			counts[i] = buckets[i].sum();
+			count += counts[i];
+		}
+
+		return percentile(counts, count, percentile);
+	}
+
+
+	/**
+	 *
+	 * @return a summary of the current distribution
+	 */
+	public Snapshot getSnapshot(){
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		for(int i = 0; i < BUCKETS; i++){
+			counts[i] = buckets[i].sum();
+			count += counts[i];
+		}
+
+		return new Snapshot(count, count == 0 ? 0 : getSum()/count, getMax(),
+		                    percentile(counts, count, 50),
+		                    percentile(counts, count, 90),
+		                    percentile(counts, count, 99));
+	}
+
+
+	private long percentile(long[] counts, long count, double percentile){
+
+		if(count == 0){
+			return 0;
+		}
+
+		long rank = (long)Math.ceil(count * percentile / 100.0);
+		long accumulated = 0;
+		for(int i = 0; i < BUCKETS; i++){
+			accumulated += counts[i];
+			if(accumulated >= rank){
+				long upper = (i == 0) ? 0 : (i >= BUCKETS-1 ? Long.MAX_VALUE : (1L << i) - 1);
+				return Math.min(upper, getMax());
+			}
+		}
+
+		return getMax();
+	}
+
+
+	@Override
+	public String toString(){
+		return getSnapshot().toString();
+	}
+}
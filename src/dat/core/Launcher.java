@@ -0,0 +1,387 @@
+package dat.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.log4j.Logger;
+
+import dat.network.local.LocalNetwork;
+
+/**
+ * Launches the nodes of an experiment in several processes (JVMs) of the local machine, instead of
+ * a single one. Selected with dat.launcher.processes=N (N > 1).
+ *
+ * Each process is started with the same command line arguments and JVM options as the launcher,
+ * plus arguments which override:
+ * <ul>
+ * <li> network.nodes: its share of the nodes. The first (nodes % N) processes get one extra node.
+ * <li> network.param.socket.port and network.param.socket.range: its share of the port range,
+ *      so processes never compete for the same ports.
+ * <li> dat.launcher.child: the index of the process, which prevents it from launching other processes.
+ * <li> dat.launcher.ids: a random number common to all the processes, used with the index of the process
+ *      to give distinct identifiers to the messages of all the nodes (see {@link IdGenerator#setProcess(int, int)}).
+ * </ul>
+ *
+ * Additional JVM options for the processes can be given with the dat.launcher.jvmargs parameter.
+ *
+ * The output of each process is copied to the launcher's output, prefixing each line with the process
+ * index. The launcher waits for all the processes and then reports, for each one, its nodes, exit status,
+ * running time and the metrics of its nodes and algorithms (see {@link NodeMetrics} and {@link AlgorithmMetrics}),
+ * followed by the metrics aggregated over all the processes. Each process writes its metrics to its output
+ * when it exits, in a line which starts with {@link #METRICS}. Processes are destroyed if the launcher is terminated.
+ *
+ * Nodes in different processes can only communicate over a network which crosses process boundaries
+ * (for example, {@link dat.network.socket.SocketNetwork}), therefore simulations and the {@link LocalNetwork}
+ * are not supported. Unless the port is 0, the port range must give each process as many ports as nodes.
+ *
+ * @author Pablo Chacin
+ *
+ */
+public class Launcher {
+
+	/**
+	 * A child process and its share of the experiment
+	 */
+	private class Child {
+
+		int index;
+
+		int nodes;
+
+		int port;
+
+		int range;
+
+		Process process;
+
+		long startTime;
+
+		long endTime;
+
+		int exitStatus;
+
+		Thread output;
+
+		/**
+		 * Metrics reported by the process, null if it didn't report them
+		 */
+		Map<String,Long> metrics;
+	}
+
+
+	/**
+	 * Prefix of the line with the metrics of a process
+	 */
+	public static final String METRICS = "dat.launcher.metrics";
+
+	/**
+	 * Metrics aggregated as their maximum instead of their sum
+	 */
+	private static final String HIGH_WATER_MARK = "mailboxHighWaterMark";
+
+
+	private static Logger log = Logger.getLogger("dat.launcher");
+
+	private Configuration config;
+
+	private String[] args;
+
+	private int processes;
+
+	private List<Child> children = new ArrayList<Child>();
+
+	/**
+	 * Base of the identifiers of the nodes of all the processes
+	 */
+	private int idBase = new SecureRandom().nextInt();
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param config the configuration of the experiment
+	 * @param args the command line arguments of the launcher
+	 * @param processes number of processes to launch
+	 */
+	public Launcher(Configuration config,String[] args,int processes){
+		this.config = config;
+		this.args = args;
+		this.processes = processes;
+	}
+
+
+	/**
+	 * Checks if the network class keeps its nodes in a single JVM, as the {@link LocalNetwork} does
+	 */
+	private static boolean isLocalNetwork(String className){
+		if(className == null){
+			return false;
+		}
+
+		try{
+			return LocalNetwork.class.isAssignableFrom(Class.forName(className, false, Launcher.class.getClassLoader()));
+		}catch(ClassNotFoundException e){
+			//reported by each process
+			return false;
+		}
+	}
+
+
+	/**
+	 * Launches the processes and waits for their termination
+	 *
+	 * @return 0 if all the processes ended normally, the exit status of the first one which
+	 *         failed otherwise
+	 * @throws IOException if a process can't be started
+	 * @throws InterruptedException
+	 */
+	public int run() throws IOException, InterruptedException{
+
+		if(config.getBoolean("simulation.enabled",false)){
+			throw new IllegalArgumentException("Simulations can't be executed in multiple processes");
+		}
+
+		if(isLocalNetwork(config.getString("network.class",null))){
+			throw new IllegalArgumentException("Networks within a JVM can't be executed in multiple processes: " +
+			                                   config.getString("network.class"));
+		}
+
+		int nodes = config.getInt("network.nodes",1);
+		int port = config.getInt("network.param.socket.port",0);
+		int range = config.getInt("network.param.socket.range",0);
+
+		int processCount = Math.min(processes, nodes);
+
+		//port 0 lets each node bind to an ephemeral port, so no range needs to be split
+		int childNodes = (nodes + processCount - 1) / processCount;
+		if(port != 0 && range / processCount < childNodes){
+			throw new IllegalArgumentException("network.param.socket.range must have at least " + childNodes*processCount +
+			                                   " ports to give each of the " + processCount + " processes a slice of " +
+			                                   childNodes + " ports");
+		}
+
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+			@Override public void run(){
+				for(Child c: children){
+					c.process.destroy();
+				}
+			}
+		}));
+
+		int childRange = range / processCount;
+		for(int i = 0; i < processCount; i++){
+			Child child = new Child();
+			child.index = i;
+			child.nodes = nodes/processCount + (i < nodes % processCount ? 1 : 0);
+			child.port = port + i*childRange;
+			child.range = childRange;
+
+			start(child);
+		}
+
+		int status = 0;
+		for(Child c: children){
+			c.exitStatus = c.process.waitFor();
+			c.output.join();
+
+			if((c.exitStatus != 0) && (status == 0)){
+				status = c.exitStatus;
+			}
+		}
+
+		report();
+
+		return status;
+	}
+
+
+	private void start(final Child child) throws IOException{
+
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+
+		String jvmArgs = config.getString("dat.launcher.jvmargs");
+		if(jvmArgs != null && jvmArgs.trim().length() > 0){
+			command.addAll(Arrays.asList(jvmArgs.trim().split("\\s+")));
+		}
+
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(DAT.class.getName());
+
+		//later arguments override the former
+		command.addAll(Arrays.asList(args));
+		command.add("-network.nodes");
+		command.add(String.valueOf(child.nodes));
+		if(child.range > 0){
+			command.add("-network.param.socket.port");
+			command.add(String.valueOf(child.port));
+			command.add("-network.param.socket.range");
+			command.add(String.valueOf(child.range));
+		}
+		command.add("-dat.launcher.child");
+		command.add(String.valueOf(child.index));
+		command.add("-dat.launcher.ids");
+		command.add(String.valueOf(idBase));
+
+		log.info("Launching process " + child.index + " with " + child.nodes + " nodes");
+		log.debug("Command: " + command);
+
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectErrorStream(true);
+
+		child.startTime = System.currentTimeMillis();
+		child.process = builder.start();
+		children.add(child);
+
+		child.output = new Thread(new Runnable(){
+			@Override public void run(){
+				copyOutput(child);
+			}
+		}, "dat.launcher.output-" + child.index);
+		child.output.setDaemon(true);
+		child.output.start();
+	}
+
+
+	/**
+	 * Copies the output of a process to the launcher's output, prefixing each line
+	 * with the process index
+	 *
+	 * @param child
+	 */
+	private void copyOutput(Child child){
+
+		String prefix = "[" + child.index + "] ";
+
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(child.process.getInputStream()));
+			try{
+				String line;
+				while((line = reader.readLine()) != null){
+					if(line.startsWith(METRICS)){
+						child.metrics = parseMetrics(line);
+						continue;
+					}
+					System.out.println(prefix + line);
+				}
+			}finally{
+				reader.close();
+			}
+		} catch (IOException e) {
+			log.warn("Exception reading output of process " + child.index,e);
+		}
+
+		//the output ends when the process exits
+		child.endTime = System.currentTimeMillis();
+	}
+
+
+	private void report(){
+		Map<String,Long> total = new LinkedHashMap<String,Long>();
+		int reported = 0;
+
+		for(Child c: children){
+			log.info("Process " + c.index + ": nodes=" + c.nodes +
+					 (c.range > 0 ? " ports=" + c.port + "-" + (c.port + c.range -1) : "") +
+					 " exit=" + c.exitStatus + " time=" + (c.endTime - c.startTime) + "ms" +
+					 (c.metrics != null ? " " + formatMetrics(c.metrics) : " (no metrics)"));
+
+			if(c.metrics == null){
+				continue;
+			}
+			reported++;
+			for(Map.Entry<String,Long> m: c.metrics.entrySet()){
+				add(total, m.getKey(), m.getValue());
+			}
+		}
+
+		log.info("Total of " + reported + " of " + children.size() + " processes: " + formatMetrics(total));
+	}
+
+
+	/**
+	 * Returns the metrics of the nodes of a process and their algorithms, summed over all the nodes,
+	 * except the high water mark of the mailboxes, which is the maximum.
+	 *
+	 * @param nodes the nodes of the process
+	 * @return the line reported by the process
+	 */
+	static String reportMetrics(List<NetworkNode> nodes){
+		Map<String,Long> metrics = new LinkedHashMap<String,Long>();
+		for(NetworkNode node: nodes){
+			NodeMetrics n = node.getMetrics();
+			add(metrics, "messagesSent", n.getMessagesSent());
+			add(metrics, "messagesReceived", n.getMessagesReceived());
+			add(metrics, "bytesSent", n.getBytesSent());
+			add(metrics, "bytesReceived", n.getBytesReceived());
+			add(metrics, "eventsScheduled", n.getEventsScheduled());
+			add(metrics, "eventsFired", n.getEventsFired());
+			for(AlgorithmNode a: node.installList){
+				AlgorithmMetrics m = a.getMetrics();
+				add(metrics, "mailboxDropped", m.getMailboxDropped());
+				add(metrics, "mailboxRejected", m.getMailboxRejected());
+				add(metrics, HIGH_WATER_MARK, m.getMailboxHighWaterMark());
+			}
+		}
+
+		return METRICS + " " + formatMetrics(metrics);
+	}
+
+
+	/**
+	 * Aggregates the value of a metric: its sum, or its maximum for the high water mark
+	 */
+	private static void add(Map<String,Long> metrics,String name,long value){
+		Long current = metrics.get(name);
+		if(current == null){
+			metrics.put(name, value);
+		}
+		else if(name.equals(HIGH_WATER_MARK)){
+			metrics.put(name, Math.max(current, value));
+		}
+		else{
+			metrics.put(name, current + value);
+		}
+	}
+
+
+	private static String formatMetrics(Map<String,Long> metrics){
+		StringBuilder s = new StringBuilder();
+		for(Map.Entry<String,Long> m: metrics.entrySet()){
+			if(s.length() > 0){
+				s.append(' ');
+			}
+			s.append(m.getKey()).append('=').append(m.getValue());
+		}
+		return s.toString();
+	}
+
+
+	private static Map<String,Long> parseMetrics(String line){
+		Map<String,Long> metrics = new LinkedHashMap<String,Long>();
+		for(String pair: line.substring(METRICS.length()).trim().split("\\s+")){
+			int eq = pair.indexOf('=');
+			if(eq <= 0){
+				continue;
+			}
+			try{
+				metrics.put(pair.substring(0, eq), Long.valueOf(pair.substring(eq+1)));
+			}catch(NumberFormatException e){
+				log.warn("Invalid metric " + pair);
+			}
+		}
+		return metrics;
+	}
+}
@@ -0,0 +1,663 @@
+package dat.core;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import dat.Event;
+import dat.Message;
+
+/**
+ * Holds the work pending to be processed by an {@link AlgorithmNode}: the messages received from
+ * the network and the events fired by the node's scheduler.
+ *
+ * Messages are kept in a bounded ring buffer which can be accessed by multiple producers (the
+ * threads of the transport) without locks. Each slot of the ring has a sequence number which tells
+ * if the slot is free for a producer or holds a message for the consumer, following Dmitry Vyukov's
+ * bounded queue. Messages are stored directly in the ring, without any wrapper or list node.
+ *
+ * Events and tasks (for example, asynchronous invocations from other algorithms) are kept in a
+ * separated unbounded queue. Events are generated by the algorithm itself and tasks have callers
+ * waiting for them, so they must never be discarded.
+ *
+ * All the work is processed in arrival order: each message, event or task is given a number from
+ * an arrival sequence when added, and the consumer always takes the work with the lowest number
+ * from the heads of both queues. Therefore, for example, a timeout event never overtakes a
+ * response received before it fired.
+ *
+ * When the ring is full, the {@link OverflowPolicy} decides what happens with the new message.
+ *
+ * The time each message waits in the ring, from its addition until it is taken by the consumer, is
+ * recorded in a {@link Histogram} (see {@link #getWaitTime()}).
+ *
+ * There must be a single consumer thread, which waits (parked) when there is no work. Alternatively,
+ * the consumer can be notified when work is added and poll the mailbox from any thread, as long as
+ * it never polls from two threads at the same time (see {@link EventLoop}).
+ *
+ * @author Pablo Chacin
+ *
+ */
+public class Mailbox {
+
+	/**
+	 * What to do with a message received when the mailbox is full
+	 *
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Blocks the producer until there is space for the message, up to the block timeout of the
+		 * mailbox. The message is rejected, as with REJECT, if the producer is the consumer of any
+		 * mailbox (for example, an algorithm sending a message to another node of the same process),
+		 * a worker of an {@link EventLoop}, if it is interrupted while waiting, or if the timeout
+		 * expires.
+		 * 
+		 * Notice that BLOCK applies back-pressure across nodes: a transport's receiving thread which
+		 * is blocked stops reading from its connection, and eventually the remote sender blocks
+		 * writing to it. The consumers never wait and the wait is bounded by the block timeout, so
+		 * nodes sending messages to each other can't wait for each other forever.
+		 */
+		BLOCK,
+		/**
+		 * Discards the new message
+		 */
+		DROP_NEWEST,
+		/**
+		 * Discards the oldest pending message to make space for the new one
+		 */
+		DROP_OLDEST,
+		/**
+		 * Rejects the message, throwing a {@link RejectedExecutionException} to the producer.
+		 * 
+		 * Only senders in the same process (for example, over a {@link dat.network.local.LocalNetwork})
+		 * are notified of the rejection. Over sockets the producer is the receiving thread of the
+		 * transport, which doesn't reply to the sender, so the message is silently dropped: the
+		 * rejection is only logged and counted by the receiving node.
+		 */
+		REJECT;
+
+		/**
+		 * Parses the name of a policy, ignoring case and accepting "-" as separator (e.g. drop-oldest)
+		 *
+		 * @param name
+		 * @return the policy
+		 * @throws IllegalArgumentException if the name doesn't correspond to a policy
+		 */
+		public static OverflowPolicy parse(String name){
+			return valueOf(name.trim().toUpperCase().replace('-', '_'));
+		}
+	};
+
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * Messages are never discarded unless a dropping policy is configured
+	 */
+	public static final OverflowPolicy DEFAULT_POLICY = OverflowPolicy.BLOCK;
+
+	/**
+	 * Maximum time a blocked producer is parked before checking again for space
+	 */
+	private static final long MAX_BLOCK_PARK = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/**
+	 * Maximum time, in milliseconds, a producer is blocked waiting for space
+	 */
+	public static final long DEFAULT_BLOCK_TIMEOUT = 1000;
+
+	/**
+	 * Marks the threads which consume a mailbox, which must never wait for space in other mailbox
+	 */
+	private static final ThreadLocal<Boolean> consumerThread = new ThreadLocal<Boolean>();
+
+	private Message[] buffer;
+
+	/**
+	 * Time (System.nanoTime) on which the message of each slot was added
+	 */
+	private long[] enqueued;
+
+	/**
+	 * Arrival number of the message of each slot
+	 */
+	private long[] arrivals;
+
+	/**
+	 * Sequence of each slot
+	 */
+	private AtomicLongArray sequences;
+
+	private int mask;
+
+	/**
+	 * Position of the next message to insert
+	 */
+	private AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Position of the next message to remove
+	 */
+	private AtomicLong head = new AtomicLong();
+
+	/**
+	 * Events and tasks pending, in arrival order
+	 */
+	private Queue<Pending> pending = new ConcurrentLinkedQueue<Pending>();
+
+	/**
+	 * Arrival sequence shared by messages, events and tasks
+	 */
+	private AtomicLong arrival = new AtomicLong();
+
+	private OverflowPolicy policy;
+
+	/**
+	 * Maximum time (in nanoseconds) a producer waits for space under the BLOCK policy
+	 */
+	private long blockTimeout;
+
+	/**
+	 * Thread consuming the mailbox
+	 */
+	private volatile Thread consumer;
+
+	/**
+	 * Indicates the consumer is (or is about to be) parked waiting for work
+	 */
+	private volatile boolean waiting;
+
+	/**
+	 * Notified when work is added, instead of unparking the consumer. Used when the consumer
+	 * doesn't wait for work in {@link #take()} (see {@link EventLoop}).
+	 */
+	private volatile Runnable notifier;
+
+	/**
+	 * Maximum number of messages pending at the same time
+	 */
+	private AtomicLong highWaterMark = new AtomicLong();
+
+	private AtomicLong dropped = new AtomicLong();
+
+	private AtomicLong rejected = new AtomicLong();
+
+	private Histogram waitTime = new Histogram();
+
+	/**
+	 * Time waited by the last message taken by the consumer. Only accessed by the consumer.
+	 */
+	private long lastWaitTime;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity maximum number of pending messages. Is rounded up to the next power of two.
+	 * @param policy the policy applied to messages received when the mailbox is full
+	 */
+	public Mailbox(int capacity, OverflowPolicy policy) {
+		this(capacity,policy,DEFAULT_BLOCK_TIMEOUT);
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity maximum number of pending messages. Is rounded up to the next power of two.
+	 * @param policy the policy applied to messages received when the mailbox is full
+	 * @param blockTimeout maximum time, in milliseconds, a producer waits for space under the BLOCK policy
+	 */
+	public Mailbox(int capacity, OverflowPolicy policy, long blockTimeout) {
+
+		if(capacity < 1 || capacity > (1 << 30)){
+			throw new IllegalArgumentException("Invalid mailbox capacity " + capacity);
+		}
+
+		int size = Integer.highestOneBit(capacity);
+		if(size < capacity){
+			size = size << 1;
+		}
+
+		this.buffer = new Message[size];
+		this.enqueued = new long[size];
+		this.arrivals = new long[size];
+		this.sequences = new AtomicLongArray(size);
+		this.mask = size -1;
+		this.policy = policy;
+		this.blockTimeout = TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+
+		for(int i = 0; i < size; i++){
+			sequences.set(i, i);
+		}
+	}
+
+
+	/**
+	 * Adds an event. Events are never discarded.
+	 *
+	 * @param event
+	 */
+	public void putEvent(Event event){
+		pending.add(new Pending(arrival.getAndIncrement(),event));
+		signalConsumer();
+	}
+
+
+	/**
+	 * Adds a task to be executed by the consumer. Tasks are never discarded.
+	 *
+	 * @param task
+	 */
+	public void putTask(Runnable task){
+		pending.add(new Pending(arrival.getAndIncrement(),task));
+		signalConsumer();
+	}
+
+
+	/**
+	 * Adds a message, applying the overflow policy if the mailbox is full
+	 *
+	 * @param message
+	 * @return true if the message was added, false if it was discarded
+	 * @throws RejectedExecutionException if the mailbox is full and the policy is REJECT, or is BLOCK
+	 *         and the producer can't wait
+	 */
+	public boolean putMessage(Message message){
+
+		while(!offer(message)){
+
+			switch(policy){
+			case BLOCK:
+				//a consumer must never wait, as the consumer of this mailbox could be waiting
+				//for space in its own mailbox. Neither the workers of an event loop, which
+				//could be all waiting for each other
+				if(consumerThread.get() != null ||
+				   (notifier != null && Thread.currentThread() instanceof ForkJoinWorkerThread)){
+					rejected.incrementAndGet();
+					throw new RejectedExecutionException("Mailbox full. Capacity " + getCapacity());
+				}
+				if(!awaitSpace()){
+					rejected.incrementAndGet();
+					throw new RejectedExecutionException("Timeout or interrupted waiting for space in mailbox");
+				}
+				break;
+			case DROP_OLDEST:
+				if(pollMessage(false) != null){
+					dropped.incrementAndGet();
+				}
+				break;
+			case REJECT:
+				rejected.incrementAndGet();
+				throw new RejectedExecutionException("Mailbox full. Capacity " + getCapacity());
+			default:
+				dropped.incrementAndGet();
+				return false;
+			}
+		}
+
+		signalConsumer();
+
+		return true;
+	}
+
+
+	/**
+	 * Takes the next pending work, in arrival order: a task (a Runnable), an {@link Event} or a {@link Message}.
+	 * Waits if there is no work pending.
+	 *
+	 * Must be called always from the same thread.
+	 *
+	 * @return the next task, Event or Message
+	 * @throws InterruptedException
+	 */
+	public Object take() throws InterruptedException{
+
+		setConsumer();
+
+		while(true){
+
+			Object work = next();
+			if(work != null){
+				return work;
+			}
+
+			waiting = true;
+
+			//check again, a producer could have added work before seeing the flag
+			if(!pending.isEmpty() || !isEmpty()){
+				waiting = false;
+				continue;
+			}
+
+			LockSupport.park(this);
+			waiting = false;
+
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+		}
+	}
+
+
+	/**
+	 * Takes the next pending work, without waiting (see {@link #take()}).
+	 *
+	 * Must be called always from the consumer thread.
+	 *
+	 * @return the next task, Event or Message, or null if there is no work pending
+	 */
+	public Object poll(){
+
+		setConsumer();
+
+		return next();
+	}
+
+
+	/**
+	 *
+	 * @return true if there is any work pending
+	 */
+	public boolean hasWork(){
+		return !pending.isEmpty() || !isEmpty();
+	}
+
+
+	/**
+	 * Sets the notifier called each time work is added.
+	 *
+	 * @param notifier
+	 */
+	public void setNotifier(Runnable notifier){
+		this.notifier = notifier;
+	}
+
+
+	/**
+	 * Indicates if the consumer is waiting for work and there is no work pending
+	 * 
+	 * @return true if the mailbox is idle
+	 */
+	public boolean isIdle(){
+		return waiting && pending.isEmpty() && isEmpty();
+	}
+
+
+	/**
+	 * Removes up to a maximum number of pending messages, without waiting, and adds them to a list.
+	 * Stops at the first message which arrived after a pending event or task.
+	 * 
+	 * Must be called from the consumer thread.
+	 * 
+	 * @param messages the list on which the messages are added
+	 * @param max maximum number of messages to remove
+	 * @return the number of messages removed
+	 */
+	public int drainMessages(List<? super Message> messages,int max){
+
+		int count = 0;
+		while(count < max){
+			Pending p = pending.peek();
+			if(p != null && p.arrival < headArrival()){
+				break;
+			}
+			Message message = pollMessage(true);
+			if(message == null){
+				break;
+			}
+			messages.add(message);
+			count++;
+		}
+
+		return count;
+	}
+
+
+	/**
+	 * Takes the work which arrived first
+	 * 
+	 * @return the next task, Event or Message, or null if there is no work pending
+	 */
+	private Object next(){
+		Pending p = pending.peek();
+		if(p != null && p.arrival < headArrival()){
+			//only the consumer removes from the queue, so it is still the head
+			pending.poll();
+			return p.work;
+		}
+
+		return pollMessage(true);
+	}
+
+
+	/**
+	 * 
+	 * @return the arrival number of the oldest message in the ring, or Long.MAX_VALUE if it is empty
+	 */
+	private long headArrival(){
+		long pos = head.get();
+		int slot = (int)pos & mask;
+		if(sequences.get(slot) != pos+1){
+			return Long.MAX_VALUE;
+		}
+		return arrivals[slot];
+	}
+
+
+	/**
+	 * Tries to add a message to the ring
+	 *
+	 * @param message
+	 * @return false if the ring is full
+	 */
+	private boolean offer(Message message){
+
+		while(true){
+			long pos = tail.get();
+			int slot = (int)pos & mask;
+			long seq = sequences.get(slot);
+
+			if(seq == pos){
+				if(tail.compareAndSet(pos, pos+1)){
+					buffer[slot] = message;
+					enqueued[slot] = System.nanoTime();
+					arrivals[slot] = arrival.getAndIncrement();
+					sequences.set(slot, pos+1);
+					updateHighWaterMark(pos+1 - head.get());
+					return true;
+				}
+			}
+			else if(seq < pos){
+				//slot still holds a message from the previous turn
+				return false;
+			}
+
+			//other producer took the slot, retry
+		}
+	}
+
+
+	/**
+	 * Removes the oldest message from the ring. Can be called concurrently by the consumer and
+	 * producers applying the DROP_OLDEST policy.
+	 *
+	 * @param record indicates if the time the message waited must be recorded
+	 * @return the oldest message, null if the ring is empty
+	 */
+	private Message pollMessage(boolean record){
+
+		while(true){
+			long pos = head.get();
+			int slot = (int)pos & mask;
+			long seq = sequences.get(slot);
+
+			if(seq == pos+1){
+				if(head.compareAndSet(pos, pos+1)){
+					Message message = buffer[slot];
+					long time = enqueued[slot];
+					buffer[slot] = null;
+					sequences.set(slot, pos + mask + 1);
+					if(record){
+						lastWaitTime = System.nanoTime() - time;
+						waitTime.record(lastWaitTime);
+					}
+					return message;
+				}
+			}
+			else if(seq < pos+1){
+				return null;
+			}
+		}
+	}
+
+
+	private boolean isEmpty(){
+		long pos = head.get();
+		return sequences.get((int)pos & mask) != pos+1;
+	}
+
+
+	/**
+	 * Records the current thread as the consumer
+	 */
+	private void setConsumer(){
+		Thread current = Thread.currentThread();
+		if(consumer != current){
+			consumer = current;
+			consumerThread.set(Boolean.TRUE);
+		}
+	}
+
+
+	/**
+	 * Waits until there is (probably) space in the ring, up to the block timeout
+	 *
+	 * @return false if the producer was interrupted while waiting or the timeout expired
+	 */
+	private boolean awaitSpace(){
+
+		long deadline = System.nanoTime() + blockTimeout;
+		long park = 1000;
+		while(tail.get() - head.get() > mask){
+			LockSupport.parkNanos(this, park);
+			if(Thread.currentThread().isInterrupted() || System.nanoTime() - deadline > 0){
+				return false;
+			}
+			park = Math.min(park*2, MAX_BLOCK_PARK);
+		}
+
+		return true;
+	}
+
+
+	private void signalConsumer(){
+		Runnable n = notifier;
+		if(n != null){
+			n.run();
+		}
+		else if(waiting){
+			waiting = false;
+			LockSupport.unpark(consumer);
+		}
+	}
+
+
+	private void updateHighWaterMark(long size){
+		long max = highWaterMark.get();
+		while(size > max && !highWaterMark.compareAndSet(max, size)){
+			max = highWaterMark.get();
+		}
+	}
+
+
+	/**
+	 *
+	 * @return the maximum number of pending messages
+	 */
+	public int getCapacity(){
+		return buffer.length;
+	}
+
+
+	public OverflowPolicy getPolicy(){
+		return policy;
+	}
+
+	/**
+	 *
+	 * @return the (approximated) number of messages pending
+	 */
+	public int size(){
+		long size = tail.get() - head.get();
+		return (int)Math.max(0, Math.min(size, buffer.length));
+	}
+
+	/**
+	 *
+	 * @return the maximum number of messages that have been pending at the same time
+	 */
+	public long getHighWaterMark(){
+		return highWaterMark.get();
+	}
+
+	/**
+	 *
+	 * @return the number of messages discarded because the mailbox was full
+	 */
+	public long getDropped(){
+		return dropped.get();
+	}
+
+	/**
+	 *
+	 * @return the number of messages rejected because the mailbox was full
+	 */
+	public long getRejected(){
+		return rejected.get();
+	}
+
+	/**
+	 * Must be called from the consumer thread.
+	 *
+	 * @return the time the last message taken waited in the mailbox, in nanoseconds
+	 */
+	long getLastWaitTime(){
+		return lastWaitTime;
+	}
+
+	/**
+	 *
+	 * @return the distribution of the time the messages waited in the mailbox, in nanoseconds
+	 */
+	public Histogram getWaitTime(){
+		return waitTime;
+	}
+
+
+	/**
+	 * An event or task pending, with its arrival number
+	 */
+	private static class Pending {
+
+		final long arrival;
+
+		final Object work;
+
+		Pending(long arrival,Object work){
+			this.arrival = arrival;
+			this.work = work;
+		}
+	}
+
+
+	@Override
+	public String toString(){
+		return "capacity=" + getCapacity() + " policy=" + policy + " pending=" + size() +
+		       " high water mark=" + getHighWaterMark() + " dropped=" + getDropped() + " rejected=" + getRejected();
+	}
+}
@@ -1,21 +1,34 @@
 package dat.core;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.configuration.Configuration;
 import org.apache.log4j.Logger;
 import org.apache.log4j.MDC;
 
 import dat.Algorithm;
+import dat.AlgorithmCall;
 import dat.DatException;
 import dat.Event;
 import dat.Message;
+import dat.jfr.TimerFireEvent;
+import dat.jfr.TimerScheduleEvent;
+import dat.replay.InputRecorder;
+import dat.trace.Tracer;
 import dat.network.Network;
 import dat.network.NodeAddress;
 import dat.network.Transport;
@@ -23,6 +36,11 @@ import dat.network.TransportException;
 import dat.network.TransportHandler;
 import dat.utils.Exponential;
 import dat.utils.FormattingUtils;
+import dat.utils.IdGenerator;
+import dat.utils.LongHashMap;
+import dat.utils.Scheduler;
+import dat.utils.Timeout;
+import dat.utils.TimingWheel;
 
 /**
  * A node in a network. Handles the communication with other nodes.
@@ -32,14 +50,63 @@ import dat.utils.FormattingUtils;
  * <li> node.failure.delay: mean time between failures. Distribution is assumed to be Exponential.
  *                          a value of 0 means no failure.
  * <li> node.failure.recovery: mean time before recovering from a failure. Distribution is assumed to be Exponential.                         
+ * <li> node.executor: kind of threads used to execute the algorithms and the application: platform (default), 
+ *                     virtual or the name of a {@link java.util.concurrent.ThreadFactory} class (see {@link NodeThreadFactory}). 
+ *                     With eventloop, the algorithms are executed by the {@link EventLoop} shared by all the nodes 
+ *                     and the application in a platform thread.
+ * <li> node.executor.throughput: maximum number of work elements processed by an algorithm each time it is
+ *                     scheduled in the event loop. Default is {@link EventLoop#DEFAULT_THROUGHPUT}.
+ * <li> node.metrics.jmx: publish the metrics of the node and its algorithms as MBeans (see {@link NodeMetrics}).
+ *                     Default is true.
+ * <li> node.replay.dir: directory on which the inputs of each algorithm are recorded, in the file 
+ *                     &lt;location&gt;-&lt;algorithm&gt;.replay, to be replayed by the {@link dat.replay.ReplayRunner}.
+ *                     By default, inputs are not recorded.
  * </ul>
  * 
+ * Failure and recovery delays are measured in the node's time, which is simulated when the node runs in a 
+ * {@link dat.simulation.Simulation}.
+ * 
  * 
  * @author Pablo Chacin
  *
  */
 public class NetworkNode implements Runnable, TransportHandler {
 
+	/**
+	 * Identifies the proxy of an algorithm for a set of interfaces
+	 *
+	 */
+	protected static class ProxyKey {
+		
+		private String name;
+		
+		private Class<?>[] interfaces;
+		
+		private int hash;
+		
+		ProxyKey(String name,Class<?>[] interfaces){
+			this.name = name;
+			this.interfaces = interfaces;
+			this.hash = 31*name.hashCode() + Arrays.hashCode(interfaces);
+		}
+		
+		@Override
+		public int hashCode(){
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object o){
+			if(!(o instanceof ProxyKey)){
+				return false;
+			}
+			
+			ProxyKey other = (ProxyKey)o;
+			return name.equals(other.name) && Arrays.equals(interfaces, other.interfaces);
+		}
+	}
+	
+	
 	/**
 	 * Sets the environment to execute an application thread
 	 * 
@@ -64,11 +131,40 @@ public class NetworkNode implements Runnable, TransportHandler {
 
 	protected Map<String,AlgorithmNode> algorithms;
 	
+	/**
+	 * Proxies of the algorithms, indexed by algorithm and interfaces
+	 */
+	protected ConcurrentMap<ProxyKey,Object> proxies;
+	
 	protected List<AlgorithmNode> installList;
 
-	protected Map<String,EventTask> events;
+	/**
+	 * Events scheduled by the algorithms, indexed by id. Access must be synchronized on the map.
+	 */
+	protected LongHashMap<EventTask> events;
+	
+	/**
+	 * Number of nodes created in the process, used as index of their {@link IdGenerator}
+	 */
+	private static AtomicInteger nodeCount = new AtomicInteger();
+	
+	/**
+	 * Generator of the ids of the messages and events created in this node
+	 */
+	protected IdGenerator ids = new IdGenerator(nodeCount.getAndIncrement());
 
-	protected Timer scheduler;
+	/**
+	 * Scheduler used to get the time and schedule the events. By default, the {@link TimingWheel} 
+	 * shared by all the nodes. 
+	 */
+	protected Scheduler scheduler;
+	
+	protected NodeMetrics metrics;
+	
+	/**
+	 * Signals the end of the first start of the node
+	 */
+	protected CountDownLatch started = new CountDownLatch(1);
 
 	protected Transport transport;
 
@@ -76,9 +172,16 @@ public class NetworkNode implements Runnable, TransportHandler {
 	
 
 	/**
-	 * 
+	 * Creates and keeps track of the threads of the algorithms and the application
 	 */
-	protected ThreadGroup threads;
+	protected NodeThreadFactory threads;
+	
+	/**
+	 * Loop which executes the algorithms, null if each algorithm has its own thread
+	 */
+	protected EventLoop eventLoop;
+	
+	protected int throughput;
 
 	/**
 	 * Application to launch in this node
@@ -105,15 +208,19 @@ public class NetworkNode implements Runnable, TransportHandler {
 
 
 	/**
-	 * TimerTask to trigger an {@link Event}
+	 * Task to trigger an {@link Event}, adding it to the work queue of the algorithm
 	 * 
 	 *
 	 */
-	protected class EventTask extends TimerTask {
+	protected class EventTask implements Runnable {
 
 		AlgorithmNode context;
 
 		Event event;
+		
+		volatile Timeout timeout;
+		
+		volatile boolean cancelled = false;
 
 		public EventTask(AlgorithmNode context, Event event) {
 			super();
@@ -125,8 +232,34 @@ public class NetworkNode implements Runnable, TransportHandler {
 		@Override
 		public void run() {
 
-			context.signalEvent(event);	
-			events.remove(event.getId());
+			synchronized(events){
+				if(events.get(event.getLongId()) == this){
+					events.remove(event.getLongId());
+				}
+			}
+			
+			if(!cancelled){
+				metrics.eventFired();
+				
+				TimerFireEvent fire = new TimerFireEvent();
+				if(fire.shouldCommit()){
+					fire.algorithm = context.getName();
+					fire.eventType = event.getType();
+					fire.commit();
+				}
+				
+				context.signalEvent(event);
+			}
+		}
+		
+		
+		public void cancel(){
+			cancelled = true;
+			
+			Timeout t = timeout;
+			if(t != null){
+				t.cancel();
+			}
 		}
 
 
@@ -141,7 +274,7 @@ public class NetworkNode implements Runnable, TransportHandler {
 	 * @author Pablo Chacin
 	 *
 	 */
-	protected class ApplicationTask extends TimerTask{
+	protected class ApplicationTask implements Runnable{
 
 		private Runnable target;
 
@@ -174,9 +307,11 @@ public class NetworkNode implements Runnable, TransportHandler {
 		this.application = application;
 		this.appConfiguration = appConfiguration;
 		this.algorithms = new HashMap<String, AlgorithmNode>();
-		this.installList = new ArrayList<AlgorithmNode>();
-		this.scheduler = new Timer();
-		this.events = new HashMap<String,EventTask>();
+		this.proxies = new ConcurrentHashMap<ProxyKey, Object>();
+		this.installList = new CopyOnWriteArrayList<AlgorithmNode>();
+		this.scheduler = TimingWheel.getDefault();
+		this.events = new LongHashMap<EventTask>();
+		this.metrics = new NodeMetrics(this);
 		}
 
 
@@ -191,15 +326,47 @@ public class NetworkNode implements Runnable, TransportHandler {
 
 
 	/**
-	 * Returns the current execution time. 
+	 * Sets the scheduler of this node. Must be called before the node is started.
+	 * 
+	 * @param scheduler
+	 */
+	void setScheduler(Scheduler scheduler){
+		this.scheduler = scheduler;
+	}
+
+
+	/**
+	 * Returns the current execution time, as given by the node's {@link Scheduler}. 
 	 * 
-	 * Currently, this is the real execution time, future versions will support simulated 
-	 * execution time to slow dawn execution for debugging and educational purposes.
+	 * By default, this is the real execution time. When the node runs in a 
+	 * {@link dat.simulation.Simulation}, it is the simulated time.
 	 * 
 	 * @return the current execution time.
 	 */
 	long getTime() {
-		return System.currentTimeMillis();
+		return scheduler.getTime();
+	}
+	
+	
+	/**
+	 * Blocks the calling thread for a delay in the node's time
+	 * 
+	 * @param delay delay in milliseconds
+	 * @throws InterruptedException
+	 */
+	void sleep(long delay) throws InterruptedException{
+		final CountDownLatch wakeup = new CountDownLatch(1);
+		Timeout timeout = scheduler.schedule(new Runnable(){
+			@Override public void run(){
+				wakeup.countDown();
+			}
+		}, delay);
+		
+		try{
+			wakeup.await();
+		}finally{
+			timeout.cancel();
+		}
 	}
 
 
@@ -212,18 +379,44 @@ public class NetworkNode implements Runnable, TransportHandler {
 	void scheduleEvent(AlgorithmNode node,Event event) {
 		EventTask task = new EventTask(node,event);
 
-		scheduler.schedule(task,event.getTime());
-		events.put(event.getId(),task);
+		//register before scheduling, as the task removes itself when executed
+		synchronized(events){
+			events.put(event.getLongId(),task);
+		}
+		task.timeout = scheduler.schedule(task,event.getTime());
+		metrics.eventScheduled();
+		
+		TimerScheduleEvent schedule = new TimerScheduleEvent();
+		if(schedule.shouldCommit()){
+			schedule.algorithm = node.getName();
+			schedule.eventType = event.getType();
+			schedule.delay = event.getTime();
+			schedule.commit();
+		}
 	}
 
 	/**
-	 * Cancels the execution of a scheduled event
+	 * Cancels the execution of a scheduled event. Can be called from any thread.
 	 * 
 	 * @param id
 	 */
 	public void cancelEvent(String id){
-		EventTask task = events.remove(id);
+		cancelEvent(IdGenerator.toLong(id));
+	}
+	
+	/**
+	 * Cancels the execution of a scheduled event given its long id (see {@link Event#getLongId()}).
+	 * Can be called from any thread.
+	 * 
+	 * @param id
+	 */
+	public void cancelEvent(long id){
+		EventTask task;
+		synchronized(events){
+			task = events.remove(id);
+		}
 		if(task != null){
+			metrics.eventCancelled();
 			task.cancel();
 		}		
 	}
@@ -231,14 +424,21 @@ public class NetworkNode implements Runnable, TransportHandler {
 
 	/**
 	 * Returns a proxy to access an algorithm from one application or another Algorithm
-	 * using one or more given interfaces
+	 * using one or more given interfaces. Proxies are created once for each combination 
+	 * of algorithm and interfaces.
 	 * 
 	 * @param name
 	 * @param interfaces
 	 * 
 	 * @return a proxy for the algorithm
 	 */
-	public Object getAlgorithm(String name,Class...interfaces) {
+	public Object getAlgorithm(String name,Class<?>...interfaces) {
+
+		ProxyKey key = new ProxyKey(name, interfaces);
+		Object proxy = proxies.get(key);
+		if(proxy != null){
+			return proxy;
+		}
 
 		AlgorithmNode node = algorithms.get(name);
 
@@ -246,15 +446,48 @@ public class NetworkNode implements Runnable, TransportHandler {
 			throw new IllegalArgumentException("Algorithm not registered: "+name);
 		}
 
-		//return node.getAlgorithm();
-
 		//create a proxy for the algorithm
-		return java.lang.reflect.Proxy.newProxyInstance(
+		proxy = java.lang.reflect.Proxy.newProxyInstance(
 											this.getClass().getClassLoader(),
 											interfaces,
-											new AlgorithmProxy(node));
+											node.getProxy());
 		 
+		Object existing = proxies.putIfAbsent(key, proxy);
+		
+		return existing != null ? existing : proxy;
+	}
+
+
+	/**
+	 * Invokes an algorithm asynchronously, executing the call in the algorithm's thread
+	 * (see {@link Node#invokeAsync(String, Class, AlgorithmCall)})
+	 * 
+	 * @param name
+	 * @param type
+	 * @param call
+	 * @return a future for the result of the call
+	 */
+	public <A,R> CompletableFuture<R> invokeAsync(String name,final Class<A> type,final AlgorithmCall<A,R> call) {
+
+		final AlgorithmNode node = algorithms.get(name);
 
+		if(node == null){
+			throw new IllegalArgumentException("Algorithm not registered: "+name);
+		}
+
+		final CompletableFuture<R> result = new CompletableFuture<R>();
+		
+		node.execute(new Runnable(){
+			@Override public void run(){
+				try{
+					result.complete(call.call(type.cast(node.getAlgorithm())));
+				}catch(Throwable e){
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		
+		return result;
 	}
 
 
@@ -274,6 +507,14 @@ public class NetworkNode implements Runnable, TransportHandler {
 			
 			AlgorithmNode node= new AlgorithmNode(this,name,config);	
 			algorithms.put(name, node);
+			
+			//discard the proxies of an algorithm previously registered with the same name
+			Iterator<ProxyKey> keys = proxies.keySet().iterator();
+			while(keys.hasNext()){
+				if(keys.next().name.equals(name)){
+					keys.remove();
+				}
+			}
 			installList.add(node);
 
 		} catch (Exception e) {
@@ -305,12 +546,26 @@ public class NetworkNode implements Runnable, TransportHandler {
 
 		//Initialize the node;
 
-		//get failure delay, default is 0. Convert to milliseconds
-		failureDelay = configuration.getLong("failure.delay",0)*1000;
-		recoveryDelay = configuration.getLong("failure.recovery",0)*1000;
+		try{
+			//get failure delay, default is 0. Convert to milliseconds
+			failureDelay = configuration.getLong("failure.delay",0)*1000;
+			recoveryDelay = configuration.getLong("failure.recovery",0)*1000;
 
 
-		this.threads = new ThreadGroup(Thread.currentThread().getThreadGroup(),"");
+			String executor = configuration.getString("executor",NodeThreadFactory.PLATFORM);
+			if(executor.equalsIgnoreCase(EventLoop.EVENTLOOP)){
+				this.eventLoop = EventLoop.getDefault();
+				this.throughput = configuration.getInt("executor.throughput", EventLoop.DEFAULT_THROUGHPUT);
+				executor = NodeThreadFactory.PLATFORM;
+			}
+		
+			this.threads = new NodeThreadFactory(executor,
+			                                     new ThreadGroup(Thread.currentThread().getThreadGroup(),""));
+		}catch(RuntimeException e){
+			//release threads waiting for the start of the node
+			started.countDown();
+			throw e;
+		}
 
 		//Set this instance as the local network node for this thread.
 		DAT.setNetworkNode(this);
@@ -322,10 +577,10 @@ public class NetworkNode implements Runnable, TransportHandler {
 			while(true){
 
 				try {
-					Thread.sleep(Exponential.nextLong(1.0/failureDelay));
+					sleep(Exponential.nextLong(1.0/failureDelay));
 
 					stop();
-					Thread.sleep(Exponential.nextLong(1.0/recoveryDelay));
+					sleep(Exponential.nextLong(1.0/recoveryDelay));
 
 					start();
 
@@ -369,12 +624,20 @@ public class NetworkNode implements Runnable, TransportHandler {
 
 	/**
 	 * Dispatches a message received from a transport
+	 * 
+	 * @throws RejectedExecutionException if the algorithm's queue is full and rejects the message
 	 */
 	@Override
 	public void dispatchMessage(Message message){
 		AlgorithmNode algorithm =algorithms.get(message.getAlgorithm());
 
-		log.trace("Dispatching message " + message.toString());
+		if(Tracer.isEnabled()){
+			Tracer.traceMessage(Tracer.DISPATCH, getAddress().getLocation(), message.getAlgorithm(), message, message.getSender());
+		}
+		if(log.isTraceEnabled()){
+			log.trace("Dispatching message " + message.toString());
+		}
+		metrics.messageReceived();
 
 		if(algorithm != null){
 			algorithm.signalMessage(message);
@@ -396,12 +659,22 @@ public class NetworkNode implements Runnable, TransportHandler {
 
 			log.info("Stopping node");
 			
-			//prevent further events and reset timer (creating a new one)
-			this.scheduler.cancel();
-			this.scheduler = new Timer();
+			//prevent further events
+			long[] pending;
+			synchronized(events){
+				pending = events.keys();
+			}
+			for(long id: pending){
+				cancelEvent(id);
+			}
 
 			//stop all algorithm threads
 			threads.interrupt();
+			if(eventLoop != null){
+				for(AlgorithmNode a: installList){
+					a.stopLoop();
+				}
+			}
 			//			Thread[] threadList = new Thread[Thread.activeCount()];
 			//			threads.enumerate(threadList);
 			//			for(Thread t: threadList){
@@ -411,6 +684,15 @@ public class NetworkNode implements Runnable, TransportHandler {
 			//			}
 
 
+			metrics.unregister();
+			
+			for(AlgorithmNode a: installList){
+				InputRecorder recorder = a.getRecorder();
+				if(recorder != null){
+					recorder.flush();
+				}
+			}
+			
 			//disconnect from network
 			transport.disconnect();
 		} catch (DatException e) {
@@ -427,10 +709,14 @@ public class NetworkNode implements Runnable, TransportHandler {
 
 		try {
 
+			long startTime = System.nanoTime();
+
 			//connect to network
 			transport.setHandler(this);
 			transport.connect();
 
+			long connectTime = System.nanoTime();
+
 			//set debugging context (inherited by sub threads)
 			MDC.put("location", transport.getAddress().getLocation());
 			//all elements must be initialized, otherwise, a null value is returned
@@ -438,6 +724,15 @@ public class NetworkNode implements Runnable, TransportHandler {
 
 			log.info("Starting node");
 			
+			if(configuration.getBoolean("metrics.jmx", true)){
+				metrics.register(transport.getAddress().getLocation(), installList);
+			}
+			
+			String replayDir = configuration.getString("replay.dir");
+			if(replayDir != null){
+				startRecording(new File(replayDir));
+			}
+			
 			//start the execution of the algorithm in another thread.
 
 			for(AlgorithmNode a: installList){
@@ -447,27 +742,105 @@ public class NetworkNode implements Runnable, TransportHandler {
 			
 			
 			//start application
-			new Thread(threads,new AppThread(application)).start();
+			threads.newThread(new AppThread(application)).start();
+
+			metrics.started(connectTime-startTime, System.nanoTime()-connectTime);
+			log.debug("Node started: connect=" + metrics.getConnectTime() + "ms" +
+			          " algorithms=" + metrics.getInitTime() + "ms");
 
 		} catch (DatException e) {
 			log.error("Exception initializing nework node",e);
-		} 
+		} finally {
+			started.countDown();
+		}
 
 
 	}
 
+	/**
+	 * Starts recording the inputs of the algorithms which are not being recorded yet. 
+	 * The recording continues if the node is restarted.
+	 * 
+	 * @param directory
+	 */
+	private void startRecording(File directory){
+		
+		if(!directory.isDirectory() && !directory.mkdirs()){
+			log.error("Can't create replay directory " + directory);
+			return;
+		}
+		
+		String location = getAddress().getLocation().replaceAll("[^A-Za-z0-9._-]", "_");
+		for(AlgorithmNode a: installList){
+			if(a.getRecorder() != null){
+				continue;
+			}
+			
+			File file = new File(directory, location + "-" + a.getName() + ".replay");
+			try {
+				a.setRecorder(new InputRecorder(file, a.getName(), a.getAlgorithm().getClass().getName(),
+				                                getAddress(), a.getParameters()));
+			} catch (IOException e) {
+				log.error("Exception creating replay log " + file, e);
+			}
+		}
+	}
+	
+	
 	private  void startAlgorithm(AlgorithmNode algorithm){
-		String threadName = getAddress().getLocation() + "." + algorithm.getName();
-		Thread algorithmThread = new Thread(threads,algorithm,threadName);
-		algorithmThread.start();
+		algorithm.resetInitialization();
+		
+		if(eventLoop != null){
+			algorithm.startLoop(eventLoop, throughput);
+		}
+		else{
+			String threadName = getAddress().getLocation() + "." + algorithm.getName();
+			Thread algorithmThread = threads.newThread(algorithm,threadName);
+			algorithmThread.start();
+		}
 		
-		synchronized(algorithm.getAlgorithm()) {
 		try {
-			algorithm.getAlgorithm().wait();
+			algorithm.awaitInitialization();
 		} catch (InterruptedException e) {
 			log.error("Exception waiting initialization of algorithm " + algorithm.getName(),e);
 		}
+	}
+
+	/**
+	 * Waits until the node has been started for the first time
+	 * 
+	 * @throws InterruptedException
+	 */
+	void awaitStarted() throws InterruptedException{
+		started.await();
+	}
+	
+	
+	/**
+	 * Indicates if all the algorithms of the node have processed their pending work.
+	 * 
+	 * @return true if the node is idle
+	 */
+	public boolean isIdle(){
+		for(AlgorithmNode a: installList){
+			if(!a.isIdle()){
+				return false;
+			}
 		}
+		return true;
+	}
+	
+
+	/**
+	 * Creates a thread, not yet started, to execute a task in the context of this node. 
+	 * The thread is created according to the node.executor parameter and is interrupted
+	 * when the node is stopped.
+	 * 
+	 * @param task
+	 * @return the new Thread
+	 */
+	Thread newThread(Runnable task){
+		return threads.newThread(task);
 	}
 
 
@@ -480,6 +853,7 @@ public class NetworkNode implements Runnable, TransportHandler {
 	void sendNetworkMessage(NodeAddress destination, Message message) throws DatException {
 		try {
 			transport.sendNetworkMessage(destination, message);
+			metrics.messageSent();
 		} catch (TransportException e) {
 			log.trace("Error sending message" + message.toString(), e);
 			throw new DatException("Exception sending message to "+ destination.getLocation(),e);
@@ -487,6 +861,23 @@ public class NetworkNode implements Runnable, TransportHandler {
 	}
 
 
+	/**
+	 * Sends a message to many destinations over the network
+	 * @param destinations
+	 * @param message
+	 * @throws DatException
+	 */
+	void sendNetworkMessage(List<NodeAddress> destinations, Message message) throws DatException {
+		try {
+			transport.sendNetworkMessage(destinations, message);
+			metrics.messagesSent(destinations.size());
+		} catch (TransportException e) {
+			log.trace("Error sending message" + message.toString(), e);
+			throw new DatException("Exception sending message to "+ destinations.size() + " nodes",e);
+		}
+	}
+
+
 	/**
 	 * 
 	 * @return returns the address of the node under the network transpot protocol
@@ -496,6 +887,23 @@ public class NetworkNode implements Runnable, TransportHandler {
 	}
 
 	
+	/**
+	 * 
+	 * @return the metrics of the node
+	 */
+	NodeMetrics getMetrics(){
+		return metrics;
+	}
+
+	/**
+	 *
+	 * @return the generator of the ids of the messages and events of the node
+	 */
+	IdGenerator getIdGenerator(){
+		return ids;
+	}
+
+	
 	NodeAddress resolve(String address) throws TransportException{
 		return transport.resolve(address);
 	}
@@ -0,0 +1,238 @@
+package dat.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+import dat.network.TransportStatistics;
+
+/**
+ * Metrics of a {@link NetworkNode}: the events scheduled by its algorithms, the messages
+ * and bytes exchanged through its transport and the time taken to create and start the node.
+ *
+ * The metrics of the node and of its algorithms (see {@link AlgorithmMetrics}) are published in the
+ * platform's MBean server while the node is running, under the names
+ * <ul>
+ * <li> dat:type=Node,node=&lt;location&gt;
+ * <li> dat:type=Algorithm,node=&lt;location&gt;,name=&lt;algorithm&gt;
+ * </ul>
+ *
+ * @author Pablo Chacin
+ *
+ */
+public class NodeMetrics implements NodeMetricsMXBean {
+
+	public static final String DOMAIN = "dat";
+
+	private static Logger log = Logger.getLogger("dat.node.metrics");
+
+	private NetworkNode node;
+
+	private LongAdder eventsScheduled = new LongAdder();
+
+	private LongAdder eventsCancelled = new LongAdder();
+
+	private LongAdder eventsFired = new LongAdder();
+
+	private LongAdder messagesSent = new LongAdder();
+
+	private LongAdder messagesReceived = new LongAdder();
+
+	/**
+	 * Times of the creation and the last start of the node, in nanoseconds
+	 */
+	private volatile long creationTime;
+
+	private volatile long connectTime;
+
+	private volatile long initTime;
+
+	/**
+	 * Names under which the MBeans are registered
+	 */
+	private List<ObjectName> registered = new ArrayList<ObjectName>();
+
+
+	NodeMetrics(NetworkNode node){
+		this.node = node;
+	}
+
+
+	void eventScheduled(){
+		eventsScheduled.increment();
+	}
+
+	void eventCancelled(){
+		eventsCancelled.increment();
+	}
+
+	void eventFired(){
+		eventsFired.increment();
+	}
+
+	void messageSent(){
+		messagesSent.increment();
+	}
+
+	void messagesSent(int count){
+		messagesSent.add(count);
+	}
+
+	void messageReceived(){
+		messagesReceived.increment();
+	}
+
+	void created(long time){
+		creationTime = time;
+	}
+
+	void started(long connect,long init){
+		connectTime = connect;
+		initTime = init;
+	}
+
+
+	/**
+	 * Registers the MBeans of the node and its algorithms
+	 *
+	 * @param location location of the node
+	 * @param algorithms
+	 */
+	synchronized void register(String location,List<AlgorithmNode> algorithms){
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		String nodeName = DOMAIN + ":type=Node,node=" + ObjectName.quote(location);
+
+		try{
+			register(server,new ObjectName(nodeName),this);
+			for(AlgorithmNode a: algorithms){
+				ObjectName name = new ObjectName(DOMAIN + ":type=Algorithm,node=" + ObjectName.quote(location) +
+				                                 ",name=" + ObjectName.quote(a.getName()));
+				register(server,name,a.getMetrics());
+			}
+		}catch(JMException e){
+			log.warn("Exception registering metrics of node " + location,e);
+		}
+	}
+
+
+	private void register(MBeanServer server,ObjectName name,Object mbean) throws JMException{
+		//left by a previous execution of the node
+		if(server.isRegistered(name)){
+			server.unregisterMBean(name);
+		}
+
+		server.registerMBean(mbean, name);
+		registered.add(name);
+	}
+
+
+	/**
+	 * Unregisters the MBeans of the node and its algorithms
+	 */
+	synchronized void unregister(){
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for(ObjectName name: registered){
+			try{
+				server.unregisterMBean(name);
+			}catch(JMException e){
+				log.warn("Exception unregistering metrics " + name,e);
+			}
+		}
+
+		registered.clear();
+	}
+
+
+	@Override
+	public String[] getAlgorithms() {
+		List<String> names = new ArrayList<String>();
+		for(AlgorithmNode a: node.installList){
+			names.add(a.getName());
+		}
+		return names.toArray(new String[names.size()]);
+	}
+
+	@Override
+	public long getEventsScheduled() {
+		return eventsScheduled.sum();
+	}
+
+	@Override
+	public long getEventsCancelled() {
+		return eventsCancelled.sum();
+	}
+
+	@Override
+	public long getEventsFired() {
+		return eventsFired.sum();
+	}
+
+	@Override
+	public int getEventsPending() {
+		synchronized(node.events){
+			return node.events.size();
+		}
+	}
+
+	@Override
+	public long getMessagesSent() {
+		return messagesSent.sum();
+	}
+
+	@Override
+	public long getMessagesReceived() {
+		return messagesReceived.sum();
+	}
+
+	@Override
+	public long getBytesSent() {
+		if(node.transport instanceof TransportStatistics){
+			return ((TransportStatistics)node.transport).getBytesSent();
+		}
+		return 0;
+	}
+
+	@Override
+	public long getBytesReceived() {
+		if(node.transport instanceof TransportStatistics){
+			return ((TransportStatistics)node.transport).getBytesReceived();
+		}
+		return 0;
+	}
+
+
+	@Override
+	public long getCreationTime() {
+		return TimeUnit.NANOSECONDS.toMillis(creationTime);
+	}
+
+	@Override
+	public long getConnectTime() {
+		return TimeUnit.NANOSECONDS.toMillis(connectTime);
+	}
+
+	@Override
+	public long getInitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(initTime);
+	}
+
+
+	@Override
+	public String toString(){
+		return "events scheduled=" + getEventsScheduled() + " fired=" + getEventsFired() +
+		       " cancelled=" + getEventsCancelled() + " messages sent=" + getMessagesSent() +
+		       " received=" + getMessagesReceived() + " bytes sent=" + getBytesSent() +
+		       " received=" + getBytesReceived() + " creation=" + getCreationTime() + "ms" +
+		       " connect=" + getConnectTime() + "ms init=" + getInitTime() + "ms";
+	}
+}
@@ -0,0 +1,59 @@
+package dat.core;
+
+/**
+ * Management interface of the {@link NodeMetrics} of a node
+ * 
+ * @author Pablo Chacin
+ *
+ */
+public interface NodeMetricsMXBean {
+
+	public String[] getAlgorithms();
+	
+	public long getEventsScheduled();
+	
+	public long getEventsCancelled();
+	
+	public long getEventsFired();
+	
+	/**
+	 * 
+	 * @return the number of events scheduled but not yet fired or cancelled
+	 */
+	public int getEventsPending();
+	
+	public long getMessagesSent();
+	
+	public long getMessagesReceived();
+	
+	/**
+	 * 
+	 * @return the bytes sent by the transport, 0 if the transport doesn't serialize the messages
+	 */
+	public long getBytesSent();
+	
+	/**
+	 * 
+	 * @return the bytes received by the transport, 0 if the transport doesn't serialize the messages
+	 */
+	public long getBytesReceived();
+	
+	/**
+	 * 
+	 * @return the time taken to create the node, with its network and algorithms, in milliseconds
+	 */
+	public long getCreationTime();
+	
+	/**
+	 * 
+	 * @return the time taken by the last start of the node to connect its transport, in milliseconds
+	 */
+	public long getConnectTime();
+	
+	/**
+	 * 
+	 * @return the time taken by the last start of the node to start its algorithms and wait for their
+	 *         initialization, in milliseconds
+	 */
+	public long getInitTime();
+}
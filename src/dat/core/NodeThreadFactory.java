@@ -0,0 +1,167 @@
+package dat.core;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the threads on which a {@link NetworkNode} executes its algorithms and its application
+ * and keeps track of them, so they can be interrupted when the node is stopped.
+ *
+ * The kind of thread is selected with the node.executor configuration parameter:
+ * <ul>
+ * <li> platform: a platform thread for each task, created in the node's {@link ThreadGroup}. This is the default.
+ * <li> virtual: a virtual thread for each task. Requires Java 21 at runtime.
+ * <li> the name of a class implementing {@link ThreadFactory}, which must have a public constructor without arguments.
+ * </ul>
+ *
+ * Virtual threads (and, in general, threads created by an arbitrary ThreadFactory) don't belong to
+ * the node's ThreadGroup and therefore interrupting the group doesn't reach them. For this reason,
+ * every thread created by this factory is tracked until it finishes and {@link #interrupt()} interrupts
+ * all of them.
+ *
+ * Virtual threads are created reflectively, so the class still compiles and runs with Java 17 when
+ * they are not used.
+ *
+ * @author Pablo Chacin
+ *
+ */
+public class NodeThreadFactory implements ThreadFactory {
+
+	public static final String PLATFORM = "platform";
+
+	public static final String VIRTUAL = "virtual";
+
+	/**
+	 * Wraps a task to stop tracking its thread when it finishes
+	 */
+	private class TrackedTask implements Runnable {
+
+		private Runnable task;
+
+		public TrackedTask(Runnable task) {
+			this.task = task;
+		}
+
+		@Override
+		public void run(){
+			try{
+				task.run();
+			}finally{
+				threads.remove(Thread.currentThread());
+			}
+		}
+	}
+
+	/**
+	 * Group for platform threads
+	 */
+	private ThreadGroup group;
+
+	/**
+	 * Factory used to create the threads. Null if platform threads are created in the group
+	 */
+	private ThreadFactory factory;
+
+	/**
+	 * Threads created by this factory which have not finished
+	 */
+	private Set<Thread> threads;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param executor the kind of threads to create (see class description)
+	 * @param group the ThreadGroup for platform threads
+	 *
+	 * @throws IllegalArgumentException if the executor is not valid
+	 */
+	public NodeThreadFactory(String executor,ThreadGroup group) {
+		this.group = group;
+		this.threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread,Boolean>());
+
+		if(executor == null || executor.equals(PLATFORM)){
+			this.factory = null;
+		}
+		else if(executor.equals(VIRTUAL)){
+			this.factory = virtualThreadFactory();
+		}
+		else{
+			try {
+				this.factory = (ThreadFactory)Class.forName(executor).getDeclaredConstructor().newInstance();
+			} catch (Exception e) {
+				throw new IllegalArgumentException("Invalid node executor: " + executor,e);
+			}
+		}
+	}
+
+
+	/**
+	 * Creates the factory of virtual threads with Thread.ofVirtual().factory()
+	 *
+	 * @throws IllegalArgumentException if virtual threads are not supported by the Java runtime
+	 */
+	private static ThreadFactory virtualThreadFactory(){
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory)factory.invoke(builder);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Virtual threads require Java 21 or later. Running on Java " +
+			                                   System.getProperty("java.version"),e);
+		}
+	}
+
+
+	@Override
+	public Thread newThread(Runnable task) {
+		return newThread(task,null);
+	}
+
+
+	/**
+	 * Creates a (not started) thread with the given name
+	 *
+	 * @param task
+	 * @param name the name of the thread. If null, the default name given by the factory is kept.
+	 * @return the new Thread
+	 */
+	public Thread newThread(Runnable task,String name){
+
+		Runnable tracked = new TrackedTask(task);
+
+		Thread thread;
+		if(factory == null){
+			thread = new Thread(group,tracked);
+		}
+		else{
+			thread = factory.newThread(tracked);
+		}
+
+		if(name != null){
+			thread.setName(name);
+		}
+
+		threads.add(thread);
+
+		return thread;
+	}
+
+
+	/**
+	 * Interrupts all the threads created by this factory that are still alive.
+	 */
+	public void interrupt(){
+
+		for(Thread t: threads){
+			t.interrupt();
+		}
+
+		if(group != null){
+			group.interrupt();
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package dat.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for the processing of an element of work (message, batch of messages,
+ * event or task) by an algorithm. The duration of the event is the execution of the handler.
+ * 
+ * @author Pablo Chacin
+ *
+ */
+@Name("dat.MessageDispatch")
+@Label("Message Dispatch")
+@Category({"DAT","Messaging"})
+@Description("Work processed by an algorithm")
+public class MessageDispatchEvent extends jdk.jfr.Event {
+
+	@Label("Algorithm")
+	public String algorithm;
+	
+	@Label("Message Type")
+	@Description("Type of the message or event, task or batch")
+	public String messageType;
+	
+	@Label("Count")
+	@Description("Number of messages processed")
+	public int count;
+	
+	@Label("Attributes")
+	@Description("Number of attributes of the message or event")
+	public int attributes;
+	
+	@Label("Queue Time")
+	@Description("Time the (first) message waited in the mailbox")
+	@Timespan(Timespan.NANOSECONDS)
+	public long queueTime;
+}
@@ -0,0 +1,33 @@
+package dat.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for the sending of a message by an algorithm, including its
+ * delivery to the transport.
+ * 
+ * @author Pablo Chacin
+ *
+ */
+@Name("dat.MessageSend")
+@Label("Message Send")
+@Category({"DAT","Messaging"})
+@Description("Message sent by an algorithm")
+public class MessageSendEvent extends jdk.jfr.Event {
+
+	@Label("Algorithm")
+	public String algorithm;
+	
+	@Label("Message Type")
+	public String messageType;
+	
+	@Label("Destination")
+	public String destination;
+	
+	@Label("Attributes")
+	@Description("Number of attributes of the message")
+	public int attributes;
+}
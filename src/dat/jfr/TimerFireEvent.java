@@ -0,0 +1,24 @@
+package dat.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for the firing of an event scheduled by an algorithm, which is
+ * added to the algorithm's mailbox.
+ * 
+ * @author Pablo Chacin
+ *
+ */
+@Name("dat.TimerFire")
+@Label("Timer Fire")
+@Category({"DAT","Timers"})
+public class TimerFireEvent extends jdk.jfr.Event {
+
+	@Label("Algorithm")
+	public String algorithm;
+	
+	@Label("Event Type")
+	public String eventType;
+}
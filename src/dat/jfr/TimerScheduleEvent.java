@@ -0,0 +1,28 @@
+package dat.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for the scheduling of an event by an algorithm
+ * 
+ * @author Pablo Chacin
+ *
+ */
+@Name("dat.TimerSchedule")
+@Label("Timer Schedule")
+@Category({"DAT","Timers"})
+public class TimerScheduleEvent extends jdk.jfr.Event {
+
+	@Label("Algorithm")
+	public String algorithm;
+	
+	@Label("Event Type")
+	public String eventType;
+	
+	@Label("Delay")
+	@Timespan(Timespan.MILLISECONDS)
+	public long delay;
+}
@@ -1,5 +1,6 @@
 package dat.network;
 
+import java.util.List;
 import java.util.UUID;
 
 import dat.DatException;
@@ -35,6 +36,15 @@ public interface Transport {
 	 */
 	public void sendNetworkMessage(NodeAddress destination, Message message) throws TransportException ;
 
+	/**
+	 * Sends a message to each of the destinations. The message has no destination,
+	 * and is delivered to each node with its own address as destination. 
+	 * The message is sent to all the destinations, even if sending it to some of them fails.
+	 * 
+	 * @throws TransportException if the message couldn't be sent to some destination
+	 */
+	public void sendNetworkMessage(List<NodeAddress> destinations, Message message) throws TransportException ;
+
 	/**
 	 * Get a node address that allows contacting the Node with the given id using this transport.
 	 * 
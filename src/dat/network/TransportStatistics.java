@@ -0,0 +1,23 @@
+package dat.network;
+
+/**
+ * Implemented by the {@link Transport}s which serialize the messages, to report the volume 
+ * of data exchanged over the network.
+ * 
+ * @author Pablo Chacin
+ *
+ */
+public interface TransportStatistics {
+
+	/**
+	 * 
+	 * @return the number of bytes sent since the transport was created
+	 */
+	public long getBytesSent();
+	
+	/**
+	 * 
+	 * @return the number of bytes received since the transport was created
+	 */
+	public long getBytesReceived();
+}
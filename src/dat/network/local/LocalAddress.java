@@ -0,0 +1,74 @@
+package dat.network.local;
+
+import java.util.UUID;
+
+import dat.network.NodeAddress;
+
+/**
+ * Address of a node in a {@link LocalNetwork}. Has the same host:port form than the addresses 
+ * of a {@link dat.network.socket.SocketNetwork}, so configurations (for example, membership seeds) 
+ * can be used in both networks. 
+ * 
+ * @author Pablo Chacin
+ *
+ */
+public class LocalAddress implements NodeAddress {
+
+	private static final long serialVersionUID = 1L;
+
+	private String host;
+	
+	private int port;
+	
+	private String location;
+	
+	private UUID ID;
+	
+	
+	public LocalAddress(String host, int port) {
+		super();
+		this.host = host;
+		this.port = port;
+		this.location = host + ":" + port;
+		this.ID = UUID.nameUUIDFromBytes(location.getBytes());
+	}
+
+	@Override
+	@Deprecated
+	public UUID getID() {
+		return ID;
+	}
+
+	@Override
+	public String getLocation() {
+		return location;
+	}
+	
+	public String getHost() {
+		return host;
+	}
+	
+	public int getPort() {
+		return port;
+	}
+
+	@Override
+	public int compareTo(NodeAddress arg0) {
+		return getLocation().compareTo(arg0.getLocation());
+	}
+
+	@Override
+	public boolean equals(Object a){
+		return (a instanceof NodeAddress) && this.getLocation().equals(((NodeAddress)a).getLocation());
+	}
+	
+	@Override
+	public int hashCode(){
+		return location.hashCode();
+	}
+	
+	@Override
+	public String toString(){
+		return location;
+	}
+}
@@ -0,0 +1,59 @@
+package dat.network.local;
+
+import org.apache.commons.configuration.Configuration;
+
+import dat.network.Network;
+import dat.network.NetworkException;
+import dat.network.Transport;
+
+/**
+ * A Network for nodes executed in the same JVM. Messages are handed to the destination node
+ * without serialization, as copies which only share immutable values with the sent message 
+ * (see {@link LocalTransport}).
+ * 
+ * Receives the same address parameters as the {@link dat.network.socket.SocketNetwork}, so an 
+ * experiment can switch between both networks changing only the network.class:
+ * <ul>
+ * <li> socket.address: the host name used in the node's address. Default is localhost.
+ * <li> socket.port: the first port in the range of ports for the node's address. 
+ * <li> socket.range: the number of ports in the range. Default is 1. The node is assigned the first 
+ *      port in the range not used by other node.
+ * </ul>
+ * 
+ * @author Pablo Chacin
+ *
+ */
+public class LocalNetwork implements Network {
+
+	protected LocalTransport transport;
+	
+
+	@Override
+	public void init(Configuration config) throws NetworkException {
+		
+		String host = config.getString("socket.address","localhost");
+		int port = config.getInt("socket.port");
+		int range = config.getInt("socket.range",1);
+		
+		transport = createTransport();
+		transport.bind(host, port, range);
+	}
+	
+	
+	/**
+	 * Creates the transport of the network. 
+	 * 
+	 * @return a LocalTransport
+	 * @throws NetworkException
+	 */
+	protected LocalTransport createTransport() throws NetworkException{
+		return new LocalTransport(LocalRegistry.getDefault());
+	}
+	
+
+	@Override
+	public Transport getTransport() {
+		return transport;
+	}
+
+}
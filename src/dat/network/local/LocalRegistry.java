@@ -0,0 +1,64 @@
+package dat.network.local;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import dat.network.NetworkException;
+
+/**
+ * Keeps the {@link LocalTransport}s bound to each address of a {@link LocalNetwork}.
+ * 
+ * @author Pablo Chacin
+ *
+ */
+public class LocalRegistry {
+
+	private static LocalRegistry defaultRegistry = new LocalRegistry();
+	
+	/**
+	 * 
+	 * @return the registry shared by all the LocalNetworks of the JVM
+	 */
+	public static LocalRegistry getDefault(){
+		return defaultRegistry;
+	}
+	
+	/**
+	 * Transports indexed by location
+	 */
+	private Map<String,LocalTransport> transports = new ConcurrentHashMap<String, LocalTransport>();
+	
+	
+	/**
+	 * Binds a transport to the first free port in a range
+	 *
+	 * @param host
+	 * @param port first port of the range
+	 * @param range number of ports in the range
+	 * @param transport
+	 * @return the address assigned to the transport
+	 * @throws NetworkException if there is no free port in the range
+	 */
+	public synchronized LocalAddress bind(String host,int port,int range,LocalTransport transport) throws NetworkException{
+
+		for(int p = port; p < port + Math.max(range, 1); p++){
+			LocalAddress address = new LocalAddress(host,p);
+			if(!transports.containsKey(address.getLocation())){
+				transports.put(address.getLocation(), transport);
+				return address;
+			}
+		}
+
+		throw new NetworkException("No free port in range " + host + ":" + port + "-" + (port + Math.max(range, 1) - 1));
+	}
+	
+	
+	/**
+	 *
+	 * @param location
+	 * @return the transport bound to the location, null if none
+	 */
+	public LocalTransport lookup(String location){
+		return transports.get(location);
+	}
+}
@@ -0,0 +1,150 @@
+package dat.network.local;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.log4j.Logger;
+
+import dat.DatException;
+import dat.Message;
+import dat.network.NetworkException;
+import dat.network.NodeAddress;
+import dat.network.Transport;
+import dat.network.TransportException;
+import dat.network.TransportHandler;
+
+/**
+ * Transport of a {@link LocalNetwork}. A message is delivered by handing a copy of it (see {@link Message#copy()}) 
+ * directly to the handler of the destination, in the sender's thread. The copy has its own attributes map,
+ * and its own copy of the attribute values which can be modified (immutable values, such as strings, numbers 
+ * and addresses, are shared), so the sender can reuse or modify the message after sending it, as with a 
+ * serializing transport. Subclasses of Message with modifiable fields must override {@link Message#copy()}.
+ * 
+ * If the destination rejects the message (because its queue is full), the sender receives a 
+ * {@link TransportException}.
+ * 
+ * @author Pablo Chacin
+ *
+ */
+public class LocalTransport implements Transport {
+
+	protected static Logger log = Logger.getLogger("dat.network.local");
+	
+	/**
+	 * Transport handler initialized with a dummy handler.
+	 */
+	protected TransportHandler handler  = new TransportHandler(){
+												public void dispatchMessage(Message message) {}
+
+												@Override
+												public void handleException(Throwable e) {}		
+											   };
+	
+	protected LocalRegistry registry;
+	
+	protected LocalAddress address;
+	
+	protected volatile boolean connected = false;
+	
+	
+	public LocalTransport(LocalRegistry registry) {
+		this.registry = registry;
+	}
+	
+	
+	void bind(String host,int port,int range) throws NetworkException{
+		this.address = registry.bind(host, port, range, this);
+	}
+	
+
+	@Override
+	public void connect() throws DatException {
+		connected = true;
+	}
+
+	@Override
+	public void disconnect() throws DatException {
+		connected = false;
+	}
+
+	@Override
+	public void sendNetworkMessage(NodeAddress destination, Message message) throws TransportException {
+		
+		LocalTransport target = registry.lookup(destination.getLocation());
+		
+		if((target == null) || !target.connected){
+			throw new TransportException("Exception sending message to " + destination.getLocation() +" : not connected");
+		}
+		
+		send(target,message.copy());
+	}
+
+	
+	@Override
+	public void sendNetworkMessage(List<NodeAddress> destinations, Message message) throws TransportException {
+
+		TransportException exception = null;
+		for(NodeAddress d: destinations){
+			LocalTransport target = registry.lookup(d.getLocation());
+			try{
+				if((target == null) || !target.connected){
+					throw new TransportException("Exception sending message to " + d.getLocation() +" : not connected");
+				}
+
+				Message copy = message.copy();
+				copy.setDestination(d);
+				send(target,copy);
+			}catch(TransportException e){
+				if(exception == null){
+					exception = e;
+				}
+			}
+		}
+
+		if(exception != null){
+			throw exception;
+		}
+	}
+
+	
+	/**
+	 * Sends the copy of a message to the destination's transport
+	 * 
+	 * The message is dispatched from the sender's thread, so if the destination's mailbox is full
+	 * and the sender is an algorithm, the message is rejected instead of blocking the sender
+	 * (see {@link dat.core.Mailbox.OverflowPolicy#BLOCK}).
+	 * 
+	 * @param target
+	 * @param message
+	 * @throws TransportException
+	 */
+	protected void send(LocalTransport target,Message message) throws TransportException{
+		try{
+			target.handler.dispatchMessage(message);
+		}catch(RejectedExecutionException e){
+			throw new TransportException("Message rejected by " + target.address.getLocation() +" : " + e.getMessage(),e);
+		}
+	}
+	
+	
+	@Override
+	public NodeAddress getAddress() {
+		return address;
+	}
+
+	@Override
+	public NodeAddress resolve(String address) throws TransportException {
+		try{
+			String[] parts = address.split(":");
+			return new LocalAddress(parts[0],Integer.parseInt(parts[1]));
+		}catch(RuntimeException e){
+			throw new TransportException("Exception resolving address [" + address + "]",e);
+		}
+	}
+
+	@Override
+	public void setHandler(TransportHandler handler) {
+		this.handler = handler;
+	}
+
+}
@@ -0,0 +1,245 @@
+package dat.network.socket;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import ow.messaging.BinaryCodec;
+import ow.messaging.MessagingAddress;
+
+import dat.Message;
+import dat.utils.TypedMap;
+
+/**
+ * Serializers of the {@link BinaryCodec} for the messages, addresses and attributes
+ * sent by the {@link SocketTransport}.
+ *
+ * Messages are written as their class (omitted for {@link Message}) followed by the fields written
+ * by {@link Message#writeFields(ObjectOutput)}, and are created with the constructor without parameters
+ * of their class. Messages of subclasses which add fields without overriding writeFields, or
+ * which don't have such constructor, are written with Java serialization.
+ *
+ * Addresses are written as their messaging address and ID. Addresses read are reused for
+ * the following messages.
+ *
+ * @author Pablo Chacin
+ *
+ */
+public class MessageSerializers {
+
+	public static final int MESSAGE = BinaryCodec.FIRST_REGISTERED_TYPE;
+
+	public static final int ADDRESS = BinaryCodec.FIRST_REGISTERED_TYPE + 1;
+
+	public static final int ATTRIBUTES = BinaryCodec.FIRST_REGISTERED_TYPE + 2;
+
+	private static final byte BASE = 0;
+
+	private static final byte SUBCLASS = 1;
+
+	private static final byte SERIALIZED = 2;
+
+	private static boolean registered = false;
+
+	/**
+	 * Indicates, for each class of message, if its fields can be written
+	 */
+	private static ConcurrentMap<Class<?>,Boolean> encodable = new ConcurrentHashMap<Class<?>, Boolean>();
+
+	private static ConcurrentMap<Class<?>,Constructor<?>> constructors = new ConcurrentHashMap<Class<?>, Constructor<?>>();
+
+	private static ConcurrentMap<MessagingAddress,SocketAddress> addresses = new ConcurrentHashMap<MessagingAddress, SocketAddress>();
+
+
+	/**
+	 * Registers the serializers in the {@link BinaryCodec}, if not already registered
+	 */
+	public static synchronized void register(){
+		if(registered){
+			return;
+		}
+
+		BinaryCodec.register(MESSAGE, Message.class, true, new BinaryCodec.Serializer<Message>(){
+			@Override public void write(BinaryCodec.Output out, Message message) throws IOException{
+				writeMessage(out, message);
+			}
+
+			@Override public Message read(BinaryCodec.Input in) throws IOException, ClassNotFoundException{
+				return readMessage(in);
+			}
+		});
+
+		BinaryCodec.register(ADDRESS, SocketAddress.class, false, new BinaryCodec.Serializer<SocketAddress>(){
+			@Override public void write(BinaryCodec.Output out, SocketAddress address) throws IOException{
+				out.writeObject(address.getMessagingAddress());
+				out.writeLong(address.getID().getMostSignificantBits());
+				out.writeLong(address.getID().getLeastSignificantBits());
+			}
+
+			@Override public SocketAddress read(BinaryCodec.Input in) throws IOException, ClassNotFoundException{
+				MessagingAddress messagingAddress = (MessagingAddress)in.readObject();
+				long msb = in.readLong();
+				long lsb = in.readLong();
+
+				SocketAddress address = addresses.get(messagingAddress);
+				if(address == null || address.getID().getMostSignificantBits() != msb ||
+				   address.getID().getLeastSignificantBits() != lsb){
+					address = new SocketAddress(messagingAddress, new UUID(msb, lsb));
+					addresses.put(messagingAddress, address);
+				}
+				return address;
+			}
+		});
+
+		BinaryCodec.register(ATTRIBUTES, TypedMap.class, false, new BinaryCodec.Serializer<TypedMap>(){
+			@Override public void write(BinaryCodec.Output out, TypedMap attributes) throws IOException{
+				out.writeVarInt(attributes.size());
+				for(Map.Entry<String,Object> e: attributes.entrySet()){
+					out.writeString(e.getKey());
+					out.writeObject(e.getValue());
+				}
+			}
+
+			@Override public TypedMap read(BinaryCodec.Input in) throws IOException, ClassNotFoundException{
+				TypedMap attributes = new TypedMap();
+				int size = in.readVarInt();
+				for(int i = 0; i < size; i++){
+					attributes.put(in.readString(), in.readObject());
+				}
+				return attributes;
+			}
+		});
+
+		registered = true;
+	}
+
+
+	private static void writeMessage(BinaryCodec.Output out,Message message) throws IOException{
+
+		Class<?> type = message.getClass();
+		if(type == Message.class){
+			out.writeByte(BASE);
+		}
+		else if(isEncodable(type)){
+			out.writeByte(SUBCLASS);
+			out.writeString(type.getName());
+		}
+		else{
+			out.writeByte(SERIALIZED);
+			out.writeSerialized(message);
+			return;
+		}
+
+		message.writeFields(out);
+	}
+
+
+	private static Message readMessage(BinaryCodec.Input in) throws IOException, ClassNotFoundException{
+
+		Message message;
+		switch(in.readByte()){
+		case BASE:
+			message = new Message();
+			break;
+		case SUBCLASS:
+			message = newMessage(in.readString());
+			break;
+		case SERIALIZED:
+			return (Message)in.readSerialized();
+		default:
+			throw new IOException("Invalid message encoding");
+		}
+
+		message.readFields(in);
+		return message;
+	}
+
+
+	/**
+	 * Creates a message of the class with the given name. The class is not initialized until it 
+	 * is checked to be an encodable subclass of Message, so a peer can't make this node create 
+	 * objects of other classes.
+	 */
+	private static Message newMessage(String name) throws IOException, ClassNotFoundException{
+
+		Class<?> type = Class.forName(name, false, MessageSerializers.class.getClassLoader());
+		if(!Message.class.isAssignableFrom(type) || !isEncodable(type)){
+			throw new IOException("Invalid message class " + name);
+		}
+
+		Constructor<?> constructor = constructors.get(type);
+		if(constructor == null){
+			try {
+				constructor = type.getDeclaredConstructor();
+				constructor.setAccessible(true);
+			} catch (NoSuchMethodException e) {
+				throw new IOException("Message class " + name + " has no constructor without parameters");
+			}
+			constructors.put(type, constructor);
+		}
+
+		try {
+			return (Message)constructor.newInstance();
+		} catch (Exception e) {
+			throw new IOException("Exception creating message of class " + name, e);
+		}
+	}
+
+
+	/**
+	 * Checks if the fields of a class of messages are written by writeFields and it has a constructor
+	 * without parameters
+	 */
+	private static boolean isEncodable(Class<?> type){
+
+		Boolean result = encodable.get(type);
+		if(result != null){
+			return result;
+		}
+
+		result = Boolean.TRUE;
+		try {
+			type.getDeclaredConstructor();
+		} catch (NoSuchMethodException e) {
+			result = Boolean.FALSE;
+		}
+
+		for(Class<?> c = type; result && c != Message.class; c = c.getSuperclass()){
+			if(hasFields(c) && !overridesFields(c)){
+				result = Boolean.FALSE;
+			}
+		}
+
+		encodable.put(type, result);
+		return result;
+	}
+
+
+	private static boolean hasFields(Class<?> type){
+		for(Field f: type.getDeclaredFields()){
+			int modifiers = f.getModifiers();
+			if(!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	private static boolean overridesFields(Class<?> type){
+		try {
+			type.getDeclaredMethod("writeFields", ObjectOutput.class);
+			type.getDeclaredMethod("readFields", ObjectInput.class);
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+}
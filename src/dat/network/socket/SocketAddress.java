@@ -14,6 +14,11 @@ public class SocketAddress implements NodeAddress {
 	
 	private UUID ID;
 	
+	/**
+	 * Location, built on first use
+	 */
+	private transient String location;
+	
 	
 	
 	public SocketAddress(MessagingAddress address) {
@@ -21,6 +26,18 @@ public class SocketAddress implements NodeAddress {
 		this.address = address;
 		this.ID = UUID.nameUUIDFromBytes(address.toString().getBytes());
 	}
+	
+	/**
+	 * Constructor used to decode addresses, with their original ID
+	 * 
+	 * @param address
+	 * @param ID
+	 */
+	SocketAddress(MessagingAddress address,UUID ID) {
+		super();
+		this.address = address;
+		this.ID = ID;
+	}
 
 	@Override
 	public UUID getID() {
@@ -29,7 +46,10 @@ public class SocketAddress implements NodeAddress {
 
 	@Override
 	public String getLocation() {
-		return address.getHostAddress()+":"+address.getPort();
+		if(location == null){
+			location = address.getHostAddress()+":"+address.getPort();
+		}
+		return location;
 	}
 
 	@Override
@@ -45,4 +65,9 @@ public class SocketAddress implements NodeAddress {
 	public boolean equals(Object a){
 		return this.getLocation().equals(((NodeAddress)a).getLocation());
 	}
+	
+	@Override
+	public int hashCode(){
+		return getLocation().hashCode();
+	}
 }
@@ -4,15 +4,28 @@
 package dat.network.socket;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.security.NoSuchProviderException;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.apache.commons.configuration.Configuration;
+import org.apache.log4j.Logger;
 
+import ow.messaging.BinaryCodec;
+import ow.messaging.Message;
+import ow.messaging.MessageCodec;
+import ow.messaging.MessageCompression;
 import ow.messaging.MessageReceiver;
 import ow.messaging.MessageSender;
+import ow.messaging.MessagingConfiguration;
 import ow.messaging.MessagingFactory;
 import ow.messaging.MessagingProvider;
 import ow.messaging.Signature;
+import ow.messaging.uds.UDSMessagingConfiguration;
+import dat.core.NodeMetrics;
 import dat.network.Network;
 import dat.network.NetworkException;
 import dat.network.Transport;
@@ -22,12 +35,34 @@ import dat.network.Transport;
  * This messaging is based on OverlayWeaver's messaging library 
  * (http://overlaywaver.sourceforge.net)
  * 
+ * Parameters:
+ * <ul>
+ * <li> socket.transport: the messaging provider. TCP (default), UDS (Unix domain sockets) or SHM 
+ *      (shared memory). UDS and SHM only reach nodes in the same host.
+ * <li> socket.address: the host name used in the node's address. Default is localhost.
+ * <li> socket.port: the first port in the range of ports for the node's address. With the TCP
+ *      transport, 0 binds each node to an ephemeral port chosen by the system.
+ * <li> socket.range: the number of ports in the range. Default is 1.
+ * <li> socket.path: directory of the sockets, for the UDS transport. The socket of a port is
+ *      the file &lt;port&gt;.sock.
+ * <li> socket.codec: the encoding of the messages sent. binary (default), a compact encoding
+ *      (see {@link MessageSerializers}), or serialization (Java serialization). Messages are 
+ *      received with either encoding.
+ * <li> socket.compression: the compression of the messages sent. lz (default), a fast LZ77 
+ *      compression, deflate, or none. Messages are received with any compression.
+ * <li> socket.compression.threshold: messages whose encoding is smaller than this size, in bytes, 
+ *      are not compressed. Default is 512.
+ * </ul>
+ * 
+ * The statistics of the compression are registered as the MXBean dat:type=Compression,name=&lt;compression&gt;
  * 
  * @author Pablo Chacin
  *
  */
 public class SocketNetwork implements Network {
 
+	static Logger log = Logger.getLogger(SocketNetwork.class);
+
 	MessagingProvider msgSrv;
 	
 	MessageSender sender;
@@ -47,7 +82,29 @@ public class SocketNetwork implements Network {
 					                       Signature.getAllAcceptingSignature());
 			//msgSrv = new TCPMessagingProvider();
 			msgSrv.setSelfAddress(config.getString("socket.address","localhost"));		
-			receiver = msgSrv.getReceiver(msgSrv.getDefaultConfiguration(), config.getInt("socket.port"), config.getInt("socket.range"));
+			MessagingConfiguration msgConfig = msgSrv.getDefaultConfiguration();
+			if(msgConfig instanceof UDSMessagingConfiguration && config.containsKey("socket.path")){
+				((UDSMessagingConfiguration)msgConfig).setDirectory(config.getString("socket.path"));
+			}
+			
+			MessageSerializers.register();
+			MessageCodec codec = Message.getCodec(config.getString("socket.codec",BinaryCodec.NAME));
+			if(codec == null){
+				throw new NetworkException("Invalid codec: " + config.getString("socket.codec"));
+			}
+			msgConfig.setCodec(codec);
+
+			MessageCompression compression = MessageCompression.getCompression(config.getString("socket.compression",
+			                                                                   MessageCompression.LZ.getName()));
+			if(compression == null){
+				throw new NetworkException("Invalid compression: " + config.getString("socket.compression"));
+			}
+			msgConfig.setCompression(compression);
+			msgConfig.setCompressionThreshold(config.getInt("socket.compression.threshold",
+			                                                MessagingConfiguration.DEFAULT_COMPRESSION_THRESHOLD));
+			registerStatistics(compression);
+
+			receiver = msgSrv.getReceiver(msgConfig, config.getInt("socket.port"), config.getInt("socket.range",1));
 			receiver.start();
 			sender = receiver.getSender();
 
@@ -58,4 +115,23 @@ public class SocketNetwork implements Network {
 		}
 	}
 
+
+	/**
+	 * Registers the statistics of the compression, shared by all the nodes in this JVM
+	 */
+	private static synchronized void registerStatistics(MessageCompression compression){
+		if(compression == MessageCompression.NONE){
+			return;
+		}
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try{
+			ObjectName name = new ObjectName(NodeMetrics.DOMAIN + ":type=Compression,name=" + compression.getName());
+			if(!server.isRegistered(name)){
+				server.registerMBean(compression.getStatistics(), name);
+			}
+		}catch(JMException e){
+			log.warn("Exception registering statistics of compression " + compression.getName(),e);
+		}
+	}
 }
@@ -2,6 +2,12 @@ package dat.network.socket;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Logger;
 
 import ow.messaging.MessageHandler;
 import ow.messaging.MessageReceiver;
@@ -16,8 +22,9 @@ import dat.network.NodeAddress;
 import dat.network.Transport;
 import dat.network.TransportException;
 import dat.network.TransportHandler;
+import dat.network.TransportStatistics;
 
-public class SocketTransport implements Transport, MessageHandler {
+public class SocketTransport implements Transport, TransportStatistics, MessageHandler {
 
 	/**
 	 * Transport handler initialized with a dummy handler.
@@ -40,6 +47,15 @@ public class SocketTransport implements Transport, MessageHandler {
 	MessagingProvider provider;
 	
 	MessagingAddress addr;
+	
+	/**
+	 * Address of the node, created once as it's requested for each message
+	 */
+	SocketAddress address;
+	
+	LongAdder bytesSent = new LongAdder();
+	
+	LongAdder bytesReceived = new LongAdder();
 						
 		
 	public SocketTransport(MessagingProvider provider,	MessageSender sender,MessageReceiver receiver) {
@@ -49,6 +65,7 @@ public class SocketTransport implements Transport, MessageHandler {
 		this.sender = sender;
 		this.receiver = receiver;
 		this.addr=receiver.getSelfAddress();
+		this.address = new SocketAddress(addr);
 	}
 
 	@Override
@@ -65,7 +82,7 @@ public class SocketTransport implements Transport, MessageHandler {
 
 	@Override
 	public NodeAddress getAddress() {
-		return new SocketAddress(addr);
+		return address;
 	}
 
 	@Override
@@ -76,12 +93,33 @@ public class SocketTransport implements Transport, MessageHandler {
 		
 		try {
 			sender.send(((SocketAddress)destination).getMessagingAddress(),msg);
+			bytesSent.add(msg.getEncodedSize());
 		} catch (IOException e) {
 			throw new TransportException("Exception sending message to " + destination.getLocation() +" :"+e.getMessage());
 		}
 		
 	}
 
+	@Override
+	public void sendNetworkMessage(List<NodeAddress> destinations, Message message)
+			throws TransportException {
+		
+		ow.messaging.Message msg = new ow.messaging.Message(addr,0,message);
+		
+		List<MessagingAddress> addresses = new ArrayList<MessagingAddress>(destinations.size());
+		for(NodeAddress d: destinations){
+			addresses.add(((SocketAddress)d).getMessagingAddress());
+		}
+		
+		try {
+			sender.send(addresses,msg);
+			bytesSent.add((long)msg.getEncodedSize()*destinations.size());
+		} catch (IOException e) {
+			throw new TransportException("Exception sending message: "+e.getMessage());
+		}
+		
+	}
+
 	@Override
 	public void setHandler(TransportHandler handler) {
 		this.handler = handler;
@@ -90,7 +128,19 @@ public class SocketTransport implements Transport, MessageHandler {
 
 	@Override
 	public ow.messaging.Message process(ow.messaging.Message msg){
-			handler.dispatchMessage((Message)msg.getContents()[0]);
+			bytesReceived.add(msg.getEncodedSize());
+			try{
+				Message message = (Message)msg.getContents()[0];
+				//messages sent to many nodes have no destination
+				if(message.getDestination() == null){
+					message.setDestination(address);
+				}
+				handler.dispatchMessage(message);
+			}catch(RejectedExecutionException e){
+				//the sender doesn't wait for a reply, so it can't be notified and the
+				//message is dropped (see Mailbox.OverflowPolicy.REJECT)
+				Logger.getLogger(SocketTransport.class).warn("Message rejected: " + e.getMessage());
+			}
 			return null;
 	}
 
@@ -103,6 +153,16 @@ public class SocketTransport implements Transport, MessageHandler {
 		}
 	}
 
+	@Override
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+
+	@Override
+	public long getBytesReceived() {
+		return bytesReceived.sum();
+	}
+
 	@Override
 	public void handleException(Throwable e) {
 		handler.handleException(e);
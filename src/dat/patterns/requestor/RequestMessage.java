@@ -1,5 +1,9 @@
 package dat.patterns.requestor;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
 import dat.Message;
 import dat.network.NodeAddress;
 import dat.utils.TypedMap;
@@ -43,5 +47,17 @@ public abstract class RequestMessage extends Message {
 		this.requestor = requestor;
 	}
 	
+	@Override
+	public void writeFields(ObjectOutput out) throws IOException {
+		super.writeFields(out);
+		out.writeObject(requestor);
+	}
+	
+	@Override
+	public void readFields(ObjectInput in) throws IOException, ClassNotFoundException {
+		super.readFields(in);
+		requestor = (NodeAddress)in.readObject();
+	}
+	
 	
 }
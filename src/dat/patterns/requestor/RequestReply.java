@@ -3,24 +3,23 @@ package dat.patterns.requestor;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
-import dat.Algorithm;
+import dat.BatchAlgorithm;
 import dat.DatException;
 import dat.Event;
 import dat.Message;
 import dat.Node;
 import dat.algorithms.gcast.GroupcastProtocol;
 import dat.network.NodeAddress;
+import dat.utils.DispatchTable;
 import dat.utils.FormattingUtils;
-import dat.utils.ReflectionUtils;
+import dat.utils.IdGenerator;
+import dat.utils.LongHashMap;
+import dat.utils.LongHashSet;
 
 /**
  * Provides the basic functionality to handle requests and wait for multiple responses.
@@ -33,10 +32,14 @@ import dat.utils.ReflectionUtils;
  * 
  * where MyRequestMessage extends RequestMessage.
  * 
+ * When messages are delivered in batches, the responses are added to their requests holding the lock
+ * only once for each sequence of consecutive responses. Other messages are dispatched to the handleMessage 
+ * methods. 
+ * 
  * @author Pablo Chacin
  *
  */
-public abstract class RequestReply implements Algorithm {
+public abstract class RequestReply implements BatchAlgorithm {
 
 	/**
 	 * 
@@ -87,19 +90,42 @@ public abstract class RequestReply implements Algorithm {
 	/**
 	 * Keeps track of requests issued by this algorithm instance and the corresponding responses
 	 */
-	protected Map<String,Request> pendingRequests;
+	protected LongHashMap<Request> pendingRequests;
 	
 	/**
 	 * Maintains a register of requests received to avoid processing them multiple times
 	 */
-	protected Set<String> requestsReceived;
+	protected LongHashSet requestsReceived;
 	
 	
 	protected Lock lock = new ReentrantLock();
 	
+	/**
+	 * processRequest methods of this algorithm for each class of request
+	 */
+	private DispatchTable requestHandlers;
+	
+	/**
+	 * handleMessage methods of this algorithm for each class of message
+	 */
+	private DispatchTable messageHandlers;
+	
+	/**
+	 * Indicates if responses in a batch can be added directly to their request, because
+	 * the subclass doesn't override their handling
+	 */
+	private boolean batchResponses;
+	
 	public RequestReply(){
-		this.pendingRequests = new HashMap<String,Request>();
-		this.requestsReceived = new HashSet<String>();
+		this.pendingRequests = new LongHashMap<Request>();
+		this.requestsReceived = new LongHashSet();
+		this.requestHandlers = DispatchTable.getTable(getClass(), "processRequest", RequestMessage.class);
+		this.messageHandlers = DispatchTable.getTable(getClass(), "handleMessage", Message.class);
+		try {
+			this.batchResponses = getClass().getMethod("handleMessage", ResponseMessage.class).getDeclaringClass() == RequestReply.class;
+		} catch (NoSuchMethodException e) {
+			this.batchResponses = false;
+		}
 
 	}
 		
@@ -178,17 +204,22 @@ public abstract class RequestReply implements Algorithm {
 			throw new IllegalArgumentException("Count and Timeout can't be both 0");
 		}
 		
-		if(pendingRequests.containsKey(id)){
-			throw new IllegalArgumentException("Invalid Id. Request [" + id +"] already exists");
-		}
-	
-		
-		//register request
-		Request request = new Request(id,count,timeout,lock.newCondition());
-		
-		pendingRequests.put(id, request);
+		//the pending requests are also modified by the algorithm's thread, holding the lock
+		lock.lock();
+		try{
+			if(pendingRequests.containsKey(IdGenerator.toLong(id))){
+				throw new IllegalArgumentException("Invalid Id. Request [" + id +"] already exists");
+			}
 		
-		return request;
+			//register request
+			Request request = new Request(id,count,timeout,lock.newCondition());
+			
+			pendingRequests.put(IdGenerator.toLong(id), request);
+			
+			return request;
+		}finally{
+			lock.unlock();
+		}
 	}
 		
 	/**
@@ -248,6 +279,48 @@ public abstract class RequestReply implements Algorithm {
 	}
 	
 	
+	/**
+	 * Handles a batch of messages. Consecutive responses are added to their requests
+	 * under a single acquisition of the lock.
+	 * 
+	 * @param messages
+	 */
+	@Override
+	public void handleMessages(List<Message> messages){
+		
+		boolean locked = false;
+		try{
+			for(Message m: messages){
+				
+				if(batchResponses && (m instanceof ResponseMessage)){
+					if(!locked){
+						lock.lock();
+						locked = true;
+					}
+					addResponse((ResponseMessage)m);
+					continue;
+				}
+
+				if(locked){
+					lock.unlock();
+					locked = false;
+				}
+				
+				try {
+					messageHandlers.invoke(this, m);
+				} catch (DatException e) {
+					node.getLog().warn("Exception handling message " + m.toString() + 
+					          "\n"+FormattingUtils.getStackTrace(e));
+				}
+			}
+		}finally{
+			if(locked){
+				lock.unlock();
+			}
+		}
+	}
+	
+	
 	/**
 	 * Default request handler, called if the sub-classes don't handle the request.
 	 * @param request
@@ -264,14 +337,12 @@ public abstract class RequestReply implements Algorithm {
 	protected void dispatchRequest(RequestMessage request){
 		
 		//if already received, ignore
-		if(requestsReceived.contains(request.getId())){
+		if(!requestsReceived.add(request.getLongId())){
 			return;
 		}
 	
-		requestsReceived.add(request.getId());
-	
 		try {
-			ReflectionUtils.invoke("processRequest",this,request);
+			requestHandlers.invoke(this,request);
 		} catch (DatException e) {
 			node.getLog().warn("Exception handling request type " + request.getClass().getName() + 
 				          "\n"+FormattingUtils.getStackTrace(e));
@@ -284,7 +355,23 @@ public abstract class RequestReply implements Algorithm {
 	 * @param message
 	 */
 	protected void dispatchResponse(ResponseMessage message) {
-		Request request = pendingRequests.get(message.getId());
+		
+		lock.lock();
+		try{
+			addResponse(message);
+		}finally{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Adds a response to its request and signals the request if completed.
+	 * Must be called holding the lock.
+	 * 
+	 * @param message
+	 */
+	private void addResponse(ResponseMessage message) {
+		Request request = pendingRequests.get(message.getLongId());
 		
 		//ignore if the request has finished
 		if(request == null){
@@ -295,10 +382,8 @@ public abstract class RequestReply implements Algorithm {
 		
 		//check if completed
 		if((request.count !=0 ) && (request.responses.size() >= request.count)){
-			pendingRequests.remove(message.getId());
-			lock.lock();
+			pendingRequests.remove(message.getLongId());
 			request.finished.signal();
-			lock.unlock();
 		}
 	}
 	
@@ -313,15 +398,18 @@ public abstract class RequestReply implements Algorithm {
 	
 	public void handleEvent(RequestTimeout event) {
 		
-		Request request = pendingRequests.get(event.getId());
-		if(request == null){
-			node.getLog().debug("Ignoring timeout event for request "+ event.getId());
-			return;
-		}
-		
 		lock.lock();
-		request.finished.signal();
-		lock.unlock();
+		try{
+			Request request = pendingRequests.get(event.getLongId());
+			if(request == null){
+				node.getLog().debug("Ignoring timeout event for request "+ event.getId());
+				return;
+			}
+			
+			request.finished.signal();
+		}finally{
+			lock.unlock();
+		}
 
 	}
 	
@@ -5,6 +5,8 @@ import dat.utils.TypedMap;
 
 public class RequestTimeout extends Event {
 
+	private static final long serialVersionUID = 1L;
+
 	public RequestTimeout() {
 		super();
 	}
@@ -0,0 +1,157 @@
+package dat.replay;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import dat.network.NodeAddress;
+
+/**
+ * A log of the inputs of an algorithm, written by an {@link InputRecorder}, loaded in memory.
+ *
+ * @author Pablo Chacin
+ *
+ */
+public class InputLog {
+
+	/**
+	 * An entry of the log
+	 *
+	 */
+	public static class Entry {
+
+		byte kind;
+
+		/**
+		 * Time, for TIME entries. For SKIPPED entries, the kind of the entry skipped.
+		 */
+		long time;
+
+		/**
+		 * Message, Event, List of messages or invocation (method name, parameter types and arguments)
+		 */
+		Object value;
+
+		public byte getKind(){
+			return kind;
+		}
+	}
+
+
+	private String algorithm;
+
+	private String algorithmClass;
+
+	private NodeAddress address;
+
+	private Map<String,Object> parameters = new HashMap<String, Object>();
+
+	private List<Entry> entries = new ArrayList<Entry>();
+
+
+	/**
+	 * Reads a log. A truncated last entry (for example, if the process ended abruptly) is ignored.
+	 *
+	 * @param file
+	 * @throws IOException if the file can't be read or has an invalid format
+	 */
+	public InputLog(File file) throws IOException{
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),64*1024));
+		try{
+			if(in.readInt() != InputRecorder.MAGIC || in.readShort() != InputRecorder.VERSION){
+				throw new IOException("Invalid replay log " + file);
+			}
+
+			algorithm = in.readUTF();
+			algorithmClass = in.readUTF();
+			int count = in.readInt();
+			for(int i = 0; i < count; i++){
+				parameters.put(in.readUTF(), in.readUTF());
+			}
+			address = (NodeAddress)readObject(in);
+
+			while(true){
+				Entry entry = new Entry();
+				try{
+					entry.kind = in.readByte();
+				}catch(EOFException e){
+					break;
+				}
+
+				try{
+					switch(entry.kind){
+					case InputRecorder.INIT:
+					case InputRecorder.TASK:
+						break;
+					case InputRecorder.TIME:
+						entry.time = in.readLong();
+						break;
+					case InputRecorder.SKIPPED:
+						entry.time = in.readByte();
+						break;
+					case InputRecorder.MESSAGE:
+					case InputRecorder.EVENT:
+					case InputRecorder.BATCH:
+					case InputRecorder.CALL:
+						entry.value = readObject(in);
+						break;
+					default:
+						throw new IOException("Invalid entry kind " + entry.kind + " in replay log " + file);
+					}
+				}catch(EOFException e){
+					break;
+				}
+
+				entries.add(entry);
+			}
+		}finally{
+			in.close();
+		}
+	}
+
+
+	private Object readObject(DataInputStream in) throws IOException{
+		byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+		try{
+			return ois.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Class not found reading replay log",e);
+		}finally{
+			ois.close();
+		}
+	}
+
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	public String getAlgorithmClass() {
+		return algorithmClass;
+	}
+
+	public NodeAddress getAddress() {
+		return address;
+	}
+
+	public Map<String, Object> getParameters() {
+		return parameters;
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+}
@@ -0,0 +1,303 @@
+package dat.replay;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.log4j.Logger;
+
+import dat.Event;
+import dat.Message;
+import dat.network.NodeAddress;
+
+/**
+ * Records the inputs of an algorithm in a node, in the order they are delivered to it, in an append
+ * only log which can be fed back to the algorithm by the {@link ReplayRunner}:
+ * <ul>
+ * <li> each (re)initialization of the algorithm
+ * <li> the messages, batches of messages and events processed
+ * <li> the time read by the algorithm
+ * <li> the invocations to the algorithm from the application and other algorithms
+ * <li> the execution of tasks
+ * </ul>
+ *
+ * The log starts with a header with the algorithm's name, class, node address and parameters. Each entry
+ * is a byte with its kind, followed by its content: the time, or the length and serialized form of the
+ * message, event, batch or invocation. Entries which can't be serialized are recorded as SKIPPED, 
+ * followed by their kind.
+ *
+ * The log is flushed when the node stops and is closed when the process ends.
+ *
+ * @author Pablo Chacin
+ *
+ */
+public final class InputRecorder {
+
+	public static final int MAGIC = 0x44415452; //"DATR"
+
+	public static final short VERSION = 1;
+
+	public static final byte INIT = 1;
+
+	public static final byte MESSAGE = 2;
+
+	public static final byte EVENT = 3;
+
+	public static final byte BATCH = 4;
+
+	public static final byte TIME = 5;
+
+	public static final byte CALL = 6;
+
+	public static final byte TASK = 7;
+
+	public static final byte SKIPPED = 8;
+
+	/**
+	 * Recorders open in the process, closed on exit
+	 */
+	private static List<InputRecorder> recorders = new ArrayList<InputRecorder>();
+
+	private static Thread closer = null;
+
+	private static Logger log = Logger.getLogger("dat.replay");
+
+	private File file;
+
+	private DataOutputStream out;
+
+	/**
+	 * Buffer to serialize each entry
+	 */
+	private ByteArrayOutputStream entry = new ByteArrayOutputStream();
+
+	private boolean closed = false;
+
+
+	/**
+	 * Creates a log and writes its header
+	 *
+	 * @param file
+	 * @param algorithm name of the algorithm
+	 * @param algorithmClass class of the algorithm
+	 * @param address address of the node
+	 * @param parameters parameters of the algorithm
+	 * @throws IOException
+	 */
+	public InputRecorder(File file,String algorithm,String algorithmClass,NodeAddress address,Configuration parameters) throws IOException{
+		this.file = file;
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),64*1024));
+
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeUTF(algorithm);
+		out.writeUTF(algorithmClass);
+
+		List<String> keys = new ArrayList<String>();
+		Iterator<?> k = parameters.getKeys();
+		while(k.hasNext()){
+			keys.add((String)k.next());
+		}
+		out.writeInt(keys.size());
+		for(String key: keys){
+			out.writeUTF(key);
+			out.writeUTF(parameters.getString(key));
+		}
+
+		if(!serialize(address)){
+			throw new IOException("Can't serialize node address " + address);
+		}
+		writeEntry();
+
+		register(this);
+	}
+
+
+	private static synchronized void register(InputRecorder recorder){
+		recorders.add(recorder);
+
+		if(closer == null){
+			closer = new Thread(new Runnable(){
+				@Override public void run(){
+					closeAll();
+				}
+			},"dat.replay");
+			Runtime.getRuntime().addShutdownHook(closer);
+		}
+	}
+
+
+	private static synchronized void closeAll(){
+		for(InputRecorder r: recorders){
+			r.close();
+		}
+		recorders.clear();
+	}
+
+
+	public synchronized void recordInit(){
+		writeKind(INIT);
+	}
+
+
+	public synchronized void recordTime(long time){
+		if(writeKind(TIME)){
+			try {
+				out.writeLong(time);
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+	}
+
+
+	public synchronized void recordMessage(Message message){
+		record(MESSAGE,message);
+	}
+
+
+	public synchronized void recordEvent(Event event){
+		record(EVENT,event);
+	}
+
+
+	public synchronized void recordBatch(List<Message> messages){
+		record(BATCH,new ArrayList<Message>(messages));
+	}
+
+
+	/**
+	 * Records an invocation to a method of the algorithm
+	 *
+	 * @param method
+	 * @param args
+	 */
+	public synchronized void recordCall(Method method,Object[] args){
+
+		Class<?>[] types = method.getParameterTypes();
+		String[] typeNames = new String[types.length];
+		for(int i = 0; i < types.length; i++){
+			typeNames[i] = types[i].getName();
+		}
+
+		record(CALL,new Object[]{method.getName(),typeNames,args});
+	}
+
+
+	public synchronized void recordTask(){
+		writeKind(TASK);
+	}
+
+
+	public synchronized void flush(){
+		if(closed){
+			return;
+		}
+
+		try {
+			out.flush();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+
+	public synchronized void close(){
+		if(closed){
+			return;
+		}
+
+		closed = true;
+		try {
+			out.close();
+		} catch (IOException e) {
+			log.error("Exception closing replay log " + file,e);
+		}
+	}
+
+
+	private void record(byte kind,Object value){
+
+		if(closed){
+			return;
+		}
+
+		try {
+			if(serialize(value)){
+				out.writeByte(kind);
+				writeEntry();
+			}
+			else{
+				out.writeByte(SKIPPED);
+				out.writeByte(kind);
+			}
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+
+	/**
+	 * Serializes an object in the entry buffer
+	 *
+	 * @return false if the object can't be serialized
+	 */
+	private boolean serialize(Object value){
+
+		if(!(value instanceof Serializable)){
+			return false;
+		}
+
+		entry.reset();
+		try{
+			ObjectOutputStream oos = new ObjectOutputStream(entry);
+			oos.writeObject(value);
+			oos.close();
+		}catch(IOException e){
+			log.debug("Can't serialize " + value.getClass().getName() + " for replay log: " + e.getMessage());
+			return false;
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Writes the length and content of the entry buffer
+	 */
+	private void writeEntry() throws IOException{
+		out.writeInt(entry.size());
+		entry.writeTo(out);
+	}
+
+
+	private boolean writeKind(byte kind){
+		if(closed){
+			return false;
+		}
+
+		try {
+			out.writeByte(kind);
+			return true;
+		} catch (IOException e) {
+			fail(e);
+			return false;
+		}
+	}
+
+
+	private void fail(IOException e){
+		log.error("Exception writing replay log " + file + ". Recording is stopped",e);
+		close();
+	}
+}
@@ -0,0 +1,370 @@
+package dat.replay;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.MapConfiguration;
+import org.apache.log4j.Logger;
+
+import dat.Algorithm;
+import dat.AlgorithmCall;
+import dat.BatchAlgorithm;
+import dat.DatException;
+import dat.Event;
+import dat.Message;
+import dat.Node;
+import dat.network.NodeAddress;
+import dat.utils.DispatchTable;
+import dat.utils.TypedMap;
+
+/**
+ * Feeds the inputs recorded by an {@link InputRecorder} to a new instance of the algorithm, in the
+ * same order, without a network or other algorithms, as fast as possible.
+ *
+ * The algorithm runs on a {@link Node} which returns the recorded times and address and
+ * discards the outputs of the algorithm:
+ * <ul>
+ * <li> messages sent and events scheduled are only counted (recorded events are replayed when fired).
+ * <li> tasks submitted by the algorithm are executed when the recorded execution of a task is reached.
+ * <li> other algorithms are accessed through proxies which return null (or 0 for primitive types), and
+ *      asynchronous invocations fail.
+ * </ul>
+ *
+ * Usage: ReplayRunner &lt;log file&gt; [repetitions]
+ *
+ * The log is replayed the given number of times (default 1), on a new instance of the algorithm each
+ * time, reporting the time taken by each repetition.
+ *
+ * @author Pablo Chacin
+ *
+ */
+public class ReplayRunner {
+
+	/**
+	 * Node on which the algorithm is replayed
+	 */
+	private class ReplayNode implements Node {
+
+		@Override
+		public void sendMessage(NodeAddress destination, String id, String type, TypedMap attributes) {
+			sent++;
+		}
+
+		@Override
+		public void sendMessage(NodeAddress destination, Message message) {
+			sent++;
+		}
+
+		@Override
+		public void sendMessage(List<NodeAddress> destination, String id, String type, TypedMap attributes) {
+			sent += destination.size();
+		}
+
+		@Override
+		public void sendMessage(List<NodeAddress> destination, Message message) {
+			sent += destination.size();
+		}
+
+		@Override
+		public NodeAddress getAddress() {
+			return log.getAddress();
+		}
+
+		@Override
+		public NodeAddress resolve(String address) throws DatException {
+			throw new DatException("Addresses can't be resolved in a replay");
+		}
+
+		@Override
+		public UUID getID() {
+			//as the ID of the SocketAddress, derived from the location
+			return UUID.nameUUIDFromBytes(log.getAddress().getLocation().getBytes());
+		}
+
+		@Override
+		public void scheduleEvent(String id, long delay, String type, TypedMap attributes) {
+			scheduled++;
+		}
+
+		@Override
+		public void scheduleEvent(Event event) {
+			scheduled++;
+		}
+
+		@Override
+		public void scheduleEvent(String id, long delay, String type) {
+			scheduled++;
+		}
+
+		@Override
+		public void cancelEvent(String id) {
+		}
+
+		/**
+		 * Returns the next recorded time, if it is the next input, or the last time otherwise
+		 */
+		@Override
+		public long getTime() {
+			if(next < entries.size() && entries.get(next).kind == InputRecorder.TIME){
+				time = entries.get(next++).time;
+			}
+			return time;
+		}
+
+		@Override
+		public Configuration getParameters() {
+			return parameters;
+		}
+
+		@Override
+		public Object getAlgorithm(String name, Class<?>... interfaces) {
+			return Proxy.newProxyInstance(algorithm.getClass().getClassLoader(), interfaces, new InvocationHandler(){
+				@Override public Object invoke(Object proxy, Method method, Object[] args){
+					return defaultValue(method.getReturnType());
+				}
+			});
+		}
+
+		@Override
+		public <A, R> CompletableFuture<R> invokeAsync(String name, Class<A> type, AlgorithmCall<A, R> call) {
+			CompletableFuture<R> future = new CompletableFuture<R>();
+			future.completeExceptionally(new UnsupportedOperationException("Algorithms can't be invoked in a replay"));
+			return future;
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			tasks.add(task);
+		}
+
+		@Override
+		public Logger getLog() {
+			return logger;
+		}
+	}
+
+
+	private InputLog log;
+
+	private List<InputLog.Entry> entries;
+
+	private Configuration parameters;
+
+	private Algorithm algorithm;
+
+	private Node node = new ReplayNode();
+
+	private DispatchTable messageHandlers;
+
+	private DispatchTable eventHandlers;
+
+	private Logger logger;
+
+	/**
+	 * Next entry to replay
+	 */
+	private int next;
+
+	/**
+	 * Last time read
+	 */
+	private long time;
+
+	private Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+
+	private Map<String,Method> methods = new HashMap<String, Method>();
+
+	private long[] replayed = new long[InputRecorder.SKIPPED+1];
+
+	private long sent;
+
+	private long scheduled;
+
+
+	/**
+	 * Creates a new instance of the algorithm to replay a log
+	 *
+	 * @param log
+	 * @throws DatException if the algorithm can't be instantiated
+	 */
+	public ReplayRunner(InputLog log) throws DatException{
+		this.log = log;
+		this.entries = log.getEntries();
+		this.parameters = new MapConfiguration(log.getParameters());
+		this.logger = Logger.getLogger("dat.replay.algorithm." + log.getAlgorithm());
+
+		try {
+			this.algorithm = (Algorithm)Class.forName(log.getAlgorithmClass()).getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			throw new DatException("Exception instantiating algorithm " + log.getAlgorithmClass(),e);
+		}
+
+		this.messageHandlers = DispatchTable.getTable(algorithm.getClass(), "handleMessage", Message.class);
+		this.eventHandlers = DispatchTable.getTable(algorithm.getClass(), "handleEvent", Event.class);
+	}
+
+
+	/**
+	 * Replays all the entries of the log
+	 *
+	 * @return the time taken, in nanoseconds
+	 */
+	public long run(){
+
+		long start = System.nanoTime();
+		while(next < entries.size()){
+			replay(entries.get(next++));
+		}
+
+		return System.nanoTime() - start;
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private void replay(InputLog.Entry entry){
+
+		replayed[entry.kind]++;
+
+		try{
+			switch(entry.kind){
+			case InputRecorder.INIT:
+				tasks.clear();
+				algorithm.init(node);
+				break;
+			case InputRecorder.MESSAGE:
+				messageHandlers.invoke(algorithm, entry.value);
+				break;
+			case InputRecorder.EVENT:
+				eventHandlers.invoke(algorithm, entry.value);
+				break;
+			case InputRecorder.BATCH:
+				((BatchAlgorithm)algorithm).handleMessages((List<Message>)entry.value);
+				break;
+			case InputRecorder.TIME:
+				//read by the algorithm in the recording, but not in the replay
+				time = entry.time;
+				break;
+			case InputRecorder.CALL:
+				invoke((Object[])entry.value);
+				break;
+			case InputRecorder.TASK:
+				//tasks submitted by other algorithms are not available
+				Runnable task = tasks.poll();
+				if(task != null){
+					task.run();
+				}
+				break;
+			default:
+				break;
+			}
+		}catch(Exception e){
+			logger.error("Exception replaying entry " + (next-1),e);
+		}
+	}
+
+
+	/**
+	 * Invokes a method of the algorithm
+	 *
+	 * @param call the method's name, the names of its parameter types and the arguments
+	 */
+	private void invoke(Object[] call) throws Exception{
+
+		String name = (String)call[0];
+		String[] typeNames = (String[])call[1];
+		Object[] args = (Object[])call[2];
+
+		String key = name + Arrays.toString(typeNames);
+		Method method = methods.get(key);
+		if(method == null){
+			Class<?>[] types = new Class<?>[typeNames.length];
+			for(int i = 0; i < types.length; i++){
+				types[i] = classForName(typeNames[i]);
+			}
+			method = algorithm.getClass().getMethod(name, types);
+			method.setAccessible(true);
+			methods.put(key, method);
+		}
+
+		try{
+			method.invoke(algorithm, args);
+		}catch(InvocationTargetException e){
+			logger.debug("Exception in replayed invocation of " + name, e.getCause());
+		}
+	}
+
+
+	private static Class<?> classForName(String name) throws ClassNotFoundException{
+		if(name.equals("int")) return int.class;
+		if(name.equals("long")) return long.class;
+		if(name.equals("boolean")) return boolean.class;
+		if(name.equals("double")) return double.class;
+		if(name.equals("float")) return float.class;
+		if(name.equals("short")) return short.class;
+		if(name.equals("byte")) return byte.class;
+		if(name.equals("char")) return char.class;
+		return Class.forName(name);
+	}
+
+
+	private static Object defaultValue(Class<?> type){
+		if(!type.isPrimitive() || type == void.class) return null;
+		if(type == boolean.class) return Boolean.FALSE;
+		if(type == char.class) return Character.valueOf((char)0);
+		if(type == byte.class) return Byte.valueOf((byte)0);
+		if(type == short.class) return Short.valueOf((short)0);
+		if(type == int.class) return Integer.valueOf(0);
+		if(type == long.class) return Long.valueOf(0);
+		if(type == float.class) return Float.valueOf(0);
+		return Double.valueOf(0);
+	}
+
+
+	@Override
+	public String toString(){
+		return "init=" + replayed[InputRecorder.INIT] + " messages=" + replayed[InputRecorder.MESSAGE] +
+		       " batches=" + replayed[InputRecorder.BATCH] + " events=" + replayed[InputRecorder.EVENT] +
+		       " calls=" + replayed[InputRecorder.CALL] + " tasks=" + replayed[InputRecorder.TASK] +
+		       " skipped=" + replayed[InputRecorder.SKIPPED] + " sent=" + sent + " scheduled=" + scheduled;
+	}
+
+
+	public static void main(String[] args){
+
+		if(args.length < 1 || args.length > 2){
+			System.err.println("Usage: ReplayRunner <log file> [repetitions]");
+			System.exit(1);
+		}
+
+		try {
+			int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+			for(int r = 0; r < repetitions; r++){
+				//read again, as messages and events could be modified by the algorithm
+				InputLog log = new InputLog(new File(args[0]));
+				ReplayRunner runner = new ReplayRunner(log);
+				long elapsed = runner.run();
+
+				int inputs = log.getEntries().size();
+				System.out.println("Replay " + r + " of " + log.getAlgorithm() + ": " + inputs + " inputs in " +
+				                   elapsed/1000000 + "ms (" + (elapsed > 0 ? inputs*1000000000L/elapsed : 0) +
+				                   " inputs/s) " + runner);
+			}
+		} catch (Exception e) {
+			System.err.println("Error replaying log: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package dat.simulation;
+
+import java.util.Random;
+
+import org.apache.commons.configuration.Configuration;
+
+/**
+ * Generates the latency of the messages delivered in a {@link Simulation}.
+ * 
+ * Receives the following configuration parameters (relative to simulation.latency):
+ * <ul>
+ * <li> distribution: constant, uniform or exponential. Default is constant.
+ * <li> min: minimum latency, in milliseconds. Default is 1.
+ * <li> max: maximum latency for the uniform distribution. Default is min.
+ * <li> mean: mean latency, over the minimum, for the exponential distribution. Default is 0. 
+ * </ul>
+ * 
+ * @author Pablo Chacin
+ *
+ */
+public class LatencyModel {
+
+	public enum Distribution {CONSTANT,UNIFORM,EXPONENTIAL};
+	
+	private Distribution distribution;
+	
+	private long min;
+	
+	private long max;
+	
+	private double mean;
+	
+	
+	public LatencyModel(Configuration config){
+		
+		this.distribution = Distribution.valueOf(config.getString("distribution","constant").toUpperCase());
+		this.min = config.getLong("min",1);
+		this.max = Math.max(min,config.getLong("max",min));
+		this.mean = config.getDouble("mean",0);
+		
+		if(min < 0){
+			throw new IllegalArgumentException("Minimum latency can't be negative");
+		}
+	}
+	
+	
+	/**
+	 * Returns the latency for a message
+	 * 
+	 * @param random the source of random numbers (each node has its own, to make the simulation repeatable)
+	 * @return the latency, in milliseconds
+	 */
+	public long getLatency(Random random){
+		
+		switch(distribution){
+		case UNIFORM:
+			return min + (long)(random.nextDouble()*(max-min+1));
+		case EXPONENTIAL:
+			return min + Math.round(-mean*Math.log(1.0-random.nextDouble()));
+		default:
+			return min;
+		}
+	}
+
+	/**
+	 * 
+	 * @return the minimum latency a message can have
+	 */
+	public long getMinLatency(){
+		return min;
+	}
+}
@@ -0,0 +1,49 @@
+package dat.simulation;
+
+import org.apache.commons.configuration.Configuration;
+
+import dat.network.NetworkException;
+import dat.network.local.LocalNetwork;
+import dat.network.local.LocalTransport;
+
+/**
+ * A {@link LocalNetwork} whose nodes are executed in a {@link Simulation}. Messages are delivered, after 
+ * a latency given by the simulation's {@link LatencyModel}, as tasks in the simulation's virtual time.
+ * 
+ * Receives the same address parameters as the LocalNetwork.
+ * 
+ * @author Pablo Chacin
+ *
+ */
+public class SimulatedNetwork extends LocalNetwork {
+
+	protected Simulation.NodeScheduler scheduler;
+	
+	
+	/**
+	 * Sets the scheduler of the node that uses this network. Must be called before init.
+	 * 
+	 * @param scheduler
+	 */
+	public void setScheduler(Simulation.NodeScheduler scheduler){
+		this.scheduler = scheduler;
+	}
+	
+	
+	@Override
+	public void init(Configuration config) throws NetworkException {
+		
+		if(scheduler == null){
+			throw new NetworkException("Simulated network used outside a simulation");
+		}
+		
+		super.init(config);
+	}
+	
+	
+	@Override
+	protected LocalTransport createTransport() throws NetworkException {
+		return new SimulatedTransport(scheduler);
+	}
+
+}
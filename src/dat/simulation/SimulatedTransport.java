@@ -0,0 +1,60 @@
+package dat.simulation;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import dat.Message;
+import dat.network.TransportException;
+import dat.network.local.LocalTransport;
+
+/**
+ * Transport of a {@link SimulatedNetwork}. Each message is copied when sent and delivered to 
+ * the destination's handler by a task scheduled in the {@link Simulation}.
+ * 
+ * @author Pablo Chacin
+ *
+ */
+public class SimulatedTransport extends LocalTransport {
+
+	protected Simulation.NodeScheduler scheduler;
+	
+	
+	public SimulatedTransport(Simulation.NodeScheduler scheduler) {
+		super(scheduler.getSimulation().getRegistry());
+		this.scheduler = scheduler;
+	}
+	
+	
+	@Override
+	protected void send(LocalTransport target,final Message message) throws TransportException{
+		
+		final SimulatedTransport destination = (SimulatedTransport)target;
+		
+		//the delivery is executed in the partition of the destination
+		scheduler.schedule(destination.scheduler,new Runnable(){
+			@Override public void run(){
+				destination.deliver(message);
+			}
+		}, scheduler.getLatency());
+	}
+
+	
+	/**
+	 * Delivers a message to the handler, if still connected
+	 * 
+	 * @param message
+	 */
+	protected void deliver(Message message){
+		
+		if(!connected){
+			log.debug("Discarding message for disconnected node " + address.getLocation());
+			return;
+		}
+		
+		try{
+			handler.dispatchMessage(message);
+		}catch(RejectedExecutionException e){
+			log.warn("Message rejected: " + e.getMessage());
+		}
+	}
+
+}
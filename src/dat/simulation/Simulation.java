@@ -0,0 +1,595 @@
+package dat.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.log4j.Logger;
+
+import dat.core.AlgorithmNode;
+import dat.core.DAT;
+import dat.core.NetworkNode;
+import dat.network.local.LocalRegistry;
+import dat.utils.Scheduler;
+import dat.utils.Timeout;
+
+/**
+ * Executes all the nodes of an experiment as a discrete event simulation, under a single virtual clock.
+ *
+ * The events scheduled by the algorithms and the delivery of the messages sent through a
+ * {@link SimulatedNetwork} are kept in a queue ordered by their (virtual) time. The simulation
+ * advances the clock to the time of the next task in the queue only when all the algorithms have
+ * processed the work previously delivered to them. Therefore, waiting for a timeout costs no real time.
+ *
+ * Algorithms still execute in their own threads, so all the tasks that expire at the same time are
+ * executed before waiting for the algorithms. Tasks with the same time are ordered by the index of the
+ * node that scheduled them, the name of the algorithm that scheduled them and the order on which they were
+ * scheduled by that algorithm. Each algorithm of each node has its own random generator (derived from the
+ * simulation's seed) to generate the latency of the messages it sends. Therefore, the results don't depend
+ * on how the threads of the algorithms of a node interleave.
+ *
+ * The nodes can be divided in partitions (node n belongs to partition n % workers), each one with its own
+ * queue and clock, which are executed in parallel by different threads. Partitions advance in windows of
+ * time as long as the minimum latency of the messages (the lookahead): any message sent by a node during
+ * a window is delivered after the end of the window, so partitions don't affect each other inside a window.
+ * At the end of each window all the partitions wait for the others. As the order of the tasks doesn't
+ * depend on the partitions, the results are the same than with a single partition for the same seed.
+ *
+ * Applications are not simulated. They must use {@link dat.core.DAT#sleep(long)} to wait for the virtual
+ * time to advance.
+ *
+ * Receives the following configuration parameters (relative to simulation):
+ * <ul>
+ * <li> duration: maximum virtual time to simulate, in milliseconds. Default is 0 (no limit).
+ * <li> idle: real time, in milliseconds, to wait for new tasks (for example, scheduled by the applications)
+ *      when the queue becomes empty, before ending the simulation. Default is 1000.
+ * <li> seed: seed for the random generators. Default is 0.
+ * <li> workers: number of partitions executed in parallel. Default is 1. Requires a minimum latency
+ *      greater than 0.
+ * <li> latency.*: parameters of the {@link LatencyModel}.
+ * </ul>
+ *
+ * @author Pablo Chacin
+ *
+ */
+public class Simulation {
+
+	/**
+	 * A task in the simulation's queue.
+	 *
+	 */
+	protected static class SimulationTask implements Timeout, Comparable<SimulationTask> {
+
+		long time;
+
+		int node;
+
+		/**
+		 * Algorithm that scheduled the task, null if it was not scheduled by an algorithm
+		 */
+		String algorithm;
+
+		long sequence;
+
+		Runnable task;
+
+		volatile boolean cancelled = false;
+
+		volatile boolean expired = false;
+
+
+		public SimulationTask(long time, int node, String algorithm, long sequence, Runnable task) {
+			this.time = time;
+			this.node = node;
+			this.algorithm = algorithm;
+			this.sequence = sequence;
+			this.task = task;
+		}
+
+		@Override
+		public boolean cancel() {
+			if(expired || cancelled){
+				return false;
+			}
+			cancelled = true;
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public boolean isExpired() {
+			return expired;
+		}
+
+		/**
+		 * Executes the task, unless cancelled
+		 *
+		 * @return true if the task was executed
+		 */
+		boolean expire(){
+			if(cancelled){
+				return false;
+			}
+
+			expired = true;
+			try{
+				task.run();
+			}catch(Throwable e){
+				log.error("Exception executing simulation task",e);
+			}
+
+			return true;
+		}
+
+		@Override
+		public int compareTo(SimulationTask o) {
+			if(time != o.time){
+				return time < o.time? -1 : 1;
+			}
+			if(node != o.node){
+				return node < o.node? -1 : 1;
+			}
+			if(algorithm != o.algorithm){
+				if(algorithm == null || o.algorithm == null){
+					return algorithm == null? -1 : 1;
+				}
+				int c = algorithm.compareTo(o.algorithm);
+				if(c != 0){
+					return c;
+				}
+			}
+			if(sequence != o.sequence){
+				return sequence < o.sequence? -1 : 1;
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * A set of nodes with its own queue of tasks and clock.
+	 *
+	 */
+	protected class Partition implements Callable<Long> {
+
+		protected PriorityQueue<SimulationTask> queue = new PriorityQueue<SimulationTask>();
+
+		/**
+		 * Current virtual time of the partition
+		 */
+		protected volatile long now = 0;
+
+		protected List<NetworkNode> nodes = new ArrayList<NetworkNode>();
+
+		/**
+		 * End (exclusive) of the current window
+		 */
+		protected long windowEnd;
+
+		private List<SimulationTask> due = new ArrayList<SimulationTask>();
+
+
+		protected void enqueue(SimulationTask task){
+			synchronized (queue) {
+				queue.add(task);
+			}
+		}
+
+		/**
+		 *
+		 * @return the time of the next task, Long.MAX_VALUE if there is none
+		 */
+		protected long nextTime(){
+			synchronized (queue) {
+				SimulationTask next = queue.peek();
+				return next == null? Long.MAX_VALUE : next.time;
+			}
+		}
+
+		/**
+		 * Executes the tasks in the current window, waiting for the nodes to process the work
+		 * generated by the tasks of each time before advancing to the next one.
+		 *
+		 * @return the number of tasks executed
+		 */
+		@Override
+		public Long call() {
+
+			long executed = 0;
+
+			while(true){
+
+				synchronized (queue) {
+					SimulationTask next = queue.peek();
+					if((next == null) || (next.time >= windowEnd)){
+						break;
+					}
+
+					now = Math.max(now, next.time);
+					while((next != null) && (next.time <= now)){
+						due.add(queue.poll());
+						next = queue.peek();
+					}
+				}
+
+				for(SimulationTask t: due){
+					if(t.expire()){
+						executed++;
+					}
+				}
+				due.clear();
+
+				awaitQuiescence();
+			}
+
+			return executed;
+		}
+
+		/**
+		 * Waits until all the algorithms of all the nodes have processed the pending work
+		 */
+		protected void awaitQuiescence(){
+
+			for(NetworkNode node: nodes){
+				while(!node.isIdle()){
+					LockSupport.parkNanos(this, POLL_INTERVAL);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * The {@link Scheduler} of a node in the simulation.
+	 *
+	 */
+	public class NodeScheduler implements Scheduler {
+
+		/**
+		 * The sequence of the tasks and the random generator of an algorithm of the node
+		 */
+		private class Stream {
+
+			String algorithm;
+
+			AtomicLong sequence = new AtomicLong();
+
+			Random random;
+
+			Stream(String algorithm){
+				this.algorithm = algorithm;
+				long s = seed + index;
+				if(algorithm != null){
+					s = s*31 + algorithm.hashCode();
+				}
+				this.random = new Random(s);
+			}
+		}
+
+		private int index;
+
+		private Partition partition;
+
+		/**
+		 * Stream of the threads which don't execute an algorithm (for example, the applications)
+		 */
+		private Stream shared;
+
+		private ConcurrentMap<String,Stream> streams = new ConcurrentHashMap<String,Stream>();
+
+		NodeScheduler(int index) {
+			this.index = index;
+			this.partition = partitions[index % partitions.length];
+			this.shared = new Stream(null);
+		}
+
+		/**
+		 *
+		 * @return the stream of the algorithm executed by the current thread
+		 */
+		private Stream stream(){
+			AlgorithmNode algorithm = DAT.peekNode();
+			if(algorithm == null){
+				return shared;
+			}
+
+			Stream stream = streams.get(algorithm.getName());
+			if(stream == null){
+				stream = new Stream(algorithm.getName());
+				Stream previous = streams.putIfAbsent(algorithm.getName(), stream);
+				if(previous != null){
+					stream = previous;
+				}
+			}
+			return stream;
+		}
+
+		/**
+		 * Returns the virtual time
+		 */
+		@Override
+		public long getTime() {
+			return partition.now;
+		}
+
+		@Override
+		public Timeout schedule(Runnable task, long delay) {
+			return schedule(this,task,delay);
+		}
+
+		/**
+		 * Schedules a task to be executed in the partition of another node. Used to deliver messages,
+		 * the delay must not be smaller than the minimum latency.
+		 *
+		 * @param target the scheduler of the node on which the task is executed
+		 * @param task
+		 * @param delay
+		 * @return a Timeout which allows the cancellation of the task
+		 */
+		public Timeout schedule(NodeScheduler target,Runnable task, long delay) {
+			if(delay < 0){
+				throw new IllegalArgumentException("Delay must be non negative");
+			}
+
+			Stream stream = stream();
+			SimulationTask t = new SimulationTask(partition.now+delay,index,stream.algorithm,stream.sequence.getAndIncrement(),task);
+			target.partition.enqueue(t);
+
+			return t;
+		}
+
+		/**
+		 *
+		 * @return the index of the node in the simulation
+		 */
+		public int getIndex(){
+			return index;
+		}
+
+		/**
+		 *
+		 * @return the latency for a message sent by the current algorithm of this node
+		 */
+		public long getLatency(){
+			Stream stream = stream();
+			synchronized (stream) {
+				return latency.getLatency(stream.random);
+			}
+		}
+
+		public Simulation getSimulation(){
+			return Simulation.this;
+		}
+	}
+
+
+	/**
+	 * Time a thread waits (in nanoseconds) before checking again the activity of the nodes
+	 */
+	private static final long POLL_INTERVAL = TimeUnit.MICROSECONDS.toNanos(10);
+
+	protected static Logger log = Logger.getLogger("dat.simulation");
+
+	protected Partition[] partitions;
+
+	/**
+	 * Time of the start of the current window
+	 */
+	protected volatile long now = 0;
+
+	protected long duration;
+
+	protected long idle;
+
+	protected long seed;
+
+	protected LatencyModel latency;
+
+	/**
+	 * Length of the windows
+	 */
+	protected long lookahead;
+
+	/**
+	 * Transports connected to the simulated network
+	 */
+	protected LocalRegistry registry = new LocalRegistry();
+
+
+	public Simulation(Configuration config){
+		this.duration = config.getLong("duration",0);
+		this.idle = config.getLong("idle",1000);
+		this.seed = config.getLong("seed",0);
+		this.latency = new LatencyModel(config.subset("latency"));
+
+		int workers = config.getInt("workers",1);
+		if((workers > 1) && (latency.getMinLatency() == 0)){
+			log.warn("Parallel simulation requires a minimum latency greater than 0. Using a single worker");
+			workers = 1;
+		}
+
+		this.lookahead = Math.max(1, latency.getMinLatency());
+		this.partitions = new Partition[Math.max(1,workers)];
+		for(int i = 0; i < partitions.length; i++){
+			partitions[i] = new Partition();
+		}
+	}
+
+
+	/**
+	 * Returns the scheduler for a node
+	 *
+	 * @param index index of the node. Must be unique in the simulation.
+	 * @return the NodeScheduler
+	 */
+	public NodeScheduler forNode(int index){
+		return new NodeScheduler(index);
+	}
+
+
+	/**
+	 * Adds a node to the simulation. The simulation waits for the algorithms of the node to
+	 * process their work before advancing the time of the node's partition.
+	 *
+	 * @param scheduler the scheduler of the node
+	 * @param node
+	 */
+	public synchronized void addNode(NodeScheduler scheduler, NetworkNode node){
+		scheduler.partition.nodes.add(node);
+	}
+
+
+	/**
+	 *
+	 * @return the time of the start of the current window
+	 */
+	public long getTime(){
+		return now;
+	}
+
+
+	/**
+	 *
+	 * @return the registry of the transports of the simulated network
+	 */
+	public LocalRegistry getRegistry(){
+		return registry;
+	}
+
+
+	/**
+	 * Runs the simulation until the duration is reached or there is no more work to do.
+	 * Must be called once all the nodes have been started.
+	 */
+	public void run(){
+
+		long start = System.currentTimeMillis();
+		long executed = 0;
+
+		log.info("Starting simulation with " + partitions.length + " partitions. Lookahead: " + lookahead + " ms");
+
+		ExecutorService workers = null;
+		if(partitions.length > 1){
+			workers = Executors.newFixedThreadPool(partitions.length -1, new ThreadFactory(){
+				@Override public Thread newThread(Runnable r){
+					Thread t = new Thread(r,"dat.simulation.worker");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+
+		try{
+			while(nextWindow()){
+				executed += runWindow(workers);
+			}
+		}finally{
+			if(workers != null){
+				workers.shutdown();
+			}
+		}
+
+		log.info("Simulation finished. Virtual time: " + now + " ms. Tasks executed: " + executed +
+				 ". Real time: " + (System.currentTimeMillis()-start) + " ms");
+	}
+
+
+	/**
+	 * Sets the next window, starting at the time of the earliest task of all the partitions.
+	 * If there are no tasks, waits for new tasks during the idle time.
+	 *
+	 * @return false if the simulation has ended
+	 */
+	protected boolean nextWindow(){
+
+		long deadline = System.currentTimeMillis() + idle;
+
+		long next;
+		while(true){
+			next = Long.MAX_VALUE;
+			for(Partition p: partitions){
+				next = Math.min(next, p.nextTime());
+			}
+
+			if(next != Long.MAX_VALUE){
+				break;
+			}
+
+			if(System.currentTimeMillis() >= deadline){
+				return false;
+			}
+
+			LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+		}
+
+		if((duration > 0) && (next > duration)){
+			now = duration;
+			return false;
+		}
+
+		now = Math.max(now, next);
+
+		long end = now + lookahead;
+		if(duration > 0){
+			end = Math.min(end, duration+1);
+		}
+
+		for(Partition p: partitions){
+			p.now = Math.max(p.now, now);
+			p.windowEnd = end;
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Executes the current window in all the partitions. The first partition is executed in
+	 * the calling thread.
+	 *
+	 * @param workers executor for the other partitions
+	 * @return the number of tasks executed
+	 */
+	protected long runWindow(ExecutorService workers){
+
+		if(workers == null){
+			return partitions[0].call();
+		}
+
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+		for(int i = 1; i < partitions.length; i++){
+			results.add(workers.submit(partitions[i]));
+		}
+
+		long executed = partitions[0].call();
+
+		for(Future<Long> r: results){
+			try {
+				executed += r.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for partition",e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Exception executing partition",e.getCause());
+			}
+		}
+
+		return executed;
+	}
+}
@@ -0,0 +1,90 @@
+package dat.trace;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Ring of trace records written by a single thread, kept off-heap. When the ring is full,
+ * its records are flushed to the {@link TraceWriter} and the ring is reused.
+ *
+ * Other threads can flush the records already written (for example, on shutdown) without
+ * stopping the owner: the owner publishes the position of the last complete record and only
+ * writes beyond it, while flushes only read up to it.
+ *
+ * @author Pablo Chacin
+ *
+ */
+class TraceBuffer {
+
+	private ByteBuffer buffer;
+
+	private TraceWriter writer;
+
+	/**
+	 * Position of the next record. Only accessed by the owner.
+	 */
+	private int position;
+
+	/**
+	 * End of the last complete record
+	 */
+	private volatile int committed;
+
+	/**
+	 * End of the last record flushed. Guarded by the buffer's lock.
+	 */
+	private int flushed;
+
+
+	TraceBuffer(TraceWriter writer,int records){
+		this.writer = writer;
+		this.buffer = ByteBuffer.allocateDirect(records * Tracer.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+
+	/**
+	 * Writes a record. Must be called by the owner.
+	 */
+	void write(long timestamp,int node,int algorithm,int peer,int type,byte kind,int count,long id){
+
+		if(position == buffer.capacity()){
+			reset();
+		}
+
+		int p = position;
+		buffer.putLong(p + Tracer.TIMESTAMP, timestamp);
+		buffer.putInt(p + Tracer.NODE, node);
+		buffer.putInt(p + Tracer.ALGORITHM, algorithm);
+		buffer.putInt(p + Tracer.PEER, peer);
+		buffer.putInt(p + Tracer.TYPE, type);
+		buffer.put(p + Tracer.KIND, kind);
+		buffer.putShort(p + Tracer.COUNT, (short)Math.min(count, Short.MAX_VALUE));
+		buffer.putLong(p + Tracer.ID, id);
+
+		position = p + Tracer.RECORD_SIZE;
+		committed = position;
+	}
+
+
+	/**
+	 * Flushes the records written since the last flush
+	 */
+	synchronized void flush(){
+		int end = committed;
+		if(end > flushed){
+			writer.write(buffer, flushed, end);
+			flushed = end;
+		}
+	}
+
+
+	/**
+	 * Flushes the ring and starts again from its beginning. Must be called by the owner.
+	 */
+	private synchronized void reset(){
+		flush();
+		position = 0;
+		committed = 0;
+		flushed = 0;
+	}
+}
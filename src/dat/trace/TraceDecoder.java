@@ -0,0 +1,257 @@
+package dat.trace;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import dat.utils.IdGenerator;
+
+/**
+ * Renders the records of a trace (see {@link Tracer}) as the log messages the nodes write when
+ * tracing is not enabled. The records of all the processes which wrote to the trace directory are
+ * merged in order of time.
+ *
+ * Each line has the format
+ * <pre>
+ * date level [location] [algorithm] message
+ * </pre>
+ *
+ * As the attributes of messages and events are not traced, they are not shown.
+ *
+ * Usage: TraceDecoder &lt;trace directory&gt;
+ *
+ * @author Pablo Chacin
+ *
+ */
+public class TraceDecoder {
+
+	/**
+	 * A record, with the strings resolved
+	 */
+	private static class Record {
+
+		long timestamp;
+
+		String node;
+
+		String algorithm;
+
+		String peer;
+
+		String type;
+
+		byte kind;
+
+		int count;
+
+		String id;
+	}
+
+
+	private File directory;
+
+	private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS");
+
+
+	public TraceDecoder(File directory){
+		this.directory = directory;
+	}
+
+
+	/**
+	 * Reads the records of all the processes
+	 *
+	 * @return the records, in order of time
+	 * @throws IOException
+	 */
+	private List<Record> read() throws IOException{
+
+		String[] dictionaries = directory.list(new FilenameFilter(){
+			@Override public boolean accept(File dir, String name){
+				return name.startsWith("trace-") && name.endsWith(".dict");
+			}
+		});
+
+		if(dictionaries == null){
+			throw new IOException("Can't read trace directory " + directory);
+		}
+
+		List<Record> records = new ArrayList<Record>();
+		for(String d: dictionaries){
+			final String prefix = d.substring(0, d.length() - ".dict".length());
+			Map<Integer,String> dictionary = readDictionary(new File(directory, d));
+
+			String[] segments = directory.list(new FilenameFilter(){
+				@Override public boolean accept(File dir, String name){
+					return name.startsWith(prefix + "-") && name.endsWith(".seg");
+				}
+			});
+			Arrays.sort(segments);
+
+			for(String s: segments){
+				readSegment(new File(directory, s), dictionary, records);
+			}
+		}
+
+		Collections.sort(records, new Comparator<Record>(){
+			@Override public int compare(Record r1, Record r2){
+				return Long.compare(r1.timestamp, r2.timestamp);
+			}
+		});
+
+		return records;
+	}
+
+
+	private Map<Integer,String> readDictionary(File file) throws IOException{
+
+		Map<Integer,String> dictionary = new HashMap<Integer, String>();
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),"UTF-8"));
+		try{
+			String line;
+			while((line = reader.readLine()) != null){
+				int tab = line.indexOf('\t');
+				if(tab > 0){
+					dictionary.put(Integer.valueOf(line.substring(0, tab)), line.substring(tab+1));
+				}
+			}
+		}finally{
+			reader.close();
+		}
+
+		return dictionary;
+	}
+
+
+	private void readSegment(File file,Map<Integer,String> dictionary,List<Record> records) throws IOException{
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try{
+			MappedByteBuffer segment = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			segment.order(ByteOrder.LITTLE_ENDIAN);
+
+			if(segment.getInt(0) != Tracer.MAGIC || segment.getShort(4) != Tracer.VERSION ||
+			   segment.getShort(6) != Tracer.RECORD_SIZE){
+				throw new IOException("Invalid trace segment " + file);
+			}
+
+			for(int p = Tracer.RECORD_SIZE; p + Tracer.RECORD_SIZE <= segment.capacity(); p += Tracer.RECORD_SIZE){
+
+				byte kind = segment.get(p + Tracer.KIND);
+				//end of the records written
+				if(kind == 0){
+					break;
+				}
+
+				Record r = new Record();
+				r.timestamp = segment.getLong(p + Tracer.TIMESTAMP);
+				r.node = dictionary.get(segment.getInt(p + Tracer.NODE));
+				r.algorithm = dictionary.get(segment.getInt(p + Tracer.ALGORITHM));
+				r.peer = dictionary.get(segment.getInt(p + Tracer.PEER));
+				r.type = dictionary.get(segment.getInt(p + Tracer.TYPE));
+				r.kind = kind;
+				r.count = segment.getShort(p + Tracer.COUNT);
+
+				r.id = IdGenerator.toString(segment.getLong(p + Tracer.ID));
+
+				records.add(r);
+			}
+		}finally{
+			raf.close();
+		}
+	}
+
+
+	/**
+	 * Renders a record in the format of the log
+	 *
+	 * @param r
+	 * @return the log line
+	 */
+	private String render(Record r){
+
+		String level = "DEBUG";
+		String text;
+
+		switch(r.kind){
+		case Tracer.SEND:
+			text = "Sending message " + message(r.node, r.peer, r);
+			break;
+		case Tracer.DISPATCH:
+			level = "TRACE";
+			text = "Dispatching message " + message(r.peer, r.node, r);
+			break;
+		case Tracer.MESSAGE:
+			text = "Processing Message " + message(r.peer, r.node, r);
+			break;
+		case Tracer.EVENT:
+			text = "Processing Event {type=" + r.type + "}{id=" + r.id + "}";
+			break;
+		case Tracer.BATCH:
+			text = "Processing batch of " + r.count + " messages";
+			break;
+		case Tracer.DROP:
+			level = "WARN";
+			text = "Discarting message due to lack of capacity " + message(r.peer, r.node, r);
+			break;
+		default:
+			text = "Unknown record kind " + r.kind;
+		}
+
+		return dateFormat.format(new Date(r.timestamp/1000000L)) + " " + level + " [" + r.node + "] [" +
+		       r.algorithm + "] " + text;
+	}
+
+
+	private String message(String sender,String destination,Record r){
+		return "{sender=" + sender + "}{destination=" + destination + "}{algorithm=" + r.algorithm +
+		       "}{type=" + r.type + "}{id=" + r.id + "}";
+	}
+
+
+	/**
+	 * Writes the trace as log lines
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void decode(PrintStream out) throws IOException{
+		for(Record r: read()){
+			out.println(render(r));
+		}
+	}
+
+
+	public static void main(String[] args){
+
+		if(args.length != 1){
+			System.err.println("Usage: TraceDecoder <trace directory>");
+			System.exit(1);
+		}
+
+		try {
+			new TraceDecoder(new File(args[0])).decode(System.out);
+		} catch (IOException e) {
+			System.err.println("Error decoding trace: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package dat.trace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes the trace records of a process to a sequence of memory-mapped segment files,
+ * trace-&lt;pid&gt;-&lt;n&gt;.seg, and the strings referenced by the records to the dictionary
+ * file trace-&lt;pid&gt;.dict.
+ *
+ * Each segment starts with a header of the size of a record, followed by the records. The unused
+ * space at the end of the last segment is left filled with zeros.
+ *
+ * @author Pablo Chacin
+ *
+ */
+class TraceWriter {
+
+	private static Logger log = Logger.getLogger("dat.trace");
+
+	private File directory;
+
+	private String prefix;
+
+	private int segmentSize;
+
+	private int segmentIndex = 0;
+
+	private RandomAccessFile segmentFile;
+
+	private MappedByteBuffer segment;
+
+	private Writer dictionary;
+
+	private boolean closed = false;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param directory directory of the trace files
+	 * @param segmentSize size of each segment, in bytes. Is rounded down to a multiple of the record size.
+	 * @throws IOException
+	 */
+	TraceWriter(File directory,int segmentSize) throws IOException{
+
+		if(segmentSize < 2*Tracer.RECORD_SIZE){
+			throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+		}
+
+		this.directory = directory;
+		this.segmentSize = segmentSize - (segmentSize % Tracer.RECORD_SIZE);
+		this.prefix = "trace-" + ProcessHandle.current().pid();
+
+		if(!directory.isDirectory() && !directory.mkdirs()){
+			throw new IOException("Can't create trace directory " + directory);
+		}
+
+		this.dictionary = new OutputStreamWriter(new FileOutputStream(new File(directory, prefix + ".dict")),"UTF-8");
+
+		openSegment();
+	}
+
+
+	/**
+	 * Adds a string to the dictionary
+	 *
+	 * @param id
+	 * @param value
+	 */
+	synchronized void define(int id,String value){
+		if(closed){
+			return;
+		}
+
+		try {
+			//line breaks would break the format of the dictionary
+			dictionary.write(id + "\t" + value.replace('\n', ' ').replace('\r', ' ') + "\n");
+			dictionary.flush();
+		} catch (IOException e) {
+			log.error("Exception writing trace dictionary",e);
+		}
+	}
+
+
+	/**
+	 * Copies a range of records to the segments
+	 *
+	 * @param records
+	 * @param from
+	 * @param to
+	 */
+	synchronized void write(ByteBuffer records,int from,int to){
+
+		if(closed){
+			return;
+		}
+
+		try {
+			ByteBuffer source = records.duplicate();
+			while(from < to){
+				if(!segment.hasRemaining()){
+					closeSegment();
+					openSegment();
+				}
+
+				int length = Math.min(to - from, segment.remaining());
+				source.limit(from + length).position(from);
+				segment.put(source);
+				from += length;
+			}
+		} catch (IOException e) {
+			log.error("Exception writing trace segment. Tracing is disabled",e);
+			closed = true;
+		}
+	}
+
+
+	synchronized void close(){
+		if(closed){
+			return;
+		}
+
+		closed = true;
+		try{
+			closeSegment();
+			dictionary.close();
+		}catch(IOException e){
+			log.error("Exception closing trace",e);
+		}
+	}
+
+
+	private void openSegment() throws IOException{
+
+		File file = new File(directory, prefix + "-" + String.format("%04d", segmentIndex) + ".seg");
+		segmentFile = new RandomAccessFile(file, "rw");
+		segmentFile.setLength(segmentSize);
+		segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		segment.order(ByteOrder.LITTLE_ENDIAN);
+
+		segment.putInt(Tracer.MAGIC);
+		segment.putShort(Tracer.VERSION);
+		segment.putShort((short)Tracer.RECORD_SIZE);
+		segment.putInt(segmentIndex);
+		segment.position(Tracer.RECORD_SIZE);
+
+		segmentIndex++;
+	}
+
+
+	private void closeSegment() throws IOException{
+		segment.force();
+		segmentFile.close();
+	}
+}
@@ -0,0 +1,253 @@
+package dat.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import dat.Event;
+import dat.Message;
+import dat.network.NodeAddress;
+
+/**
+ * Records the processing of messages and events as fixed size binary records, instead of
+ * formatting log messages. Records are written to a ring of each thread, kept off-heap, and flushed to
+ * memory-mapped segment files when the ring is full and when the process ends (see {@link TraceWriter}).
+ * Writing a record doesn't allocate any object.
+ *
+ * Strings (node locations, algorithm names and message types) are replaced in the records by an
+ * integer identifier, which is assigned the first time the string is traced and saved in a dictionary.
+ * Message and event ids are kept in the records in their 64 bit form (see {@link dat.utils.IdGenerator}),
+ * so custom ids given as Strings are shown by their hash.
+ *
+ * Tracing is enabled with {@link #open(File, int, int)}. The traces are rendered as log messages
+ * by the {@link TraceDecoder}.
+ *
+ * Layout of a record (little endian):
+ * <pre>
+ *  0 timestamp (long) nanoseconds since the epoch
+ *  8 node (int) location of the node
+ * 12 algorithm (int)
+ * 16 peer (int) location of the sender or destination of the message
+ * 20 type (int) type of the message or event
+ * 24 kind (byte)
+ * 26 count (short) number of messages, for batches
+ * 32 id (long) id of the message or event, 0 for batches
+ * </pre>
+ *
+ * @author Pablo Chacin
+ *
+ */
+public class Tracer {
+
+	public static final byte SEND = 1;
+
+	public static final byte DISPATCH = 2;
+
+	public static final byte MESSAGE = 3;
+
+	public static final byte EVENT = 4;
+
+	public static final byte BATCH = 5;
+
+	public static final byte DROP = 6;
+
+	public static final int RECORD_SIZE = 64;
+
+	public static final int DEFAULT_BUFFER_RECORDS = 1024;
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64*1024*1024;
+
+	static final int MAGIC = 0x54544144; //"DATT"
+
+	static final short VERSION = 2;
+
+	static final int TIMESTAMP = 0;
+
+	static final int NODE = 8;
+
+	static final int ALGORITHM = 12;
+
+	static final int PEER = 16;
+
+	static final int TYPE = 20;
+
+	static final int KIND = 24;
+
+	static final int COUNT = 26;
+
+	static final int ID = 32;
+
+	/**
+	 * Set before the nodes are started, so it can be read without synchronization
+	 */
+	private static boolean enabled = false;
+
+	private static TraceWriter writer;
+
+	private static int bufferRecords;
+
+	private static ThreadLocal<TraceBuffer> buffers = new ThreadLocal<TraceBuffer>();
+
+	private static List<TraceBuffer> allBuffers = new CopyOnWriteArrayList<TraceBuffer>();
+
+	private static ConcurrentMap<String,Integer> dictionary = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Reference to convert System.nanoTime() to time since the epoch
+	 */
+	private static long baseTime = System.currentTimeMillis()*1000000L;
+
+	private static long baseNanoTime = System.nanoTime();
+
+
+	/**
+	 * Enables the tracing. Must be called before any node is started. The trace is flushed
+	 * when the process ends.
+	 *
+	 * @param directory directory of the trace files
+	 * @param segmentSize size of each segment file, in bytes
+	 * @param records number of records in the ring of each thread
+	 * @throws IOException if the trace files can't be created
+	 */
+	public static synchronized void open(File directory,int segmentSize,int records) throws IOException{
+
+		if(enabled){
+			return;
+		}
+
+		if(records < 1){
+			throw new IllegalArgumentException("Invalid number of trace records " + records);
+		}
+
+		writer = new TraceWriter(directory, segmentSize);
+		bufferRecords = records;
+		enabled = true;
+
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+			@Override public void run(){
+				close();
+			}
+		},"dat.trace"));
+	}
+
+
+	/**
+	 * Flushes the rings of all the threads and closes the trace
+	 */
+	public static synchronized void close(){
+		if(!enabled){
+			return;
+		}
+
+		enabled = false;
+		for(TraceBuffer b: allBuffers){
+			b.flush();
+		}
+		writer.close();
+	}
+
+
+	public static boolean isEnabled(){
+		return enabled;
+	}
+
+
+	/**
+	 * Traces a message
+	 *
+	 * @param kind SEND, DISPATCH, MESSAGE or DROP
+	 * @param node location of the node
+	 * @param algorithm
+	 * @param message
+	 * @param peer sender or destination of the message
+	 */
+	public static void traceMessage(byte kind,String node,String algorithm,Message message,NodeAddress peer){
+		if(!enabled){
+			return;
+		}
+
+		getBuffer().write(now(), intern(node), intern(algorithm),
+		                  peer == null ? 0 : intern(peer.getLocation()),
+		                  intern(message.getType()), kind, 1, message.getLongId());
+	}
+
+
+	/**
+	 * Traces the processing of an event
+	 *
+	 * @param node location of the node
+	 * @param algorithm
+	 * @param event
+	 */
+	public static void traceEvent(String node,String algorithm,Event event){
+		if(!enabled){
+			return;
+		}
+
+		getBuffer().write(now(), intern(node), intern(algorithm), 0, intern(event.getType()), EVENT, 1, event.getLongId());
+	}
+
+
+	/**
+	 * Traces the processing of a batch of messages
+	 *
+	 * @param node location of the node
+	 * @param algorithm
+	 * @param count number of messages
+	 */
+	public static void traceBatch(String node,String algorithm,int count){
+		if(!enabled){
+			return;
+		}
+
+		getBuffer().write(now(), intern(node), intern(algorithm), 0, 0, BATCH, count, 0L);
+	}
+
+
+	private static long now(){
+		return baseTime + (System.nanoTime() - baseNanoTime);
+	}
+
+
+	private static TraceBuffer getBuffer(){
+		TraceBuffer buffer = buffers.get();
+		if(buffer == null){
+			buffer = new TraceBuffer(writer, bufferRecords);
+			buffers.set(buffer);
+			allBuffers.add(buffer);
+		}
+		return buffer;
+	}
+
+
+	/**
+	 * Returns the identifier of a string, adding it to the dictionary if needed. 0 is reserved for null.
+	 *
+	 * @param value
+	 * @return the identifier of the string
+	 */
+	private static int intern(String value){
+		if(value == null){
+			return 0;
+		}
+
+		Integer id = dictionary.get(value);
+		if(id != null){
+			return id;
+		}
+
+		synchronized(dictionary){
+			id = dictionary.get(value);
+			if(id == null){
+				id = dictionary.size() + 1;
+				writer.define(id, value);
+				dictionary.put(value, id);
+			}
+		}
+
+		return id;
+	}
+}
@@ -0,0 +1,153 @@
+package dat.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import dat.DatException;
+
+/**
+ * Dispatches the invocation of a handler method of a class (for example, handleMessage) to the
+ * overload that best matches the class of the argument.
+ *
+ * The most specific overload is the one whose parameter is the argument's class or, if none exists,
+ * the nearest superclass of the argument for which a public method exists, up to a given superclass.
+ *
+ * The method is resolved only once for each class of argument and kept as a {@link MethodHandle},
+ * therefore dispatching an argument costs a map lookup plus the direct invocation of the method.
+ *
+ * @author Pablo Chacin
+ *
+ */
+public class DispatchTable {
+
+	/**
+	 * Signature used to invoke all handlers: (target,argument) -> result
+	 */
+	private static final MethodType HANDLER_TYPE = MethodType.methodType(Object.class,Object.class,Object.class);
+
+	/**
+	 * Marks an argument class for which there is no handler
+	 */
+	private static final MethodHandle NO_HANDLER = MethodHandles.constant(Object.class, null);
+
+	/**
+	 * Tables for each class, indexed by method name and superclass
+	 */
+	private static final ClassValue<ConcurrentMap<String,DispatchTable>> tables = new ClassValue<ConcurrentMap<String,DispatchTable>>() {
+		@Override
+		protected ConcurrentMap<String, DispatchTable> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<String, DispatchTable>();
+		}
+	};
+
+
+	/**
+	 * Returns the dispatch table for a method of a class. Tables are shared by all the
+	 * instances of the class.
+	 *
+	 * @param target the class which implements the method
+	 * @param methodName the name of the method
+	 * @param superclass the most generic argument class considered in the search of a method
+	 * @return the DispatchTable
+	 */
+	public static DispatchTable getTable(Class<?> target,String methodName,Class<?> superclass){
+
+		ConcurrentMap<String,DispatchTable> classTables = tables.get(target);
+		String key = methodName + ":" + superclass.getName();
+
+		DispatchTable table = classTables.get(key);
+		if(table == null){
+			table = new DispatchTable(target, methodName, superclass);
+			DispatchTable existing = classTables.putIfAbsent(key, table);
+			if(existing != null){
+				table = existing;
+			}
+		}
+
+		return table;
+	}
+
+
+	private Class<?> target;
+
+	private String methodName;
+
+	private Class<?> superclass;
+
+	/**
+	 * Handler for each argument class
+	 */
+	private ConcurrentMap<Class<?>,MethodHandle> handlers;
+
+
+	private DispatchTable(Class<?> target, String methodName, Class<?> superclass) {
+		this.target = target;
+		this.methodName = methodName;
+		this.superclass = superclass;
+		this.handlers = new ConcurrentHashMap<Class<?>, MethodHandle>();
+	}
+
+
+	/**
+	 * Invokes the method that best matches the class of the argument
+	 *
+	 * @param target object on which the method is invoked
+	 * @param arg the argument
+	 * @return the result of the method, null if it is void
+	 * @throws DatException if there is no suitable method or the method throws an exception
+	 */
+	public Object invoke(Object target,Object arg) throws DatException{
+
+		Class<?> argClass = arg.getClass();
+
+		MethodHandle handler = handlers.get(argClass);
+		if(handler == null){
+			handler = resolve(argClass);
+			handlers.putIfAbsent(argClass, handler);
+		}
+
+		if(handler == NO_HANDLER){
+			throw new DatException("No method " + methodName + " for argument " + argClass.getName() +
+					               " in class " + target.getClass().getName());
+		}
+
+		try {
+			return (Object)handler.invokeExact(target,arg);
+		} catch (Throwable e) {
+			throw new DatException("Exception invoking method " + methodName + " in class " + target.getClass().getName(),e);
+		}
+	}
+
+
+	/**
+	 * Finds the method that matches the class of the argument, searching up its superclasses
+	 *
+	 * @param arg
+	 * @return a MethodHandle adapted to the handler signature or NO_HANDLER if no method matches
+	 */
+	private MethodHandle resolve(Class<?> arg){
+
+		for(Class<?> c = arg; c != null; c = c.getSuperclass()){
+			try {
+				Method method = target.getMethod(methodName, c);
+				method.setAccessible(true);
+				return MethodHandles.lookup().unreflect(method).asType(HANDLER_TYPE);
+			} catch (NoSuchMethodException e) {
+				//try with the superclass
+			} catch (Exception e) {
+				throw new IllegalStateException("Exception accessing method " + methodName +
+						                        " in class " + target.getName(),e);
+			}
+
+			if(c == superclass){
+				break;
+			}
+		}
+
+		return NO_HANDLER;
+	}
+}
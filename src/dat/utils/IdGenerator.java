@@ -0,0 +1,159 @@
+package dat.utils;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates the identifiers of messages and events as 64 bit values, instead of random UUIDs.
+ * The high 32 bits identify the node (its index in the process, plus a number which distinguishes
+ * the nodes of different processes) and the low 32 bits are a sequence of the node. Identifiers are
+ * unique for the first 2^32 identifiers generated by each node.
+ *
+ * The processes started by a {@link dat.core.Launcher} are given a common random base and their index
+ * (see {@link #setProcess(int, int)}), so the identifiers of their nodes never collide as long as each
+ * process has less than 2^16 nodes. Otherwise, the process chooses a random number when it starts,
+ * and the identifiers of different processes are only unique with high probability.
+ *
+ * Each {@link dat.core.NetworkNode} has its generator, which is associated with the threads
+ * running under the node with {@link #setCurrent(IdGenerator)}. Threads which don't run under
+ * a node share a generator for the process.
+ *
+ * Identifiers are shown as Strings of 16 hexadecimal digits. Identifiers given as any other
+ * String are converted to a 64 bit value by hashing them (see {@link #toLong(String)}).
+ *
+ * @author Pablo Chacin
+ *
+ */
+public class IdGenerator {
+
+	/**
+	 * Number added to the index of the nodes, which identifies the process
+	 */
+	private static volatile int salt = new SecureRandom().nextInt();
+
+	private static volatile IdGenerator shared = new IdGenerator(-1);
+
+	private static InheritableThreadLocal<IdGenerator> current = new InheritableThreadLocal<IdGenerator>();
+
+	private static final char[] digits = "0123456789abcdef".toCharArray();
+
+	private final long prefix;
+
+	private final AtomicInteger sequence = new AtomicInteger();
+
+
+	/**
+	 * Creates the generator of a node
+	 *
+	 * @param index index of the node in the process
+	 */
+	public IdGenerator(int index){
+		this.prefix = ((long)(salt + index)) << 32;
+	}
+
+
+	/**
+	 * Sets the number which identifies the nodes of the process, when it is one of the processes
+	 * launched for an experiment. Must be called before any node is created.
+	 *
+	 * @param base random number common to all the processes of the experiment
+	 * @param process index of the process in the experiment
+	 */
+	public static void setProcess(int base,int process){
+		salt = base + (process << 16);
+		shared = new IdGenerator(-1);
+	}
+
+
+	/**
+	 * Returns the next identifier of this generator
+	 *
+	 * @return
+	 */
+	public long next(){
+		return prefix | (sequence.getAndIncrement() & 0xFFFFFFFFL);
+	}
+
+
+	/**
+	 * Sets the generator used by the current thread (and the threads it creates)
+	 *
+	 * @param generator the generator, or null to use the generator shared by the process
+	 */
+	public static void setCurrent(IdGenerator generator){
+		current.set(generator);
+	}
+
+
+	/**
+	 * Returns a new identifier from the generator of the current thread
+	 *
+	 * @return
+	 */
+	public static long newId(){
+		IdGenerator generator = current.get();
+		if(generator == null){
+			generator = shared;
+		}
+		return generator.next();
+	}
+
+
+	/**
+	 * Returns the String form of an identifier
+	 *
+	 * @param id
+	 * @return a String with 16 hexadecimal digits
+	 */
+	public static String toString(long id){
+		char[] chars = new char[16];
+		for(int i = 15; i >= 0; i--){
+			chars[i] = digits[(int)(id & 0xF)];
+			id >>>= 4;
+		}
+		return new String(chars);
+	}
+
+
+	/**
+	 * Indicates if a String is the form of an identifier returned by {@link #toString(long)}
+	 *
+	 * @param id
+	 * @return
+	 */
+	public static boolean isGenerated(String id){
+		if(id.length() != 16){
+			return false;
+		}
+
+		for(int i = 0; i < 16; i++){
+			char c = id.charAt(i);
+			if(!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))){
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Converts a String to an identifier. The String form of generated identifiers is parsed,
+	 * other Strings are hashed (FNV-1a), so the same String returns always the same identifier.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public static long toLong(String id){
+		if(isGenerated(id)){
+			return Long.parseUnsignedLong(id, 16);
+		}
+
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < id.length(); i++){
+			hash ^= id.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,232 @@
+package dat.utils;
+
+import java.util.Arrays;
+
+/**
+ * A map indexed by primitive long keys, which doesn't create an object for each key or entry.
+ * Entries are kept in arrays with open addressing (linear probing), which grow when they are
+ * half full. The key 0 is kept apart, as it marks the empty slots.
+ *
+ * This class is not thread safe.
+ *
+ * @author Pablo Chacin
+ *
+ * @param <V> type of the values
+ */
+public class LongHashMap<V> {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private long[] keys;
+
+	private Object[] values;
+
+	private int size;
+
+	/**
+	 * Number of bits of the index in the arrays
+	 */
+	private int bits;
+
+	private boolean hasZero;
+
+	private V zeroValue;
+
+
+	public LongHashMap(){
+		this(DEFAULT_CAPACITY);
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity expected number of entries
+	 */
+	public LongHashMap(int capacity){
+		int length = DEFAULT_CAPACITY;
+		while(length < capacity*2){
+			length <<= 1;
+		}
+		allocate(length);
+	}
+
+
+	private void allocate(int length){
+		this.keys = new long[length];
+		this.values = new Object[length];
+		this.bits = Integer.numberOfTrailingZeros(length);
+	}
+
+
+	private int slot(long key){
+		return (int)((key * 0x9E3779B97F4A7C15L) >>> (64 - bits));
+	}
+
+
+	/**
+	 * Returns the index of the key, or of the empty slot where it should be added
+	 */
+	private int find(long key){
+		int mask = keys.length - 1;
+		int i = slot(key);
+		while(keys[i] != 0 && keys[i] != key){
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+
+	@SuppressWarnings("unchecked")
+	public V get(long key){
+		if(key == 0){
+			return zeroValue;
+		}
+
+		return (V)values[find(key)];
+	}
+
+
+	public boolean containsKey(long key){
+		if(key == 0){
+			return hasZero;
+		}
+
+		return keys[find(key)] != 0;
+	}
+
+
+	/**
+	 * Adds an entry
+	 *
+	 * @param key
+	 * @param value
+	 * @return the previous value of the key, if any
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key,V value){
+		if(key == 0){
+			V previous = zeroValue;
+			if(!hasZero){
+				hasZero = true;
+				size++;
+			}
+			zeroValue = value;
+			return previous;
+		}
+
+		int i = find(key);
+		V previous = (V)values[i];
+		values[i] = value;
+		if(keys[i] == 0){
+			keys[i] = key;
+			if(++size*2 > keys.length){
+				rehash();
+			}
+		}
+		return previous;
+	}
+
+
+	/**
+	 * Removes an entry
+	 *
+	 * @param key
+	 * @return the value of the key, if any
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key){
+		if(key == 0){
+			V previous = zeroValue;
+			if(hasZero){
+				hasZero = false;
+				zeroValue = null;
+				size--;
+			}
+			return previous;
+		}
+
+		int i = find(key);
+		if(keys[i] == 0){
+			return null;
+		}
+
+		V previous = (V)values[i];
+		size--;
+
+		//move back the following entries of the chain, so no slot is left empty in it
+		int mask = keys.length - 1;
+		int j = i;
+		while(true){
+			j = (j + 1) & mask;
+			if(keys[j] == 0){
+				break;
+			}
+			int s = slot(keys[j]);
+			//move if its slot is not in (i,j], considering the chain could wrap around
+			if((j > i && (s <= i || s > j)) || (j < i && (s <= i && s > j))){
+				keys[i] = keys[j];
+				values[i] = values[j];
+				i = j;
+			}
+		}
+		keys[i] = 0;
+		values[i] = null;
+
+		return previous;
+	}
+
+
+	private void rehash(){
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+
+		allocate(keys.length*2);
+		for(int i = 0; i < oldKeys.length; i++){
+			if(oldKeys[i] != 0){
+				int j = find(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+
+	public int size(){
+		return size;
+	}
+
+
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+
+	public void clear(){
+		Arrays.fill(keys, 0);
+		Arrays.fill(values, null);
+		hasZero = false;
+		zeroValue = null;
+		size = 0;
+	}
+
+
+	/**
+	 * Returns a copy of the keys
+	 *
+	 * @return
+	 */
+	public long[] keys(){
+		long[] copy = new long[size];
+		int n = 0;
+		if(hasZero){
+			copy[n++] = 0;
+		}
+		for(int i = 0; i < keys.length; i++){
+			if(keys[i] != 0){
+				copy[n++] = keys[i];
+			}
+		}
+		return copy;
+	}
+}
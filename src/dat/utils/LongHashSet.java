@@ -0,0 +1,83 @@
+package dat.utils;
+
+/**
+ * A set of primitive long values, backed by a {@link LongHashMap}.
+ *
+ * This class is not thread safe.
+ *
+ * @author Pablo Chacin
+ *
+ */
+public class LongHashSet {
+
+	private static final Object PRESENT = new Object();
+
+	private LongHashMap<Object> map;
+
+
+	public LongHashSet(){
+		this.map = new LongHashMap<Object>();
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity expected number of values
+	 */
+	public LongHashSet(int capacity){
+		this.map = new LongHashMap<Object>(capacity);
+	}
+
+
+	/**
+	 * Adds a value
+	 *
+	 * @param value
+	 * @return true if the value was not in the set
+	 */
+	public boolean add(long value){
+		return map.put(value, PRESENT) == null;
+	}
+
+
+	public boolean contains(long value){
+		return map.containsKey(value);
+	}
+
+
+	/**
+	 * Removes a value
+	 *
+	 * @param value
+	 * @return true if the value was in the set
+	 */
+	public boolean remove(long value){
+		return map.remove(value) != null;
+	}
+
+
+	public int size(){
+		return map.size();
+	}
+
+
+	public boolean isEmpty(){
+		return map.isEmpty();
+	}
+
+
+	public void clear(){
+		map.clear();
+	}
+
+
+	/**
+	 * Returns a copy of the values
+	 *
+	 * @return
+	 */
+	public long[] values(){
+		return map.keys();
+	}
+}
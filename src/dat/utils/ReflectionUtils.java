@@ -1,7 +1,5 @@
 package dat.utils;
 
-import java.lang.reflect.Method;
-
 import dat.DatException;
 
 public class ReflectionUtils {
@@ -12,42 +10,20 @@ public class ReflectionUtils {
 	}
 
 	
-	public static Object invoke(String methodName, Object target, Object arg,Class superclass) throws DatException{
-		
-		try{
-			Method method = getMethod(methodName, target.getClass(), arg.getClass(), superclass);
-			return method.invoke(target, arg);
-		}
-		catch (Exception e) {
-			throw new DatException("Exception invoking method " + methodName + " in class " + target.getClass().getName(),e);
-		} 
-		
-		
-	}
-	
 	/**
-	 * Finds a method that matches the name and signature of arguments
+	 * Invokes the method with the given name that best matches the argument's class. 
+	 * The method is resolved using the {@link DispatchTable} of the target's class.
 	 * 
 	 * @param methodName
 	 * @param target
-	 * @param param
-	 * @return
-	 * @throws NoSuchMethodException
+	 * @param arg
+	 * @param superclass most generic class of argument considered
+	 * @return the result of the invocation
+	 * @throws DatException
 	 */
-	private static Method getMethod(String methodName, Class target, Class arg,Class superclass) throws NoSuchMethodException {
-		try {
-						
-			return target.getMethod(methodName, new Class[]{ arg}); 
-		}
-		catch (SecurityException e) {
-			e.printStackTrace();
-		}
-		catch (NoSuchMethodException e) {
-			if(arg != superclass){
-				return getMethod(methodName, target, arg.getSuperclass(),superclass);
-			}
-			else throw e;
-		}
-		return null;
+	public static Object invoke(String methodName, Object target, Object arg,Class superclass) throws DatException{
+		
+		return DispatchTable.getTable(target.getClass(), methodName, superclass).invoke(target, arg);
+		
 	}
 }
@@ -0,0 +1,27 @@
+package dat.utils;
+
+
+/**
+ * Provides the time and the execution of delayed tasks to a node. Allows the node to run 
+ * either in real time (see {@link TimingWheel}) or in a simulated time.
+ * 
+ * @author Pablo Chacin
+ *
+ */
+public interface Scheduler {
+
+	/**
+	 * 
+	 * @return the current time, in milliseconds
+	 */
+	public long getTime();
+	
+	/**
+	 * Schedules the execution of a task after a delay. Can be called from any thread.
+	 * 
+	 * @param task
+	 * @param delay delay in milliseconds
+	 * @return a Timeout which allows the cancellation of the task
+	 */
+	public Timeout schedule(Runnable task,long delay);
+}
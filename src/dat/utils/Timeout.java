@@ -0,0 +1,30 @@
+package dat.utils;
+
+
+/**
+ * A handle of a task scheduled for its execution after a delay.
+ *
+ * @author Pablo Chacin
+ *
+ */
+public interface Timeout {
+
+	/**
+	 * Cancels the execution of the task. Can be called from any thread.
+	 *
+	 * @return true if the task was cancelled, false if it had already been executed or cancelled
+	 */
+	public boolean cancel();
+
+	/**
+	 *
+	 * @return true if the task was cancelled
+	 */
+	public boolean isCancelled();
+
+	/**
+	 *
+	 * @return true if the task has been executed (or is being executed)
+	 */
+	public boolean isExpired();
+}
@@ -0,0 +1,386 @@
+package dat.utils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Executes tasks after a delay, using a hashed timing wheel.
+ *
+ * The wheel is an array of buckets, each one covering a tick of time. A task is placed in the bucket
+ * of the tick on which it expires, counting how many turns of the wheel remain until then. Both
+ * scheduling and cancelling a task cost O(1), independently of the number of tasks scheduled,
+ * and cancelled tasks are removed from the wheel (instead of waiting for its expiration).
+ *
+ * The buckets are accessed only by the wheel's thread. Other threads pass new and cancelled
+ * tasks through lock-free queues, which are processed at each tick.
+ *
+ * Tasks are executed in the wheel's thread and therefore must be short (for example, signaling another
+ * thread). The thread is a daemon, started when the first task is scheduled, which sleeps while there
+ * are no tasks pending.
+ *
+ * A single wheel is shared by all the nodes in the JVM (see {@link #getDefault()}).
+ *
+ * @author Pablo Chacin
+ *
+ */
+public class TimingWheel implements Scheduler {
+
+	private static final int INIT = 0;
+
+	private static final int CANCELLED = 1;
+
+	private static final int EXPIRED = 2;
+
+	/**
+	 * A task in the wheel. Is kept in a double linked list of the bucket of its expiration tick.
+	 *
+	 */
+	private class WheelTimeout implements Timeout {
+
+		private Runnable task;
+
+		/**
+		 * Expiration time, in nanoseconds relative to the start of the wheel
+		 */
+		private long deadline;
+
+		private long remainingRounds;
+
+		private AtomicInteger state = new AtomicInteger(INIT);
+
+		private Bucket bucket;
+
+		private WheelTimeout next;
+
+		private WheelTimeout prev;
+
+		public WheelTimeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public boolean cancel() {
+			if(!state.compareAndSet(INIT, CANCELLED)){
+				return false;
+			}
+
+			cancelled.add(this);
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		@Override
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+
+		private void expire(){
+			if(!state.compareAndSet(INIT, EXPIRED)){
+				return;
+			}
+
+			try{
+				task.run();
+			}catch(Throwable e){
+				log.error("Exception executing timer task",e);
+			}
+		}
+	}
+
+	/**
+	 * List of tasks expiring on the same tick (in some turn of the wheel)
+	 *
+	 */
+	private static class Bucket {
+
+		private WheelTimeout head;
+
+		private WheelTimeout tail;
+
+		void add(WheelTimeout timeout){
+			timeout.bucket = this;
+			if(head == null){
+				head = tail = timeout;
+			}
+			else{
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		void remove(WheelTimeout timeout){
+			if(timeout.prev != null){
+				timeout.prev.next = timeout.next;
+			}
+			else{
+				head = timeout.next;
+			}
+
+			if(timeout.next != null){
+				timeout.next.prev = timeout.prev;
+			}
+			else{
+				tail = timeout.prev;
+			}
+
+			timeout.next = null;
+			timeout.prev = null;
+			timeout.bucket = null;
+		}
+	}
+
+
+	public static final long DEFAULT_TICK = 1;
+
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private static TimingWheel defaultWheel = null;
+
+	/**
+	 * Returns the wheel shared by all the nodes of the JVM, creating it if needed.
+	 *
+	 * @return the default TimingWheel
+	 */
+	public static TimingWheel getDefault(){
+		synchronized (TimingWheel.class) {
+			if(defaultWheel == null){
+				defaultWheel = new TimingWheel("dat.timer",DEFAULT_TICK,DEFAULT_WHEEL_SIZE);
+			}
+		}
+
+		return defaultWheel;
+	}
+
+
+	private static Logger log = Logger.getLogger("dat.utils.timer");
+
+	private Bucket[] wheel;
+
+	private int mask;
+
+	/**
+	 * Duration of a tick, in nanoseconds
+	 */
+	private long tickDuration;
+
+	/**
+	 * Reference for deadlines, in nanoseconds
+	 */
+	private long startTime;
+
+	/**
+	 * Next tick to be processed
+	 */
+	private long tick;
+
+	/**
+	 * Number of tasks in the buckets. Only accessed by the wheel's thread.
+	 */
+	private int count;
+
+	private Queue<WheelTimeout> pending = new ConcurrentLinkedQueue<WheelTimeout>();
+
+	private Queue<WheelTimeout> cancelled = new ConcurrentLinkedQueue<WheelTimeout>();
+
+	private String name;
+
+	private volatile Thread thread;
+
+	/**
+	 * Indicates the wheel's thread is (or is about to be) sleeping without a deadline
+	 */
+	private volatile boolean idle;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param name name of the wheel's thread
+	 * @param tick duration of a tick, in milliseconds. Is the resolution of the wheel.
+	 * @param size number of buckets. Is rounded up to the next power of two.
+	 */
+	public TimingWheel(String name,long tick, int size) {
+
+		if(tick <= 0){
+			throw new IllegalArgumentException("Tick must be greater than 0");
+		}
+
+		if(size < 1 || size > (1 << 30)){
+			throw new IllegalArgumentException("Invalid wheel size " + size);
+		}
+
+		int buckets = Integer.highestOneBit(size);
+		if(buckets < size){
+			buckets = buckets << 1;
+		}
+
+		this.name = name;
+		this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tick);
+		this.wheel = new Bucket[buckets];
+		this.mask = buckets -1;
+		for(int i = 0; i < buckets; i++){
+			wheel[i] = new Bucket();
+		}
+
+		this.startTime = System.nanoTime();
+	}
+
+
+	/**
+	 * Returns the real time
+	 */
+	@Override
+	public long getTime(){
+		return System.currentTimeMillis();
+	}
+
+
+	@Override
+	public Timeout schedule(Runnable task,long delay){
+
+		if(delay < 0){
+			throw new IllegalArgumentException("Delay must be non negative");
+		}
+
+		long deadline = System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(delay);
+		WheelTimeout timeout = new WheelTimeout(task,deadline);
+		pending.add(timeout);
+
+		if(thread == null){
+			startThread();
+		}
+		else if(idle){
+			idle = false;
+			LockSupport.unpark(thread);
+		}
+
+		return timeout;
+	}
+
+
+	private synchronized void startThread(){
+		if(thread != null){
+			return;
+		}
+
+		Thread t = new Thread(new Runnable(){
+			@Override public void run(){
+				runWheel();
+			}
+		}, name);
+		t.setDaemon(true);
+		t.start();
+
+		thread = t;
+	}
+
+
+	/**
+	 * Main loop of the wheel's thread
+	 */
+	private void runWheel(){
+
+		while(true){
+
+			processCancelled();
+			transferPending();
+
+			if(count == 0){
+				idle = true;
+				if(pending.isEmpty()){
+					LockSupport.park(this);
+				}
+				idle = false;
+
+				//there were no tasks in the wheel, so buckets can be skipped up to the current time
+				tick = Math.max(tick, (System.nanoTime() - startTime)/tickDuration);
+				continue;
+			}
+
+			long tickDeadline = (tick+1) * tickDuration;
+			long sleep = tickDeadline - (System.nanoTime() - startTime);
+			if(sleep > 0){
+				LockSupport.parkNanos(this, sleep);
+				continue;
+			}
+
+			processCancelled();
+			transferPending();
+			expireBucket(wheel[(int)(tick & mask)]);
+			tick++;
+		}
+	}
+
+
+	/**
+	 * Places the new tasks in their buckets
+	 */
+	private void transferPending(){
+
+		WheelTimeout timeout;
+		while((timeout = pending.poll()) != null){
+
+			if(timeout.isCancelled()){
+				continue;
+			}
+
+			long expiration = Math.max(timeout.deadline / tickDuration, tick);
+			timeout.remainingRounds = (expiration - tick) / wheel.length;
+			wheel[(int)(expiration & mask)].add(timeout);
+			count++;
+		}
+	}
+
+
+	/**
+	 * Removes the cancelled tasks from their buckets
+	 */
+	private void processCancelled(){
+
+		WheelTimeout timeout;
+		while((timeout = cancelled.poll()) != null){
+
+			//a null bucket means the timeout was cancelled before being transferred to the wheel
+			if(timeout.bucket != null){
+				timeout.bucket.remove(timeout);
+				count--;
+			}
+		}
+	}
+
+
+	/**
+	 * Executes the tasks of the bucket expiring in the current turn
+	 *
+	 * @param bucket
+	 */
+	private void expireBucket(Bucket bucket){
+
+		WheelTimeout timeout = bucket.head;
+		while(timeout != null){
+			WheelTimeout next = timeout.next;
+
+			if(timeout.remainingRounds <= 0){
+				bucket.remove(timeout);
+				count--;
+				timeout.expire();
+			}
+			else{
+				timeout.remainingRounds--;
+			}
+
+			timeout = next;
+		}
+	}
+}
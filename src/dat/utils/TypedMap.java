@@ -1,222 +1,745 @@
-package dat.utils;
-
-
-
-import java.util.HashMap;
-import java.util.Map;
-
-/**
- * A set of typed <key,value> pairs, that can be set/get by 
- *   
- * @author Pablo Chacin
- *
- */
-public class TypedMap extends HashMap<String,Object> {
-
-	/**
-	 * Constructor based on an existing Map.
-	 * 
-	 */
-	public TypedMap(Map map){
-		super(map);
-	}
-	
-	
-
-	
-	/**
-	 * Constructor passing key/value pairs in a string of the form "key1=value;key2=values; ..."
-	 * The delimiter between pairs is by default ";", but can be set to other values.
-	 * 
-	 * @param keyvaluepairs
-	 */
-	public TypedMap(String keyvaluepairs){
-		this(CollectionUtils.mapFromString(keyvaluepairs,";"));
-	}
-	
-	
-
-	
-	/**
-	 * Default constructor.. 
-	 *
-	 */
-	public TypedMap() {
-     super();
-	}
-
-	/** 
-	 * Returns the value of a long parameter from this Map..
-	 * 
-	 * @param key identification of the argument.
-	 * @return a long with the value of the element under the given key.
-	 * @throws NumberFormatException if the argument's value does not conform to the 
-	 *         requested format or sucthe key is not associates with any element.
-	 */
-	public long getLong(String key){
-		String value = (String)get(key);
-			return Long.valueOf(value).longValue();
-	}
-	
-	/** 
-	 * Returns the value of a boolean parameter from this Map..
-	 * 
-	 * @param key identification of the argument.
-	 * @return a boolean with the value of the element under the given key or false if such 
-	 *         key is not associates with any element.
-	 */
-	public boolean getBoolean(String key){
-		String value = (String)get(key);
-			return Boolean.valueOf(value).booleanValue();
-	}
-
-	
-	/** 
-	 * Returns the value of a Double parameter from this Map.
-	 * 
-	 * @param key identification of the argument.
-	 * @return a double with the value of the element under the given key
-	 * @throws NumberFormatException if the argument's value does not conform to the 
-	 *         requested format or the key is not associates with any element.
-	 */
-	public double getDouble(String key){
-		String value = (String)get(key);
-		return Double.valueOf(value).doubleValue();
-	}	
-	
-	
-	/** 
-	 * Returns the value of an Object parameter from this Map.
-	 * 
-	 * @param key identification of the argument.
-	 * @return an Object with the value of the element under the given key or such key is 
-	 *         not associates with any element.
-	 */
-	public Object getObject(String key){
-		return get(key);
-	}	
-	
-	
-	/** 
-	 * Returns the value of a Long parameter from this Map .
-	 * 
-	 * @param key identification of the .
-	 * @return a String with the value of the element under the given key or such key is 
-	 *         not associates with any element..
-	 */
-	public String getString(String key){
-		return (String)get(key);
-	}	
-	
-	/** 
-	 * Returns the value of a Integer parameter from this Map.
-	 * 
-	 * @param key identification of the argument.
-	 * @return a Integer with the value of the element under the given key
-	 * @throws NumberFormatException if the argument's value does not conform to the 
-	 *         requested format or the key is not associates with any element.
-	 */
-	public Integer getInteger(String key){
-		String value = (String)get(key);
-		return Integer.valueOf(value);
-	}
-	/**
-	 * Sets a long value in the Map under a given key of type String
-	 * 
-	 * @param key identification of the value.
-	 * @param value long with the value to be set.	 
-	 */
-	public void putLong(String key,long value){
-		
-		this.put(key,String.valueOf(value));
-	}
-	
-	/**
-	 * Sets a long value in the Map under a given key of type String
-	 * 
-	 * @param key identification of the value.
-	 * @param value long with the value to be set.	 
-	 */
-	public void putInteger(String key,int value){
-		
-		this.put(key,String.valueOf(value));
-	}
-	
-	/**
-	 * Sets a long value in the Map under a given key of type String
-	 * 
-	 * @param key identification of the value
-	 * @param value double with the value to be set.
-	 */
-	public void putDouble(String key,double value){
-		this.put(key,String.valueOf(value));
-	}
-	
-	
-	/**
-	 * Sets a long value in the Map under a given key of type String
-	 * 
-	 * @param key identification of the value
-	 * @param value boolean with the value to be set.
-	 */
-	public void putBoolean(String key,boolean value){
-		this.put(key,String.valueOf(value));
-	}
-	
-	/**
-	 * Sets a long value in the Map under a given key of type String
-	 * 
-	 * @param key identification of the value
-	 * @param value String with the value to be set.
-	 */
-	public void putString(String key,String value){
-		this.put(key,value);
-	}
-	
-	/**
-	 * Sets an Object value in the Map under a given key of type String
-	 * 
-	 * @param key identification of the value
-	 * @param value String with the value to be set.
-	 */
-	public void putObject(String key,Object value){
-		this.put(key,value);
-	}
-	
-	public void putDoubleArray(String key,Double ...doubles){
-		put(key,doubles);
-	}
-	
-	public void putIntegerArray(String key,Integer...integers){
-		put(key,integers);
-	}
-
-	public void putStringArray(String key,String ...strings){
-		put(key,strings);
-	}
-
-	public void putLongArray(String key,Long...longs){
-		put(key,longs);
-	}
-
-	public Double[] getDoubleArray(String key){
-		return (Double[])get(key);
-	}
-	
-	
-	public String[] getStringArray(String key){
-		return (String[])get(key);
-	}
-	
-	public Long[] getLongArray(String key){
-		return (Long[])get(key);
-	}
-	
-	public void putByteArray(String name,byte[] value){
-		put(name,value);
-	}
-	
-	public byte[] getByteArray(String name){
-		return (byte[])get(name);
-	}
-}
+package dat.utils;
+
+
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A set of typed <key,value> pairs, that can be set/get by
+ *
+ * Long, integer, double and boolean values are kept as primitives, without creating objects, and
+ * are returned as their wrapper class by the methods of the {@link Map} interface. Values set as Strings
+ * (for example, by the {@link #TypedMap(String)} constructor) can be read as any type, by parsing them.
+ *
+ * Up to {@link #INLINE_SIZE} entries are kept in small arrays, allocated when the first entry is
+ * added, and searched sequentially. Larger maps keep their entries in a {@link HashMap}.
+ *
+ * The map is serialized as the number of entries followed by each key, the type of the value and the value:
+ * primitives are written in binary and only other objects are serialized.
+ *
+ * Keys can't be null: adding an entry with a null key throws a {@link NullPointerException}, regardless
+ * of how the entries are kept.
+ *
+ * @author Pablo Chacin
+ *
+ */
+public class TypedMap extends AbstractMap<String,Object> implements Cloneable, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Maximum number of entries kept in arrays
+	 */
+	public static final int INLINE_SIZE = 8;
+
+	static final byte OBJECT = 0;
+
+	static final byte LONG = 1;
+
+	static final byte INTEGER = 2;
+
+	static final byte DOUBLE = 3;
+
+	static final byte BOOLEAN = 4;
+
+	private transient int size;
+
+	private transient String[] keys;
+
+	private transient byte[] types;
+
+	/**
+	 * Values of the primitive entries (doubles as their bits)
+	 */
+	private transient long[] primitives;
+
+	private transient Object[] objects;
+
+	/**
+	 * Entries, once there are more than INLINE_SIZE
+	 */
+	private transient HashMap<String,Object> map;
+
+
+	/**
+	 * Constructor based on an existing Map.
+	 *
+	 */
+	public TypedMap(Map<String,?> map){
+		if(map instanceof TypedMap){
+			copy((TypedMap)map);
+		}
+		else{
+			for(Map.Entry<String,?> e: map.entrySet()){
+				set(e.getKey(), e.getValue());
+			}
+		}
+	}
+
+
+
+
+	/**
+	 * Constructor passing key/value pairs in a string of the form "key1=value;key2=values; ..."
+	 * The delimiter between pairs is by default ";", but can be set to other values.
+	 *
+	 * @param keyvaluepairs
+	 */
+	public TypedMap(String keyvaluepairs){
+		this(CollectionUtils.mapFromString(keyvaluepairs,";"));
+	}
+
+
+
+
+	/**
+	 * Default constructor..
+	 *
+	 */
+	public TypedMap() {
+     super();
+	}
+
+
+	private void copy(TypedMap other){
+		if(other.map != null){
+			map = new HashMap<String,Object>(other.map);
+		}
+		else if(other.size > 0){
+			size = other.size;
+			keys = other.keys.clone();
+			types = other.types.clone();
+			primitives = other.primitives.clone();
+			objects = other.objects.clone();
+		}
+	}
+
+
+	private int indexOf(Object key){
+		for(int i = 0; i < size; i++){
+			if(keys[i].equals(key)){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Returns the index of the entry of a key in the arrays, adding it if needed.
+	 *
+	 * @param key
+	 * @return the index of the entry, or -1 if the entries are kept in the map
+	 */
+	private int slot(String key){
+		if(key == null){
+			throw new NullPointerException("Null keys are not supported");
+		}
+
+		if(map != null){
+			return -1;
+		}
+
+		int i = indexOf(key);
+		if(i >= 0){
+			return i;
+		}
+
+		if(size == INLINE_SIZE){
+			map = new HashMap<String,Object>();
+			for(int j = 0; j < size; j++){
+				map.put(keys[j], value(j));
+			}
+			keys = null;
+			types = null;
+			primitives = null;
+			objects = null;
+			size = 0;
+			return -1;
+		}
+
+		if(keys == null || size == keys.length){
+			grow();
+		}
+
+		keys[size] = key;
+		return size++;
+	}
+
+
+	private void grow(){
+		int length = keys == null ? 2 : Math.min(keys.length*2, INLINE_SIZE);
+
+		String[] k = new String[length];
+		byte[] t = new byte[length];
+		long[] p = new long[length];
+		Object[] o = new Object[length];
+		if(keys != null){
+			System.arraycopy(keys, 0, k, 0, size);
+			System.arraycopy(types, 0, t, 0, size);
+			System.arraycopy(primitives, 0, p, 0, size);
+			System.arraycopy(objects, 0, o, 0, size);
+		}
+		keys = k;
+		types = t;
+		primitives = p;
+		objects = o;
+	}
+
+
+	/**
+	 * Returns the value of an entry of the arrays, as an object
+	 */
+	private Object value(int i){
+		return box(types[i], primitives[i], objects[i]);
+	}
+
+
+	private static Object box(byte type,long primitive,Object object){
+		switch(type){
+		case LONG:
+			return Long.valueOf(primitive);
+		case INTEGER:
+			return Integer.valueOf((int)primitive);
+		case DOUBLE:
+			return Double.valueOf(Double.longBitsToDouble(primitive));
+		case BOOLEAN:
+			return Boolean.valueOf(primitive != 0);
+		default:
+			return object;
+		}
+	}
+
+
+	private static byte typeOf(Object value){
+		if(value instanceof Long){
+			return LONG;
+		}
+		if(value instanceof Integer){
+			return INTEGER;
+		}
+		if(value instanceof Double){
+			return DOUBLE;
+		}
+		if(value instanceof Boolean){
+			return BOOLEAN;
+		}
+		return OBJECT;
+	}
+
+
+	private static long primitiveOf(byte type,Object value){
+		switch(type){
+		case LONG:
+		case INTEGER:
+			return ((Number)value).longValue();
+		case DOUBLE:
+			return Double.doubleToRawLongBits((Double)value);
+		case BOOLEAN:
+			return ((Boolean)value) ? 1 : 0;
+		default:
+			return 0;
+		}
+	}
+
+
+	/**
+	 * Sets a primitive value
+	 */
+	private void store(String key,byte type,long primitive){
+		int i = slot(key);
+		if(i < 0){
+			map.put(key, box(type, primitive, null));
+			return;
+		}
+
+		types[i] = type;
+		primitives[i] = primitive;
+		objects[i] = null;
+	}
+
+
+	/**
+	 * Returns the index of the entry of a key in the arrays if it has one of the given types
+	 *
+	 * @return the index, or -1 if there is no such entry
+	 */
+	private int primitive(String key,byte type1,byte type2){
+		if(map != null){
+			return -1;
+		}
+
+		int i = indexOf(key);
+		if(i >= 0 && (types[i] == type1 || types[i] == type2)){
+			return i;
+		}
+		return -1;
+	}
+
+
+	@Override
+	public Object put(String key,Object value){
+		return set(key, value);
+	}
+
+
+	/**
+	 * Sets the value of a key
+	 *
+	 * @return the previous value of the key
+	 */
+	private Object set(String key,Object value){
+		if(key == null){
+			throw new NullPointerException("Null keys are not supported");
+		}
+
+		if(map != null){
+			return map.put(key, value);
+		}
+
+		int j = indexOf(key);
+		Object previous = j < 0 ? null : value(j);
+
+		int i = slot(key);
+		if(i < 0){
+			map.put(key, value);
+		}
+		else{
+			setAt(i, value);
+		}
+
+		return previous;
+	}
+
+
+	private void setAt(int i,Object value){
+		byte type = typeOf(value);
+		types[i] = type;
+		primitives[i] = primitiveOf(type, value);
+		objects[i] = type == OBJECT ? value : null;
+	}
+
+
+	@Override
+	public Object get(Object key){
+		if(map != null){
+			return map.get(key);
+		}
+
+		int i = indexOf(key);
+		return i < 0 ? null : value(i);
+	}
+
+
+	@Override
+	public boolean containsKey(Object key){
+		if(map != null){
+			return map.containsKey(key);
+		}
+
+		return indexOf(key) >= 0;
+	}
+
+
+	@Override
+	public Object remove(Object key){
+		if(map != null){
+			return map.remove(key);
+		}
+
+		int i = indexOf(key);
+		if(i < 0){
+			return null;
+		}
+
+		Object previous = value(i);
+		removeAt(i);
+		return previous;
+	}
+
+
+	private void removeAt(int i){
+		int moved = size - i - 1;
+		if(moved > 0){
+			System.arraycopy(keys, i+1, keys, i, moved);
+			System.arraycopy(types, i+1, types, i, moved);
+			System.arraycopy(primitives, i+1, primitives, i, moved);
+			System.arraycopy(objects, i+1, objects, i, moved);
+		}
+		size--;
+		keys[size] = null;
+		objects[size] = null;
+	}
+
+
+	@Override
+	public int size(){
+		return map != null ? map.size() : size;
+	}
+
+
+	@Override
+	public void clear(){
+		map = null;
+		for(int i = 0; i < size; i++){
+			keys[i] = null;
+			objects[i] = null;
+		}
+		size = 0;
+	}
+
+
+	@Override
+	public Set<Map.Entry<String,Object>> entrySet(){
+		return new AbstractSet<Map.Entry<String,Object>>(){
+
+			@Override
+			public Iterator<Map.Entry<String,Object>> iterator(){
+				if(map != null){
+					return map.entrySet().iterator();
+				}
+
+				return new Iterator<Map.Entry<String,Object>>(){
+
+					int next = 0;
+
+					boolean removable = false;
+
+					@Override
+					public boolean hasNext(){
+						return next < size;
+					}
+
+					@Override
+					public Map.Entry<String,Object> next(){
+						if(next >= size){
+							throw new NoSuchElementException();
+						}
+						removable = true;
+						final int i = next++;
+						return new AbstractMap.SimpleEntry<String,Object>(keys[i], value(i)){
+
+							private static final long serialVersionUID = 1L;
+
+							@Override
+							public Object setValue(Object value){
+								super.setValue(value);
+								Object previous = value(i);
+								setAt(i, value);
+								return previous;
+							}
+						};
+					}
+
+					@Override
+					public void remove(){
+						if(!removable){
+							throw new IllegalStateException();
+						}
+						removable = false;
+						removeAt(--next);
+					}
+				};
+			}
+
+			@Override
+			public int size(){
+				return TypedMap.this.size();
+			}
+		};
+	}
+
+
+	/**
+	 * Returns a copy of this map. The values are not copied.
+	 */
+	@Override
+	public TypedMap clone(){
+		try {
+			TypedMap clone = (TypedMap)super.clone();
+			clone.size = 0;
+			clone.keys = null;
+			clone.types = null;
+			clone.primitives = null;
+			clone.objects = null;
+			clone.map = null;
+			clone.copy(this);
+			return clone;
+		} catch (CloneNotSupportedException e) {
+			throw new InternalError(e);
+		}
+	}
+
+
+	/**
+	 * Returns the value of a long parameter from this Map..
+	 *
+	 * @param key identification of the argument.
+	 * @return a long with the value of the element under the given key.
+	 * @throws NumberFormatException if the argument's value does not conform to the
+	 *         requested format or sucthe key is not associates with any element.
+	 */
+	public long getLong(String key){
+		int i = primitive(key, LONG, INTEGER);
+		if(i >= 0){
+			return primitives[i];
+		}
+		return Long.parseLong(String.valueOf(get(key)));
+	}
+
+	/**
+	 * Returns the value of a boolean parameter from this Map..
+	 *
+	 * @param key identification of the argument.
+	 * @return a boolean with the value of the element under the given key or false if such
+	 *         key is not associates with any element.
+	 */
+	public boolean getBoolean(String key){
+		int i = primitive(key, BOOLEAN, BOOLEAN);
+		if(i >= 0){
+			return primitives[i] != 0;
+		}
+		return Boolean.parseBoolean(String.valueOf(get(key)));
+	}
+
+
+	/**
+	 * Returns the value of a Double parameter from this Map.
+	 *
+	 * @param key identification of the argument.
+	 * @return a double with the value of the element under the given key
+	 * @throws NumberFormatException if the argument's value does not conform to the
+	 *         requested format or the key is not associates with any element.
+	 */
+	public double getDouble(String key){
+		int i = primitive(key, DOUBLE, DOUBLE);
+		if(i >= 0){
+			return Double.longBitsToDouble(primitives[i]);
+		}
+		return Double.parseDouble(String.valueOf(get(key)));
+	}
+
+
+	/**
+	 * Returns the value of an Object parameter from this Map.
+	 *
+	 * @param key identification of the argument.
+	 * @return an Object with the value of the element under the given key or such key is
+	 *         not associates with any element.
+	 */
+	public Object getObject(String key){
+		return get(key);
+	}
+
+
+	/**
+	 * Returns the value of a String parameter from this Map. Long, integer, double and
+	 * boolean values are returned as Strings.
+	 *
+	 * @param key identification of the .
+	 * @return a String with the value of the element under the given key or such key is
+	 *         not associates with any element..
+	 */
+	public String getString(String key){
+		Object value = get(key);
+		if(value instanceof Number || value instanceof Boolean){
+			return value.toString();
+		}
+		return (String)value;
+	}
+
+	/**
+	 * Returns the value of a Integer parameter from this Map.
+	 *
+	 * @param key identification of the argument.
+	 * @return a Integer with the value of the element under the given key
+	 * @throws NumberFormatException if the argument's value does not conform to the
+	 *         requested format or the key is not associates with any element.
+	 */
+	public Integer getInteger(String key){
+		int i = primitive(key, INTEGER, INTEGER);
+		if(i >= 0){
+			return Integer.valueOf((int)primitives[i]);
+		}
+		return Integer.valueOf(String.valueOf(get(key)));
+	}
+	/**
+	 * Sets a long value in the Map under a given key of type String
+	 *
+	 * @param key identification of the value.
+	 * @param value long with the value to be set.
+	 */
+	public void putLong(String key,long value){
+
+		store(key,LONG,value);
+	}
+
+	/**
+	 * Sets a long value in the Map under a given key of type String
+	 *
+	 * @param key identification of the value.
+	 * @param value long with the value to be set.
+	 */
+	public void putInteger(String key,int value){
+
+		store(key,INTEGER,value);
+	}
+
+	/**
+	 * Sets a long value in the Map under a given key of type String
+	 *
+	 * @param key identification of the value
+	 * @param value double with the value to be set.
+	 */
+	public void putDouble(String key,double value){
+		store(key,DOUBLE,Double.doubleToRawLongBits(value));
+	}
+
+
+	/**
+	 * Sets a long value in the Map under a given key of type String
+	 *
+	 * @param key identification of the value
+	 * @param value boolean with the value to be set.
+	 */
+	public void putBoolean(String key,boolean value){
+		store(key,BOOLEAN,value ? 1 : 0);
+	}
+
+	/**
+	 * Sets a long value in the Map under a given key of type String
+	 *
+	 * @param key identification of the value
+	 * @param value String with the value to be set.
+	 */
+	public void putString(String key,String value){
+		this.put(key,value);
+	}
+
+	/**
+	 * Sets an Object value in the Map under a given key of type String
+	 *
+	 * @param key identification of the value
+	 * @param value String with the value to be set.
+	 */
+	public void putObject(String key,Object value){
+		this.put(key,value);
+	}
+
+	public void putDoubleArray(String key,Double ...doubles){
+		put(key,doubles);
+	}
+
+	public void putIntegerArray(String key,Integer...integers){
+		put(key,integers);
+	}
+
+	public void putStringArray(String key,String ...strings){
+		put(key,strings);
+	}
+
+	public void putLongArray(String key,Long...longs){
+		put(key,longs);
+	}
+
+	public Double[] getDoubleArray(String key){
+		return (Double[])get(key);
+	}
+
+
+	public String[] getStringArray(String key){
+		return (String[])get(key);
+	}
+
+	public Long[] getLongArray(String key){
+		return (Long[])get(key);
+	}
+
+	public void putByteArray(String name,byte[] value){
+		put(name,value);
+	}
+
+	public byte[] getByteArray(String name){
+		return (byte[])get(name);
+	}
+
+
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		out.defaultWriteObject();
+
+		out.writeInt(size());
+		if(map != null){
+			for(Map.Entry<String,Object> e: map.entrySet()){
+				byte type = typeOf(e.getValue());
+				writeEntry(out, e.getKey(), type, primitiveOf(type, e.getValue()), e.getValue());
+			}
+		}
+		else{
+			for(int i = 0; i < size; i++){
+				writeEntry(out, keys[i], types[i], primitives[i], objects[i]);
+			}
+		}
+	}
+
+
+	private static void writeEntry(ObjectOutputStream out,String key,byte type,long primitive,Object object) throws IOException{
+		out.writeUTF(key);
+		out.writeByte(type);
+		switch(type){
+		case LONG:
+			out.writeLong(primitive);
+			break;
+		case INTEGER:
+			out.writeInt((int)primitive);
+			break;
+		case DOUBLE:
+			out.writeLong(primitive);
+			break;
+		case BOOLEAN:
+			out.writeBoolean(primitive != 0);
+			break;
+		default:
+			out.writeObject(object);
+		}
+	}
+
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		in.defaultReadObject();
+
+		int count = in.readInt();
+		for(int i = 0; i < count; i++){
+			String key = in.readUTF();
+			byte type = in.readByte();
+			switch(type){
+			case LONG:
+				store(key, LONG, in.readLong());
+				break;
+			case INTEGER:
+				store(key, INTEGER, in.readInt());
+				break;
+			case DOUBLE:
+				store(key, DOUBLE, in.readLong());
+				break;
+			case BOOLEAN:
+				store(key, BOOLEAN, in.readBoolean() ? 1 : 0);
+				break;
+			case OBJECT:
+				put(key, in.readObject());
+				break;
+			default:
+				throw new IOException("Invalid type of value " + type);
+			}
+		}
+	}
+}
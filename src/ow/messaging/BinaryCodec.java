@@ -0,0 +1,471 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Encodes messages in a compact binary format, without class descriptors.
+ *
+ * Each value is written as its type, followed by its content. Strings, numbers, booleans,
+ * byte arrays and {@link InetMessagingAddress}es are built in. Other classes are encoded by
+ * the {@link Serializer} registered for them with {@link #register(int, Class, boolean, Serializer)}.
+ * Values of any other class are written with Java serialization.
+ *
+ * Integers and lengths are written as variable length integers (7 bits per byte). Short
+ * strings read are interned, so the names repeated in every message (such as message types)
+ * are not created again.
+ */
+public final class BinaryCodec implements MessageCodec {
+	public final static int ID = 1;
+	public final static String NAME = "binary";
+
+	// built-in types. Registered types start at FIRST_REGISTERED_TYPE
+	private final static int NULL = 0;
+	private final static int STRING = 1;
+	private final static int INTEGER = 2;
+	private final static int LONG = 3;
+	private final static int BOOLEAN = 4;
+	private final static int DOUBLE = 5;
+	private final static int BYTES = 6;
+	private final static int INET_ADDRESS = 7;
+	private final static int SERIALIZED = 8;
+
+	public final static int FIRST_REGISTERED_TYPE = 16;
+
+	// maximum length of the strings interned
+	private final static int INTERNED_LENGTH = 32;
+
+	private final static BinaryCodec instance = new BinaryCodec();
+
+	/**
+	 * Writes and reads the values of a class.
+	 */
+	public interface Serializer<T> {
+		void write(Output out, T value) throws IOException;
+
+		T read(Input in) throws IOException, ClassNotFoundException;
+	}
+
+	private final static class Registration {
+		final int id;
+		final Class<?> type;
+		final boolean subclasses;
+		final Serializer<Object> serializer;
+
+		Registration(int id, Class<?> type, boolean subclasses, Serializer<Object> serializer) {
+			this.id = id;
+			this.type = type;
+			this.subclasses = subclasses;
+			this.serializer = serializer;
+		}
+	}
+
+	// marks the classes without a serializer
+	private final static Registration NONE = new Registration(-1, null, false, null);
+
+	private final static ConcurrentMap<Class<?>,Registration> byClass = new ConcurrentHashMap<Class<?>,Registration>();
+	private final static ConcurrentMap<Integer,Registration> byId = new ConcurrentHashMap<Integer,Registration>();
+
+	// strings interned, indexed by their hash
+	private final static String[] interned = new String[1024];
+
+	// addresses decoded, indexed by their IPv4 address and port
+	private final static ConcurrentMap<Long,InetMessagingAddress> addresses = new ConcurrentHashMap<Long,InetMessagingAddress>();
+
+	static {
+		register(INET_ADDRESS, InetMessagingAddress.class, false, new Serializer<InetMessagingAddress>() {
+			public void write(Output out, InetMessagingAddress value) throws IOException {
+				byte[] address = value.getInetAddress().getAddress();
+				out.writeByte(address.length);
+				out.write(address);
+				out.writeVarInt(value.getPort());
+			}
+
+			public InetMessagingAddress read(Input in) throws IOException {
+				byte[] address = new byte[in.readUnsignedByte()];
+				in.readFully(address);
+				int port = in.readVarInt();
+
+				if (address.length != 4) {
+					return new InetMessagingAddress(InetAddress.getByAddress(address), port);
+				}
+
+				int ip = ((address[0] & 0xff) << 24) | ((address[1] & 0xff) << 16) | ((address[2] & 0xff) << 8) | (address[3] & 0xff);
+				Long key = ((ip & 0xffffffffL) << 16) | port;
+
+				// reuse the address, unless it has been changed
+				InetMessagingAddress addr = addresses.get(key);
+				if (addr == null || addr.getPort() != port || addr.getInetAddress().hashCode() != ip) {
+					addr = new InetMessagingAddress(InetAddress.getByAddress(address), port);
+					addresses.put(key, addr);
+				}
+				return addr;
+			}
+		});
+	}
+
+	public static BinaryCodec getInstance() { return instance; }
+
+	private BinaryCodec() {}
+
+	public int getId() { return ID; }
+
+	public String getName() { return NAME; }
+
+	/**
+	 * Registers the serializer of a class. The same identifier must be registered for the class
+	 * in all the processes which exchange messages.
+	 *
+	 * @param id identifier of the class in the messages, from {@link #FIRST_REGISTERED_TYPE}.
+	 * @param type the class.
+	 * @param subclasses if the serializer also encodes the subclasses of the class.
+	 * @param serializer
+	 */
+	public static synchronized <T> void register(int id, Class<T> type, boolean subclasses, Serializer<? super T> serializer) {
+		if (id < 0 || (id < FIRST_REGISTERED_TYPE && type != InetMessagingAddress.class)) {
+			throw new IllegalArgumentException("Invalid type id " + id + " for " + type.getName());
+		}
+
+		Registration previous = byId.get(id);
+		if (previous != null && previous.type != type) {
+			throw new IllegalArgumentException("Type id " + id + " already registered for " + previous.type.getName());
+		}
+
+		// only used with values of the type
+		@SuppressWarnings("unchecked")
+		Serializer<Object> objectSerializer = (Serializer<Object>)serializer;
+
+		Registration r = new Registration(id, type, subclasses, objectSerializer);
+		byId.put(id, r);
+		byClass.put(type, r);
+
+		// forget the classes looked up without success, and those of other registrations
+		Iterator<Map.Entry<Class<?>,Registration>> i = byClass.entrySet().iterator();
+		while (i.hasNext()) {
+			Map.Entry<Class<?>,Registration> e = i.next();
+			if (e.getValue() == NONE || e.getValue().type != e.getKey()) {
+				i.remove();
+			}
+		}
+	}
+
+	private static Registration lookup(Class<?> type) {
+		Registration r = byClass.get(type);
+		if (r != null) {
+			return r;
+		}
+
+		r = NONE;
+		for (Class<?> c = type.getSuperclass(); c != null; c = c.getSuperclass()) {
+			Registration s = byClass.get(c);
+			if (s != null && s != NONE && s.type == c && s.subclasses) {
+				r = s;
+				break;
+			}
+		}
+
+		byClass.putIfAbsent(type, r);
+		return r;
+	}
+
+	public void encode(MessagingAddress src, Serializable[] contents, OutputStream out) throws IOException {
+		Output o = new Output(out);
+		o.writeObject(src);
+		for (Serializable c: contents) {
+			o.writeObject(c);
+		}
+		o.flush();
+	}
+
+	public MessagingAddress decode(InputStream in, Serializable[] contents) throws IOException, ClassNotFoundException {
+		Input i = new Input(in);
+		MessagingAddress src = (MessagingAddress)i.readObject();
+		for (int k = 0; k < contents.length; k++) {
+			contents[k] = (Serializable)i.readObject();
+		}
+
+		return src;
+	}
+
+	/**
+	 * Stream to encode values.
+	 */
+	public static final class Output extends DataOutputStream implements ObjectOutput {
+
+		public Output(OutputStream out) {
+			super(out);
+		}
+
+		/**
+		 * Writes a non negative int in 1 to 5 bytes.
+		 */
+		public void writeVarInt(int value) throws IOException {
+			while ((value & ~0x7f) != 0) {
+				this.write((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			this.write(value);
+		}
+
+		/**
+		 * Writes a non negative long in 1 to 10 bytes.
+		 */
+		public void writeVarLong(long value) throws IOException {
+			while ((value & ~0x7fL) != 0) {
+				this.write(((int)value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			this.write((int)value);
+		}
+
+		/**
+		 * Writes a String (which can be null) as its length in UTF-8 plus 1, and its UTF-8 bytes.
+		 */
+		public void writeString(String s) throws IOException {
+			if (s == null) {
+				this.writeVarInt(0);
+				return;
+			}
+
+			int length = s.length();
+			boolean ascii = true;
+			for (int i = 0; i < length; i++) {
+				if (s.charAt(i) >= 0x80) {
+					ascii = false;
+					break;
+				}
+			}
+
+			if (ascii) {
+				this.writeVarInt(length + 1);
+				this.writeBytes(s);
+			}
+			else {
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				this.writeVarInt(bytes.length + 1);
+				this.write(bytes);
+			}
+		}
+
+		/**
+		 * Writes a value with Java serialization.
+		 */
+		public void writeSerialized(Object value) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bytes);
+			oos.writeObject(value);
+			oos.close();
+
+			this.writeVarInt(bytes.size());
+			bytes.writeTo(this);
+		}
+
+		/**
+		 * Writes a value of any type.
+		 */
+		@SuppressWarnings("unchecked")
+		public void writeObject(Object value) throws IOException {
+			if (value == null) {
+				this.writeVarInt(NULL);
+			}
+			else if (value instanceof String) {
+				this.writeVarInt(STRING);
+				this.writeString((String)value);
+			}
+			else if (value instanceof Integer) {
+				this.writeVarInt(INTEGER);
+				int v = (Integer)value;
+				this.writeVarInt((v << 1) ^ (v >> 31));
+			}
+			else if (value instanceof Long) {
+				this.writeVarInt(LONG);
+				long v = (Long)value;
+				this.writeVarLong((v << 1) ^ (v >> 63));
+			}
+			else if (value instanceof Boolean) {
+				this.writeVarInt(BOOLEAN);
+				this.writeBoolean((Boolean)value);
+			}
+			else if (value instanceof Double) {
+				this.writeVarInt(DOUBLE);
+				this.writeDouble((Double)value);
+			}
+			else if (value instanceof byte[]) {
+				this.writeVarInt(BYTES);
+				byte[] b = (byte[])value;
+				this.writeVarInt(b.length);
+				this.write(b);
+			}
+			else {
+				Registration r = lookup(value.getClass());
+				if (r != NONE) {
+					this.writeVarInt(r.id);
+					r.serializer.write(this, value);
+				}
+				else {
+					this.writeVarInt(SERIALIZED);
+					this.writeSerialized(value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stream to decode values.
+	 */
+	public static final class Input extends DataInputStream implements ObjectInput {
+
+		private byte[] buffer = new byte[64];
+
+		public Input(InputStream in) {
+			super(in);
+		}
+
+		public int readVarInt() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 35; shift += 7) {
+				int b = this.readUnsignedByte();
+				value |= (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("Malformed variable length integer.");
+		}
+
+		public long readVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 70; shift += 7) {
+				int b = this.readUnsignedByte();
+				value |= (long)(b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("Malformed variable length integer.");
+		}
+
+		public String readString() throws IOException {
+			int length = this.readVarInt() - 1;
+			if (length < 0) {
+				return null;
+			}
+
+			if (length > buffer.length) {
+				buffer = new byte[length];
+			}
+			this.readFully(buffer, 0, length);
+
+			if (length > INTERNED_LENGTH) {
+				return new String(buffer, 0, length, StandardCharsets.UTF_8);
+			}
+
+			int hash = length;
+			boolean ascii = true;
+			for (int i = 0; i < length; i++) {
+				hash = 31 * hash + buffer[i];
+				ascii &= buffer[i] >= 0;
+			}
+			if (!ascii) {
+				return new String(buffer, 0, length, StandardCharsets.UTF_8);
+			}
+
+			int slot = (hash ^ (hash >>> 16)) & (interned.length - 1);
+			String s = interned[slot];
+			if (s != null && s.length() == length) {
+				int i = 0;
+				while (i < length && s.charAt(i) == buffer[i]) {
+					i++;
+				}
+				if (i == length) {
+					return s;
+				}
+			}
+
+			s = new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+			interned[slot] = s;
+			return s;
+		}
+
+		public Object readSerialized() throws IOException, ClassNotFoundException {
+			byte[] bytes = new byte[this.readVarInt()];
+			this.readFully(bytes);
+
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+			try {
+				return ois.readObject();
+			}
+			finally {
+				ois.close();
+			}
+		}
+
+		public Object readObject() throws IOException, ClassNotFoundException {
+			int type = this.readVarInt();
+			switch (type) {
+			case NULL:
+				return null;
+			case STRING:
+				return this.readString();
+			case INTEGER: {
+				int v = this.readVarInt();
+				return (v >>> 1) ^ -(v & 1);
+			}
+			case LONG: {
+				long v = this.readVarLong();
+				return (v >>> 1) ^ -(v & 1);
+			}
+			case BOOLEAN:
+				return this.readBoolean();
+			case DOUBLE:
+				return this.readDouble();
+			case BYTES: {
+				byte[] b = new byte[this.readVarInt()];
+				this.readFully(b);
+				return b;
+			}
+			case SERIALIZED:
+				return this.readSerialized();
+			default:
+				Registration r = byId.get(type);
+				if (r == null) {
+					throw new IOException("Unknown type " + type + " in message.");
+				}
+				return r.serializer.read(this);
+			}
+		}
+	}
+}
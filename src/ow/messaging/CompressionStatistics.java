@@ -0,0 +1,83 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of the messages compressed and decompressed in the process by a {@link MessageCompression}.
+ */
+public final class CompressionStatistics implements CompressionStatisticsMXBean {
+	private final String name;
+
+	private final LongAdder compressed = new LongAdder();
+	private final LongAdder incompressible = new LongAdder();
+	private final LongAdder decompressed = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LongAdder compressTime = new LongAdder();
+	private final LongAdder decompressTime = new LongAdder();
+
+	CompressionStatistics(String name) {
+		this.name = name;
+	}
+
+	void compressed(int in, int out, long time) {
+		this.compressed.increment();
+		this.bytesIn.add(in);
+		this.bytesOut.add(out);
+		this.compressTime.add(time);
+	}
+
+	void incompressible(int in, long time) {
+		this.incompressible.increment();
+		this.compressTime.add(time);
+	}
+
+	void decompressed(long time) {
+		this.decompressed.increment();
+		this.decompressTime.add(time);
+	}
+
+	public String getName() { return this.name; }
+
+	public long getCompressed() { return this.compressed.sum(); }
+
+	public long getIncompressible() { return this.incompressible.sum(); }
+
+	public long getDecompressed() { return this.decompressed.sum(); }
+
+	public long getBytesIn() { return this.bytesIn.sum(); }
+
+	public long getBytesOut() { return this.bytesOut.sum(); }
+
+	public double getRatio() {
+		long in = this.bytesIn.sum();
+		return in == 0 ? 1.0 : (double)this.bytesOut.sum() / in;
+	}
+
+	public long getCompressTime() { return this.compressTime.sum(); }
+
+	public long getDecompressTime() { return this.decompressTime.sum(); }
+
+	public String toString() {
+		return this.name + " {compressed:" + this.getCompressed() + ",incompressible:" + this.getIncompressible()
+				+ ",ratio:" + this.getRatio() + ",compressTime:" + this.getCompressTime()
+				+ ",decompressTime:" + this.getDecompressTime() + "}";
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging;
+
+/**
+ * Management interface of the {@link CompressionStatistics} of a compression.
+ */
+public interface CompressionStatisticsMXBean {
+	String getName();
+
+	/**
+	 * Returns the number of messages compressed.
+	 */
+	long getCompressed();
+
+	/**
+	 * Returns the number of messages which were not compressed because the compressed form
+	 * was not smaller. Messages below the size threshold are not counted.
+	 */
+	long getIncompressible();
+
+	/**
+	 * Returns the size of the messages compressed, before compression.
+	 */
+	long getBytesIn();
+
+	/**
+	 * Returns the size of the messages compressed, after compression.
+	 */
+	long getBytesOut();
+
+	/**
+	 * Returns the compressed size divided by the original size of the messages compressed.
+	 */
+	double getRatio();
+
+	/**
+	 * Returns the time spent compressing messages (including the incompressible ones), in nanoseconds.
+	 */
+	long getCompressTime();
+
+	/**
+	 * Returns the time spent decompressing messages, in nanoseconds.
+	 */
+	long getDecompressTime();
+
+	long getDecompressed();
+}
@@ -18,30 +18,52 @@
 package ow.messaging;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+
+import ow.messaging.util.BufferPool;
+import ow.messaging.util.ByteBufferInputStream;
+import ow.messaging.util.ByteBufferOutputStream;
 
 
 public class Message implements Serializable, Cloneable {
 
-	public final static boolean GZIP_MESSAGE = true;
+	/**
+	 * Size of the header, besides the signature: tag, length, number of contents and format.
+	 * The format has the id of the codec in its lower 4 bits, the id of the compression in the
+	 * following 3 bits and the COMPRESSED flag.
+	 */
+	private final static int HEADER_SIZE = 7;
+
+	private final static int COMPRESSED = 0x80;
+
+	/**
+	 * Size of the buffers first taken from the pool to encode and decode messages.
+	 */
+	private final static int INITIAL_BUFFER_SIZE = 1024;
+
+	private final static MessageCodec[] codecs = new MessageCodec[16];
+
+	static {
+		registerCodec(new SerializationCodec());
+		registerCodec(BinaryCodec.getInstance());
+	}
+
+	private final static MessageCodec defaultCodec = BinaryCodec.getInstance();
+
+	private final static MessagingConfiguration defaultConfiguration = new MessagingConfiguration();
 
 	private byte[] signature;
 	private final int tag;
 	private MessagingAddress src;
 	private final Serializable[] contents;	// up to 255 objects due to protocol limitation
+	private transient int encodedSize;	// size in the wire, once encoded or decoded
 
 	/**
 	 * Create an instance of Message class with a given contents.
@@ -108,6 +130,14 @@ public class Message implements Serializable, Cloneable {
 		this.contents[i] = c;
 	}
 
+	/**
+	 * Returns the size of this message in the wire,
+	 * or 0 if it has not been encoded or decoded.
+	 */
+	public int getEncodedSize() {
+		return this.encodedSize;
+	}
+
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 
@@ -123,23 +153,76 @@ public class Message implements Serializable, Cloneable {
 	}
 
 	/**
-	 * Write this Message into a byte stream.
-	 * This is an utility method implementing the wire protocol.
+	 * Registers a codec, so messages encoded with it can be decoded.
 	 */
-	public static ByteBuffer encode(ByteChannel out, Message msg) throws IOException {
+	public static synchronized void registerCodec(MessageCodec codec) {
+		int id = codec.getId();
+		if (id < 0 || id >= codecs.length) {
+			throw new IllegalArgumentException("Invalid codec id " + id);
+		}
+		codecs[id] = codec;
+	}
 
-		ByteBuffer buf = encode(msg);
+	/**
+	 * Returns the codec registered with the given name, or null if there is none.
+	 */
+	public static synchronized MessageCodec getCodec(String name) {
+		for (MessageCodec c: codecs) {
+			if (c != null && c.getName().equalsIgnoreCase(name)) {
+				return c;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the codec used when no other is specified.
+	 */
+	public static MessageCodec getDefaultCodec() {
+		return defaultCodec;
+	}
 
-		synchronized (out) {
-			do {
-				out.write(buf);
-			} while (buf.hasRemaining());
+	private static MessageCompression getCompression(int format) throws IOException {
+		MessageCompression compression = MessageCompression.getCompression((format >>> 4) & 0x07);
+		if (compression == null) {
+			throw new IOException("Unknown message compression " + ((format >>> 4) & 0x07));
 		}
+		return compression;
+	}
 
+	private static MessageCodec getCodec(int format) throws IOException {
+		MessageCodec codec = codecs[format & 0x0f];
+		if (codec == null) {
+			throw new IOException("Unknown message codec " + (format & 0x0f));
+		}
+		return codec;
+	}
 
-		buf.rewind();
+	/**
+	 * Write this Message into a byte stream.
+	 * This is an utility method implementing the wire protocol.
+	 */
+	public static void encode(ByteChannel out, Message msg) throws IOException {
+		encode(out, msg, defaultConfiguration);
+	}
 
-		return buf;
+	/**
+	 * Write this Message into a byte stream with the codec and compression of the given configuration.
+	 */
+	public static void encode(ByteChannel out, Message msg, MessagingConfiguration config) throws IOException {
+
+		ByteBuffer buf = encode(msg, config);
+
+		try {
+			synchronized (out) {
+				do {
+					out.write(buf);
+				} while (buf.hasRemaining());
+			}
+		}
+		finally {
+			BufferPool.release(buf);
+		}
 	}
 
 	/**
@@ -147,41 +230,84 @@ public class Message implements Serializable, Cloneable {
 	 * @throws IOException 
 	 */
 	public static ByteBuffer encode(Message msg) throws IOException {
-		// serializes src and contents
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		OutputStream os = bos;
-
-		if (GZIP_MESSAGE) {
-			os = new GZIPOutputStream(os);
-		}
+		return encode(msg, defaultConfiguration);
+	}
 
-		ObjectOutputStream oos = new ObjectOutputStream(os);
-		oos.writeObject(msg.src);
-		for (Serializable c: msg.contents) {
-			oos.writeObject(c);
-		}
-		oos.flush();
-		oos.close();
+	/**
+	 * Convert this Message to a ByteBuffer with the codec and compression of the given configuration.
+	 * The message is compressed if its size reaches the compression threshold and the compressed
+	 * form is smaller.
+	 * The buffer is taken from the {@link BufferPool}, and can be released to it once written.
+	 * @throws IOException 
+	 */
+	public static ByteBuffer encode(Message msg, MessagingConfiguration config) throws IOException {
+		MessageEncodeEvent event = new MessageEncodeEvent();
+		event.begin();
 
-		byte[] srcAndContents = bos.toByteArray();
 		int signatureLen = Signature.getSignatureLength();
+		int headerLen = signatureLen + HEADER_SIZE;
+
+		// encodes src and contents after the room for the header
+		MessageCodec codec = config.getCodec();
+		ByteBuffer buf = BufferPool.acquire(INITIAL_BUFFER_SIZE);
+		buf.position(headerLen);
+
+		ByteBufferOutputStream bos = new ByteBufferOutputStream(buf);
+		try {
+			codec.encode(msg.src, msg.contents, bos);
+		}
+		catch (IOException e) {
+			BufferPool.release(bos.getBuffer());
+			throw e;
+		}
+		buf = bos.getBuffer();
+
+		int uncompressedSize = buf.position() - headerLen;
+		int len = uncompressedSize;
+		int format = codec.getId();
+
+		MessageCompression compression = config.getCompression();
+		if (compression != MessageCompression.NONE && uncompressedSize >= config.getCompressionThreshold()) {
+			byte[] srcAndContents = new byte[uncompressedSize];
+			buf.position(headerLen);
+			buf.get(srcAndContents);
+
+			byte[] compressed = compression.compress(srcAndContents, uncompressedSize);
+			if (compressed != null) {
+				buf.position(headerLen);
+				buf.put(compressed);
+				len = compressed.length;
+				format |= COMPRESSED | (compression.getId() << 4);
+			}
+		}
 
-		// pack all elements
-		ByteBuffer buf = ByteBuffer.allocate(
-				signatureLen + 6 + srcAndContents.length);
+		// header
+		buf.limit(headerLen + len);
+		buf.position(0);
 		if (msg.signature != null) {
 			buf.put(msg.signature, 0, signatureLen);
 		}
 		else {
-			buf.put(new byte[signatureLen]);
+			for (int i = 0; i < signatureLen; i++) buf.put((byte)0);
 		}
 		buf.put((byte)msg.tag);
-		buf.putInt(srcAndContents.length);
+		buf.putInt(len);
 		buf.put((byte)msg.contents.length);
-		buf.put(srcAndContents);
+		buf.put((byte)format);
 
 		buf.rewind();
 
+		msg.encodedSize = buf.limit();
+
+		if (event.shouldCommit()) {
+			event.tag = msg.tag;
+			event.contentType = getContentType(msg.contents);
+			event.size = msg.encodedSize;
+			event.uncompressedSize = uncompressedSize;
+			event.compressed = (format & COMPRESSED) != 0;
+			event.commit();
+		}
+
 		return buf;
 	}
 
@@ -201,40 +327,49 @@ public class Message implements Serializable, Cloneable {
 		// read header
 		int signatureLen = Signature.getSignatureLength();
 
-		int toBeRead = signatureLen + 6;
-		ByteBuffer buf = ByteBuffer.allocate(toBeRead);
-		readIntoBuffer(in, buf, timeout);
+		ByteBuffer buf = BufferPool.acquire(INITIAL_BUFFER_SIZE);
+		try {
+			buf.limit(signatureLen + HEADER_SIZE);
+			readIntoBuffer(in, buf, timeout);
 
-		byte[] signature = new byte[signatureLen];
-		buf.get(signature, 0, signatureLen);
+			byte[] signature = new byte[signatureLen];
+			buf.get(signature, 0, signatureLen);
 
-		int tag = buf.get() & 0xff;
-		int len = buf.getInt();
-		int argCount = buf.get() & 0xff;
+			int tag = buf.get() & 0xff;
+			int len = buf.getInt();
+			int argCount = buf.get() & 0xff;
+			int format = buf.get() & 0xff;
 
-		// read source and content
-		buf = ByteBuffer.allocate(len);
-		readIntoBuffer(in, buf, -1L);
+			MessageDecodeEvent event = new MessageDecodeEvent();
+			event.begin();
 
-		byte[] srcAndContent = new byte[len];
-		buf.get(srcAndContent);
+			// read source and content, into the same buffer if it fits
+			if (len > buf.capacity()) {
+				BufferPool.release(buf);
+				buf = BufferPool.acquire(len);
+			}
+			buf.clear();
+			buf.limit(len);
+			readIntoBuffer(in, buf, -1L);
 
-		InputStream is = new ByteArrayInputStream(srcAndContent);
-		if (GZIP_MESSAGE) {
-			is = new GZIPInputStream(is);
-		}
-		ObjectInputStream ois = new ObjectInputStream(is);
+			Serializable[] contents = new Serializable[argCount];
+			MessagingAddress src = decodeContents(format, buf, contents);
 
-		MessagingAddress src = null;
-		Serializable[] contents = new Serializable[argCount];
-		src = (MessagingAddress)ois.readObject();
-		for (int i = 0; i < argCount; i++) {
-			contents[i] = (Serializable)ois.readObject();
-		}
+			Message msg = new Message(signature, src, tag, contents);
+			msg.encodedSize = signatureLen + HEADER_SIZE + len;
 
-		ois.close();
+			if (event.shouldCommit()) {
+				event.tag = tag;
+				event.contentType = getContentType(contents);
+				event.size = msg.encodedSize;
+				event.commit();
+			}
 
-		return new Message(signature, src, tag, contents);
+			return msg;
+		}
+		finally {
+			BufferPool.release(buf);
+		}
 	}
 
 	private static void readIntoBuffer(SocketChannel in, ByteBuffer buf, long timeout)
@@ -258,7 +393,7 @@ public class Message implements Serializable, Cloneable {
 		}
 
 		// read
-		int len = buf.capacity();
+		int len = buf.remaining();
 
 		do {
 			int r = in.read(buf);
@@ -271,11 +406,34 @@ public class Message implements Serializable, Cloneable {
 		buf.rewind();
 	}
 
+	/**
+	 * Decodes the source and contents from the remaining bytes of the buffer,
+	 * decompressing them if the format says so.
+	 */
+	private static MessagingAddress decodeContents(int format, ByteBuffer buf, Serializable[] contents)
+	throws IOException, ClassNotFoundException {
+		InputStream in;
+		if ((format & COMPRESSED) != 0) {
+			byte[] compressed = new byte[buf.remaining()];
+			buf.get(compressed);
+			in = new ByteArrayInputStream(getCompression(format).decompress(compressed, 0, compressed.length));
+		}
+		else {
+			in = new ByteBufferInputStream(buf);
+		}
+
+		return getCodec(format).decode(in, contents);
+	}
+
 	/**
 	 * Convert a ByteBuffer to a Message.
+	 * The position of the buffer is not changed.
 	 * @throws ClassNotFoundException 
 	 */
 	public static Message decode(ByteBuffer buf) throws IOException, ClassNotFoundException {
+		MessageDecodeEvent event = new MessageDecodeEvent();
+		event.begin();
+
 		buf.mark();
 
 		int signatureLen = Signature.getSignatureLength();
@@ -285,30 +443,35 @@ public class Message implements Serializable, Cloneable {
 		int tag = buf.get() & 0xff;
 		int len = buf.getInt();
 		int argCount = buf.get() & 0xff;
+		int format = buf.get() & 0xff;
 
-		byte[] srcAndContent = new byte[len];
-		buf.get(srcAndContent);
+		ByteBuffer srcAndContents = buf.slice();
+		srcAndContents.limit(len);
 
 		buf.reset();
 
-		MessagingAddress src = null;
 		Serializable[] contents = new Serializable[argCount];
+		MessagingAddress src = decodeContents(format, srcAndContents, contents);
 
-		InputStream is = new ByteArrayInputStream(srcAndContent);
+		Message msg = new Message(signature, src, tag, contents);
+		msg.encodedSize = signatureLen + HEADER_SIZE + len;
 
-		if (GZIP_MESSAGE) {
-			is = new GZIPInputStream(is);
+		if (event.shouldCommit()) {
+			event.tag = tag;
+			event.contentType = getContentType(contents);
+			event.size = msg.encodedSize;
+			event.commit();
 		}
-		ObjectInputStream ois = new ObjectInputStream(is);
 
-		src = (MessagingAddress)ois.readObject();
-		for (int i = 0; i < argCount; i++) {
-			contents[i] = (Serializable)ois.readObject();
-		}
+		return msg;
+	}
 
-		ois.close();
+	private static String getContentType(Serializable[] contents) {
+		if (contents.length == 0 || contents[0] == null) {
+			return null;
+		}
 
-		return new Message(signature, src, tag, contents);
+		return contents[0].getClass().getName();
 	}
 
 	/**
@@ -316,11 +479,6 @@ public class Message implements Serializable, Cloneable {
 	 * @throws ClassNotFoundException 
 	 */
 	public static Message decodeFromByteArray(byte[] data) throws IOException, ClassNotFoundException {
-		ByteBuffer buf = ByteBuffer.allocate(data.length);
-		buf.put(data);
-
-		buf.rewind();
-
-		return decode(buf);
+		return decode(ByteBuffer.wrap(data));
 	}
 }
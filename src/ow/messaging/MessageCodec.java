@@ -0,0 +1,53 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * Encodes the source address and the contents of a {@link Message} in the wire format.
+ * The codec of each message is identified in its header, so a receiver decodes the messages
+ * encoded with any of the codecs registered in {@link Message}.
+ */
+public interface MessageCodec {
+	/**
+	 * Returns the identifier of the codec in the header of the messages, from 0 to 15.
+	 */
+	int getId();
+
+	/**
+	 * Returns the name of the codec.
+	 */
+	String getName();
+
+	/**
+	 * Writes the source address and the contents of a message.
+	 */
+	void encode(MessagingAddress src, Serializable[] contents, OutputStream out) throws IOException;
+
+	/**
+	 * Reads the source address and the contents of a message.
+	 *
+	 * @param contents array filled with the contents read.
+	 * @return the source address.
+	 */
+	MessagingAddress decode(InputStream in, Serializable[] contents) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of the encoded contents of messages. Messages are compressed only if their size
+ * reaches a threshold (see {@link MessagingConfiguration#getCompressionThreshold()}) and the
+ * compressed form is smaller, which is indicated in the header of each message.
+ *
+ * The compressed form starts with the original size (4 bytes), followed by the compressed data.
+ * As the size is given by the peer, messages larger than {@link #MAX_SIZE} once decompressed are rejected.
+ *
+ * Available compressions:
+ * <ul>
+ * <li>none: messages are not compressed.
+ * <li>lz: a fast LZ77 compression, with matches of at least 4 bytes within the previous 64 KB.
+ * <li>deflate: deflate (zlib format), with a Deflater and an Inflater reused by each thread.
+ * </ul>
+ */
+public abstract class MessageCompression {
+	public final static MessageCompression NONE = new MessageCompression(0, "none") {
+		protected int compress(byte[] in, int length, byte[] out, int offset) { return -1; }
+		protected void decompress(byte[] in, int offset, int length, byte[] out) {}
+	};
+
+	public final static MessageCompression LZ = new LZCompression();
+
+	public final static MessageCompression DEFLATE = new DeflateCompression();
+
+	private final static MessageCompression[] compressions = { NONE, LZ, DEFLATE };
+
+	/**
+	 * Maximum size of a decompressed message.
+	 */
+	public final static int MAX_SIZE = 64 * 1024 * 1024;
+
+	private final int id;
+	private final String name;
+	private final CompressionStatistics statistics;
+
+	protected MessageCompression(int id, String name) {
+		this.id = id;
+		this.name = name;
+		this.statistics = new CompressionStatistics(name);
+	}
+
+	/**
+	 * Returns the identifier of the compression in the header of the messages, from 0 to 7.
+	 */
+	public int getId() { return this.id; }
+
+	public String getName() { return this.name; }
+
+	public CompressionStatistics getStatistics() { return this.statistics; }
+
+	/**
+	 * Returns the compression with the given name, or null if there is none.
+	 */
+	public static MessageCompression getCompression(String name) {
+		for (MessageCompression c: compressions) {
+			if (c.name.equalsIgnoreCase(name)) {
+				return c;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the compression with the given identifier, or null if there is none.
+	 */
+	public static MessageCompression getCompression(int id) {
+		if (id < 0 || id >= compressions.length) {
+			return null;
+		}
+		return compressions[id];
+	}
+
+	/**
+	 * Compresses data.
+	 *
+	 * @return the compressed form, or null if it is not smaller than the data.
+	 */
+	public byte[] compress(byte[] data, int length) {
+		long start = System.nanoTime();
+
+		if (length <= 4) {
+			this.statistics.incompressible(length, System.nanoTime() - start);
+			return null;
+		}
+
+		byte[] out = new byte[length];
+		int size = this.compress(data, length, out, 4);
+
+		if (size < 0 || 4 + size >= length) {
+			this.statistics.incompressible(length, System.nanoTime() - start);
+			return null;
+		}
+
+		out[0] = (byte)(length >>> 24);
+		out[1] = (byte)(length >>> 16);
+		out[2] = (byte)(length >>> 8);
+		out[3] = (byte)length;
+
+		byte[] compressed = new byte[4 + size];
+		System.arraycopy(out, 0, compressed, 0, compressed.length);
+
+		this.statistics.compressed(length, compressed.length, System.nanoTime() - start);
+
+		return compressed;
+	}
+
+	/**
+	 * Decompresses the compressed form of data.
+	 *
+	 * @return the data.
+	 * @throws IOException if the compressed form is malformed or its size is invalid.
+	 */
+	public byte[] decompress(byte[] compressed, int offset, int length) throws IOException {
+		long start = System.nanoTime();
+
+		if (length < 4) {
+			throw new IOException("Malformed " + this.name + " compressed message: " + length + " bytes.");
+		}
+
+		int size = ((compressed[offset] & 0xff) << 24) | ((compressed[offset+1] & 0xff) << 16)
+				| ((compressed[offset+2] & 0xff) << 8) | (compressed[offset+3] & 0xff);
+		if (size < 0 || size > MAX_SIZE) {
+			throw new IOException("Invalid size of " + this.name + " compressed message: " + size + " bytes.");
+		}
+		byte[] data = new byte[size];
+
+		try {
+			this.decompress(compressed, offset + 4, length - 4, data);
+		}
+		catch (RuntimeException e) {
+			throw new IOException("Malformed " + this.name + " compressed message.", e);
+		}
+
+		this.statistics.decompressed(System.nanoTime() - start);
+
+		return data;
+	}
+
+	/**
+	 * Compresses data in a buffer from the given offset.
+	 *
+	 * @return the compressed size, or -1 if it doesn't fit in the buffer.
+	 */
+	protected abstract int compress(byte[] in, int length, byte[] out, int offset);
+
+	/**
+	 * Decompresses data, filling the output buffer.
+	 */
+	protected abstract void decompress(byte[] in, int offset, int length, byte[] out) throws IOException;
+
+
+	private final static class LZCompression extends MessageCompression {
+		private final static int MIN_MATCH = 4;
+		private final static int MAX_OFFSET = 0xffff;
+		private final static int HASH_BITS = 12;
+
+		private final ThreadLocal<int[]> tables = new ThreadLocal<int[]>() {
+			protected int[] initialValue() { return new int[1 << HASH_BITS]; }
+		};
+
+		LZCompression() {
+			super(1, "lz");
+		}
+
+		private static int readInt(byte[] b, int i) {
+			return (b[i] & 0xff) | ((b[i+1] & 0xff) << 8) | ((b[i+2] & 0xff) << 16) | ((b[i+3] & 0xff) << 24);
+		}
+
+		/**
+		 * Each sequence is a token with the length of the literals (high 4 bits) and of the match
+		 * minus 4 (low 4 bits), extended by bytes of 255 if they are 15, the literals, and the offset
+		 * of the match (2 bytes). The last sequence has only literals.
+		 */
+		protected int compress(byte[] in, int length, byte[] out, int offset) {
+			int[] table = this.tables.get();
+			Arrays.fill(table, 0);
+
+			int ip = 0;
+			int anchor = 0;
+			int op = offset;
+
+			while (ip + MIN_MATCH <= length) {
+				int sequence = readInt(in, ip);
+				int h = (sequence * -1640531535) >>> (32 - HASH_BITS);
+				int ref = table[h] - 1;
+				table[h] = ip + 1;
+
+				if (ref < 0 || ip - ref > MAX_OFFSET || readInt(in, ref) != sequence) {
+					ip++;
+					continue;
+				}
+
+				int matchLength = MIN_MATCH;
+				while (ip + matchLength < length && in[ref + matchLength] == in[ip + matchLength]) {
+					matchLength++;
+				}
+
+				op = this.writeSequence(in, anchor, ip - anchor, ip - ref, matchLength, out, op);
+				if (op < 0) {
+					return -1;
+				}
+
+				ip += matchLength;
+				anchor = ip;
+			}
+
+			op = this.writeSequence(in, anchor, length - anchor, 0, 0, out, op);
+			if (op < 0) {
+				return -1;
+			}
+
+			return op - offset;
+		}
+
+		private int writeSequence(byte[] in, int literals, int literalLength, int matchOffset, int matchLength, byte[] out, int op) {
+			// worst case size
+			if (op + 1 + literalLength/255 + 1 + literalLength + 2 + matchLength/255 + 1 > out.length) {
+				return -1;
+			}
+
+			int token = op++;
+			int matchCode = matchLength == 0 ? 0 : matchLength - MIN_MATCH;
+			out[token] = (byte)((Math.min(literalLength, 15) << 4) | Math.min(matchCode, 15));
+
+			op = writeLength(literalLength, out, op);
+			System.arraycopy(in, literals, out, op, literalLength);
+			op += literalLength;
+
+			if (matchLength != 0) {
+				out[op++] = (byte)matchOffset;
+				out[op++] = (byte)(matchOffset >>> 8);
+				op = writeLength(matchCode, out, op);
+			}
+
+			return op;
+		}
+
+		private static int writeLength(int length, byte[] out, int op) {
+			if (length >= 15) {
+				length -= 15;
+				while (length >= 255) {
+					out[op++] = (byte)255;
+					length -= 255;
+				}
+				out[op++] = (byte)length;
+			}
+			return op;
+		}
+
+		protected void decompress(byte[] in, int offset, int length, byte[] out) throws IOException {
+			int ip = offset;
+			int end = offset + length;
+			int op = 0;
+
+			while (ip < end) {
+				int token = in[ip++] & 0xff;
+
+				int literalLength = token >>> 4;
+				if (literalLength == 15) {
+					int b;
+					do {
+						b = in[ip++] & 0xff;
+						literalLength += b;
+					} while (b == 255);
+				}
+				System.arraycopy(in, ip, out, op, literalLength);
+				ip += literalLength;
+				op += literalLength;
+
+				if (ip >= end) {
+					break;
+				}
+
+				int matchOffset = (in[ip] & 0xff) | ((in[ip+1] & 0xff) << 8);
+				ip += 2;
+
+				int matchLength = token & 0x0f;
+				if (matchLength == 15) {
+					int b;
+					do {
+						b = in[ip++] & 0xff;
+						matchLength += b;
+					} while (b == 255);
+				}
+				matchLength += MIN_MATCH;
+
+				if (matchOffset == 0 || matchOffset > op) {
+					throw new IOException("Invalid match offset " + matchOffset);
+				}
+
+				// byte by byte, as the match can overlap the output
+				int ref = op - matchOffset;
+				for (int i = 0; i < matchLength; i++) {
+					out[op++] = out[ref++];
+				}
+			}
+
+			if (op != out.length) {
+				throw new IOException("Decompressed " + op + " bytes instead of " + out.length);
+			}
+		}
+	}
+
+
+	private final static class DeflateCompression extends MessageCompression {
+		private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+			protected Deflater initialValue() { return new Deflater(Deflater.BEST_SPEED); }
+		};
+
+		private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+			protected Inflater initialValue() { return new Inflater(); }
+		};
+
+		DeflateCompression() {
+			super(2, "deflate");
+		}
+
+		protected int compress(byte[] in, int length, byte[] out, int offset) {
+			Deflater deflater = this.deflaters.get();
+			deflater.reset();
+			deflater.setInput(in, 0, length);
+			deflater.finish();
+
+			int size = deflater.deflate(out, offset, out.length - offset);
+			return deflater.finished() ? size : -1;
+		}
+
+		protected void decompress(byte[] in, int offset, int length, byte[] out) throws IOException {
+			Inflater inflater = this.inflaters.get();
+			inflater.reset();
+			inflater.setInput(in, offset, length);
+
+			try {
+				int size = inflater.inflate(out);
+				if (size != out.length || !inflater.finished()) {
+					throw new IOException("Decompressed " + size + " bytes instead of " + out.length);
+				}
+			}
+			catch (DataFormatException e) {
+				throw new IOException("Malformed deflate compressed message.", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for the decoding of a message from the wire format.
+ */
+@Name("ow.messaging.MessageDecode")
+@Label("Message Decode")
+@Category({"DAT","Serialization"})
+public class MessageDecodeEvent extends jdk.jfr.Event {
+	@Label("Tag")
+	public int tag;
+
+	@Label("Content Type")
+	public String contentType;
+
+	@Label("Size")
+	@DataAmount
+	public int size;
+}
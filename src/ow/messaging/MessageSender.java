@@ -18,6 +18,7 @@
 package ow.messaging;
 
 import java.io.IOException;
+import java.util.List;
 
 public interface MessageSender {
 	/**
@@ -25,6 +26,15 @@ public interface MessageSender {
 	 */
 	void send(MessagingAddress dest, Message msg) throws IOException;
 
+	/**
+	 * Send the given message one-way to each of the destinations.
+	 * The message is encoded once for all of them.
+	 *
+	 * @throws IOException if the message couldn't be sent to some destination,
+	 *         after trying all of them.
+	 */
+	void send(List<MessagingAddress> dests, Message msg) throws IOException;
+
 	/**
 	 * Send the given message, wait for a message and receive it.  
 	 *
@@ -28,6 +28,7 @@ public class MessagingConfiguration {
 	public final static int DEFAULT_RTT_TABLE_SIZE = 100;
 	public final static boolean DEFAULT_USE_THREAD_POOL = true;
 	public final static int DEFAULT_RECEIVER_THREAD_PRIORITY = 1;
+	public final static int DEFAULT_COMPRESSION_THRESHOLD = 512;	// bytes
 
 	public final static boolean DO_HOSTNAME_LOOKUP = true;
 
@@ -106,6 +107,40 @@ public class MessagingConfiguration {
 		return old;
 	}
 
+	private MessageCodec codec = Message.getDefaultCodec();
+	/**
+	 * Codec used to encode the messages sent. Messages received are decoded with the codec
+	 * identified in their header.
+	 */
+	public MessageCodec getCodec() { return this.codec; }
+	public MessageCodec setCodec(MessageCodec codec) {
+		MessageCodec old = this.codec;
+		this.codec = codec;
+		return old;
+	}
+
+	private MessageCompression compression = MessageCompression.LZ;
+	/**
+	 * Compression of the messages sent.
+	 */
+	public MessageCompression getCompression() { return this.compression; }
+	public MessageCompression setCompression(MessageCompression compression) {
+		MessageCompression old = this.compression;
+		this.compression = compression;
+		return old;
+	}
+
+	private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+	/**
+	 * Messages with encoded contents smaller than this size (in bytes) are not compressed.
+	 */
+	public int getCompressionThreshold() { return this.compressionThreshold; }
+	public int setCompressionThreshold(int threshold) {
+		int old = this.compressionThreshold;
+		this.compressionThreshold = threshold;
+		return old;
+	}
+
 	private int receiverThreadPriority = DEFAULT_RECEIVER_THREAD_PRIORITY;
 	public int getReceiverThreadPriority() { return this.receiverThreadPriority; }
 	public int setReceiverThreadPriority(int prio) {
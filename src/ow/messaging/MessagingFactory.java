@@ -32,6 +32,8 @@ public final class MessagingFactory {
 	private final static Class/*<MessagingProvider>*/[] PROVIDERS = {
 //		ow.messaging.udp.UDPMessagingProvider.class,				// "UDP"
 		ow.messaging.tcp.TCPMessagingProvider.class,				// "TCP"
+		ow.messaging.shm.ShmMessagingProvider.class,				// "SHM"
+		ow.messaging.uds.UDSMessagingProvider.class,				// "UDS"
 //		ow.messaging.emulator.EmuMessagingProvider.class,		// "Emulator"
 //		ow.messaging.distemulator.DEmuMessagingProvider.class	// "DistributedEmulator"
 	};
@@ -67,7 +69,7 @@ public final class MessagingFactory {
 
 	/**
 	 * Return a messaging provider associated to the given name.
-	 * The name should be one of the following names: "TCP", "UDP" or "Emulator".
+	 * The name should be one of the following names: "TCP", "SHM", "UDS", "UDP" or "Emulator".
 	 * There is an utility class {@link Signature Signature} to generate a signature.
 	 *
 	 * @param messagingType name of a messaging provider.
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * Encodes messages with Java serialization.
+ */
+public final class SerializationCodec implements MessageCodec {
+	public final static int ID = 0;
+	public final static String NAME = "serialization";
+
+	public int getId() { return ID; }
+
+	public String getName() { return NAME; }
+
+	public void encode(MessagingAddress src, Serializable[] contents, OutputStream out) throws IOException {
+		ObjectOutputStream oos = new ObjectOutputStream(out);
+		oos.writeObject(src);
+		for (Serializable c: contents) {
+			oos.writeObject(c);
+		}
+		oos.flush();
+		oos.close();
+	}
+
+	public MessagingAddress decode(InputStream in, Serializable[] contents) throws IOException, ClassNotFoundException {
+		ObjectInputStream ois = new ObjectInputStream(in);
+
+		MessagingAddress src = (MessagingAddress)ois.readObject();
+		for (int i = 0; i < contents.length; i++) {
+			contents[i] = (Serializable)ois.readObject();
+		}
+
+		ois.close();
+
+		return src;
+	}
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Exchanges messages with the other processes of the host which use the same directory.
+ * There is a single hub per directory in a process, shared by all its receivers.
+ *
+ * Each receiver claims a port by locking the file <port>.endpoint, which holds the
+ * id of the owner process. Messages from a process to another go through the ring
+ * <source pid>-<destination pid>.ring, created by the source, which carries the
+ * destination port in each record. Therefore, each ring has a single producer and a
+ * single consumer, regardless of the number of receivers in the processes.
+ *
+ * The hub's thread (a daemon, started with the first receiver) polls all the inbound rings. When they are empty it spins for a while
+ * and then parks for increasing periods, up to a maximum, as a process can't unpark a thread
+ * of another process. Senders of the same process unpark it directly.
+ *
+ * Each time it looks for new rings the hub's thread also checks that the peer processes are
+ * alive. When a process is gone, the ports it owned are looked up again, which finds the new owner
+ * if a process has claimed them, and the rings to and from it are closed and removed. Inbound rings
+ * are also closed when the process exits, so their producers fail instead of waiting for space.
+ */
+final class ShmHub implements Runnable {
+	private final static Logger logger = Logger.getLogger("messaging");
+
+	private final static String RING_SUFFIX = ".ring";
+	private final static String ENDPOINT_SUFFIX = ".endpoint";
+
+	private final static Map<File,ShmHub> hubTable = new HashMap<File,ShmHub>();
+
+	/**
+	 * Returns the hub of the directory specified by the configuration, creating it if needed.
+	 */
+	static ShmHub getHub(ShmMessagingConfiguration config) throws IOException {
+		File dir = new File(config.getDirectory()).getAbsoluteFile();
+
+		synchronized (hubTable) {
+			ShmHub hub = hubTable.get(dir);
+			if (hub == null) {
+				hub = new ShmHub(dir, config);
+				hubTable.put(dir, hub);
+			}
+
+			return hub;
+		}
+	}
+
+	private final File directory;
+	private final ShmMessagingConfiguration config;
+	private final long pid;
+	private final String inboundSuffix;
+
+	private final Map<Integer,ShmMessageReceiver> receiverTable =
+		new ConcurrentHashMap<Integer,ShmMessageReceiver>();
+	private final Map<Integer,FileChannel> endpointTable = new HashMap<Integer,FileChannel>();
+	private final Map<Integer,Long> ownerTable = new ConcurrentHashMap<Integer,Long>();
+	private final Map<Long,ShmRing> outboundTable = new HashMap<Long,ShmRing>();
+
+	// modified only by the hub's thread, closed on exit
+	private final List<ShmRing> inboundRings = new CopyOnWriteArrayList<ShmRing>();
+
+	// accessed only by the hub's thread
+	private final Set<String> inboundNames = new HashSet<String>();
+	private long nextScan = 0L;
+
+	private volatile Thread hubThread;
+	private volatile boolean parked = false;
+
+	private ShmHub(File directory, ShmMessagingConfiguration config) throws IOException {
+		this.directory = directory;
+		this.config = config;
+		this.pid = ProcessHandle.current().pid();
+		this.inboundSuffix = "-" + this.pid + RING_SUFFIX;
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create directory: " + directory);
+		}
+
+		// rings left by a former process with the same id
+		File[] stale = directory.listFiles();
+		if (stale != null) {
+			for (File f: stale) {
+				if (f.getName().endsWith(this.inboundSuffix)) {
+					f.delete();
+				}
+			}
+		}
+
+		Runtime.getRuntime().addShutdownHook(new Thread("ShmHub shutdown: " + directory) {
+			public void run() {
+				for (ShmRing ring: ShmHub.this.inboundRings) {
+					ring.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Claims the first free port in a range.
+	 *
+	 * @return the claimed port.
+	 * @throws IOException if all the ports in the range are taken.
+	 */
+	int claim(int port, int portRange) throws IOException {
+		for (int p = port; p < port + Math.max(portRange, 1); p++) {
+			synchronized (this.endpointTable) {
+				if (this.endpointTable.containsKey(p)) continue;
+
+				RandomAccessFile raf = new RandomAccessFile(new File(this.directory, p + ENDPOINT_SUFFIX), "rw");
+				FileChannel ch = raf.getChannel();
+
+				FileLock lock = null;
+				try {
+					lock = ch.tryLock();
+				}
+				catch (OverlappingFileLockException e) {}
+
+				if (lock == null) {
+					raf.close();
+					continue;
+				}
+
+				// lock is held until the process exits
+				ByteBuffer buf = ByteBuffer.allocate(8);
+				buf.putLong(0, this.pid);
+				ch.truncate(0L);
+				ch.write(buf, 0L);
+				ch.force(false);
+
+				this.endpointTable.put(p, ch);
+				return p;
+			}
+		}
+
+		throw new IOException("Could not claim port: " + port + "-" + (port + portRange - 1));
+	}
+
+	void register(int port, ShmMessageReceiver receiver) {
+		this.receiverTable.put(port, receiver);
+
+		synchronized (this) {
+			if (this.hubThread == null) {
+				this.hubThread = new Thread(this);
+				this.hubThread.setDaemon(true);
+				this.hubThread.setName("ShmHub: " + this.directory);
+				this.hubThread.setPriority(Thread.currentThread().getPriority()
+						+ this.config.getReceiverThreadPriority());
+				this.hubThread.start();
+			}
+		}
+	}
+
+	void unregister(int port, ShmMessageReceiver receiver) {
+		// the hub's thread keeps running, so an inbound ring never has two consumers
+		this.receiverTable.remove(port, receiver);
+	}
+
+	/**
+	 * Sends an encoded message to the process owning the destination port.
+	 */
+	void send(int port, ByteBuffer msg) throws IOException {
+		long owner = this.lookup(port);
+		ShmRing ring = this.getOutboundRing(owner);
+
+		try {
+			ring.write(port, msg, this.config.getStaticTimeout(),
+					this.config.getSpinCount(), this.config.getMaxParkTime());
+		}
+		catch (IOException e) {
+			// the owner may have gone. Look it up again next time.
+			this.ownerTable.remove(port);
+			if (ring.isClosed() || !isAlive(owner)) {
+				this.dropOutboundRing(owner);
+			}
+
+			throw e;
+		}
+
+		if (owner == this.pid && this.parked) {
+			Thread t = this.hubThread;
+			if (t != null) LockSupport.unpark(t);
+		}
+	}
+
+	private long lookup(int port) throws IOException {
+		Long owner = this.ownerTable.get(port);
+		if (owner != null) return owner;
+
+		File f = new File(this.directory, port + ENDPOINT_SUFFIX);
+		RandomAccessFile raf;
+		try {
+			raf = new RandomAccessFile(f, "r");
+		}
+		catch (IOException e) {
+			throw new IOException("No endpoint at port: " + port, e);
+		}
+
+		try {
+			if (raf.length() < 8) {
+				throw new IOException("No endpoint at port: " + port);
+			}
+			owner = raf.readLong();
+		}
+		finally {
+			raf.close();
+		}
+
+		this.ownerTable.put(port, owner);
+		return owner;
+	}
+
+	/**
+	 * Closes and removes the ring to a process which is gone.
+	 */
+	private void dropOutboundRing(long owner) {
+		synchronized (this.outboundTable) {
+			ShmRing ring = this.outboundTable.remove(owner);
+			if (ring != null) {
+				ring.close();
+				ring.getFile().delete();
+			}
+		}
+	}
+
+	private static boolean isAlive(long pid) {
+		Optional<ProcessHandle> process = ProcessHandle.of(pid);
+		return process.isPresent() && process.get().isAlive();
+	}
+
+	private ShmRing getOutboundRing(long owner) throws IOException {
+		synchronized (this.outboundTable) {
+			ShmRing ring = this.outboundTable.get(owner);
+			if (ring == null) {
+				File f = new File(this.directory, this.pid + "-" + owner + RING_SUFFIX);
+				ring = ShmRing.createProducer(f, this.config.getRingSize());
+				this.outboundTable.put(owner, ring);
+			}
+
+			return ring;
+		}
+	}
+
+	public void run() {
+		long maxPark = TimeUnit.MICROSECONDS.toNanos(this.config.getMaxParkTime());
+		int idle = 0;
+		long park = 0L;
+
+		while (true) {
+			long now = System.currentTimeMillis();
+			if (now >= this.nextScan) {
+				this.scan();
+				this.checkPeers();
+				this.nextScan = now + this.config.getScanInterval();
+			}
+
+			if (this.poll()) {
+				idle = 0;
+				park = 0L;
+				continue;
+			}
+
+			if (idle < this.config.getSpinCount()) {
+				idle++;
+				Thread.onSpinWait();
+				continue;
+			}
+
+			park = Math.max(Math.min(park * 2, maxPark), 1000L);
+			this.parked = true;
+			LockSupport.parkNanos(this, park);
+			this.parked = false;
+		}
+	}
+
+	/**
+	 * Delivers the messages pending in the inbound rings
+	 *
+	 * @return true if any message was pending.
+	 */
+	private boolean poll() {
+		boolean found = false;
+
+		for (ShmRing ring: this.inboundRings) {
+			ByteBuffer record;
+			while ((record = ring.peek()) != null) {
+				found = true;
+
+				int port = record.getInt();
+				ShmMessageReceiver receiver = this.receiverTable.get(port);
+				try {
+					if (receiver != null) {
+						receiver.deliver(record);
+					}
+					else if (logger.isDebugEnabled()) {
+						logger.debug("Message discarded. No receiver at port " + port);
+					}
+				}
+				catch (Exception e) {
+					logger.warn("Exception decoding message from " + ring.getFile(), e);
+				}
+				finally {
+					ring.release();
+				}
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * Forgets the owners of ports and the rings of the peer processes which are gone
+	 */
+	private void checkPeers() {
+		Iterator<Map.Entry<Integer,Long>> owners = this.ownerTable.entrySet().iterator();
+		while (owners.hasNext()) {
+			Map.Entry<Integer,Long> e = owners.next();
+			long owner = e.getValue();
+			if (owner != this.pid && !isAlive(owner)) {
+				owners.remove();
+				this.dropOutboundRing(owner);
+			}
+		}
+
+		List<Long> dead = new ArrayList<Long>();
+		synchronized (this.outboundTable) {
+			for (Long owner: this.outboundTable.keySet()) {
+				if (owner != this.pid && !isAlive(owner)) dead.add(owner);
+			}
+		}
+		for (Long owner: dead) {
+			this.dropOutboundRing(owner);
+		}
+
+		for (ShmRing ring: this.inboundRings) {
+			String name = ring.getFile().getName();
+			long source;
+			try {
+				source = Long.parseLong(name.substring(0, name.indexOf('-')));
+			}
+			catch (NumberFormatException e) {
+				continue;
+			}
+
+			// the messages already written are still delivered
+			if (source == this.pid || isAlive(source) || ring.peek() != null) continue;
+
+			ring.close();
+			this.inboundRings.remove(ring);
+			this.inboundNames.remove(name);
+			ring.getFile().delete();
+		}
+	}
+
+	/**
+	 * Looks for rings created by new peer processes
+	 */
+	private void scan() {
+		String[] names = this.directory.list();
+		if (names == null) return;
+
+		for (String name: names) {
+			if (!name.endsWith(this.inboundSuffix) || this.inboundNames.contains(name)) continue;
+
+			this.inboundNames.add(name);
+			try {
+				this.inboundRings.add(ShmRing.openConsumer(new File(this.directory, name)));
+			}
+			catch (IOException e) {
+				logger.warn("Could not open ring " + name, e);
+			}
+		}
+	}
+}
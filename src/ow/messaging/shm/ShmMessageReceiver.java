@@ -0,0 +1,180 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging.shm;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import ow.messaging.ExtendedMessageHandler;
+import ow.messaging.InetMessagingAddress;
+import ow.messaging.Message;
+import ow.messaging.MessageHandler;
+import ow.messaging.MessageReceiver;
+import ow.messaging.MessageSender;
+import ow.messaging.MessagingAddress;
+import ow.messaging.Signature;
+
+public class ShmMessageReceiver implements MessageReceiver {
+	private InetMessagingAddress selfAddr;
+	protected ShmMessagingConfiguration config;
+	protected ShmMessagingProvider provider;
+	protected ShmHub hub;
+	private boolean started = false;
+
+	private List<MessageHandler> handlerList = new ArrayList<MessageHandler>();
+	protected boolean extMessageHandlerRegistered = false;
+
+	protected ShmMessageReceiver(InetAddress selfInetAddr, int port, int portRange,
+			ShmMessagingConfiguration config, ShmMessagingProvider provider) throws IOException {
+		this.config = config;
+		this.provider = provider;
+		this.hub = ShmHub.getHub(config);
+
+		if (selfInetAddr == null) {
+			selfInetAddr = InetAddress.getLocalHost();
+		}
+
+		// the port identifies the receiver among the processes of the host
+		int boundPort = this.hub.claim(port, portRange);
+		this.selfAddr = new InetMessagingAddress(selfInetAddr, boundPort);
+	}
+
+	public MessagingAddress getSelfAddress() { return this.selfAddr; }
+
+	public void setSelfAddress(String hostOrIP) throws UnknownHostException {
+		this.selfAddr = this.provider.getMessagingAddress(
+				hostOrIP, this.selfAddr.getPort());
+	}
+
+	public int getPort() { return this.selfAddr.getPort(); }
+
+	public MessageSender getSender() {
+		return new ShmMessageSender(this);
+	}
+
+	public void start() {
+		synchronized (this) {
+			if (!this.started) {
+				this.hub.register(this.getPort(), this);
+				this.started = true;
+			}
+		}
+	}
+
+	public void stop() {
+		synchronized (this) {
+			if (this.started) {
+				this.hub.unregister(this.getPort(), this);
+				this.started = false;
+			}
+		}
+	}
+
+	public void addHandler(MessageHandler handler) {
+		List<MessageHandler> newHandlerList = new ArrayList<MessageHandler>();
+
+		synchronized (this) {
+			newHandlerList.addAll(this.handlerList);	// copy
+			newHandlerList.add(handler);
+
+			this.handlerList = newHandlerList;	// substitute
+		}
+
+		if (handler instanceof ExtendedMessageHandler) {
+			this.extMessageHandlerRegistered = true;
+		}
+	}
+
+	public void removeHandler(MessageHandler handler) {
+		List<MessageHandler> newHandlerList = new ArrayList<MessageHandler>();
+
+		synchronized (this) {
+			newHandlerList.addAll(this.handlerList);	// copy
+			newHandlerList.remove(handler);
+
+			this.handlerList = newHandlerList;	// substitute
+		}
+
+		boolean exists = false;
+		for (MessageHandler h: newHandlerList) {
+			if (h instanceof ExtendedMessageHandler) {
+				exists = true;
+				break;
+			}
+		}
+		this.extMessageHandlerRegistered = exists;
+	}
+
+	/**
+	 * Decodes and processes a message taken from a ring by the hub.
+	 */
+	void deliver(ByteBuffer buf) throws IOException, ClassNotFoundException {
+		Message msg = Message.decode(buf);
+
+		// check signature
+		if (!Signature.match(msg.getSignature(), this.provider.getMessageSignature()))
+			return;
+
+		this.processMessage(msg);
+		this.postProcessMessage(msg);
+	}
+
+	protected Message processMessage(Message msg) {
+		// call every handlers
+		List<MessageHandler> currentHandlerList;
+		synchronized (this) {
+			currentHandlerList = handlerList;
+		}
+
+		Message ret = null;
+
+		for (MessageHandler handler: currentHandlerList) {
+			try {
+				ret = handler.process(msg);
+			}
+			catch (Throwable e) {
+			}
+		}
+
+		return ret;
+	}
+
+	protected void postProcessMessage(Message msg) {
+		if (!this.extMessageHandlerRegistered) return;
+
+		// call every handlers
+		List<MessageHandler> currentHandlerList;
+		synchronized (this) {
+			currentHandlerList = handlerList;
+		}
+
+		for (MessageHandler handler: currentHandlerList) {
+			if (!(handler instanceof ExtendedMessageHandler)) continue;
+
+			try {
+				((ExtendedMessageHandler)handler).postProcess(msg);
+			}
+			catch (Throwable e) {
+			}
+		}
+	}
+}
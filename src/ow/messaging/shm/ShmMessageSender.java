@@ -0,0 +1,110 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging.shm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import ow.messaging.Message;
+import ow.messaging.MessageSender;
+import ow.messaging.MessagingAddress;
+import ow.messaging.util.BufferPool;
+
+public class ShmMessageSender implements MessageSender {
+	private final ShmMessageReceiver receiver;
+
+	protected ShmMessageSender(ShmMessageReceiver receiver) {
+		this.receiver = receiver;
+	}
+
+	public void send(MessagingAddress dest, Message msg) throws IOException {
+		// destination is local
+		MessagingAddress selfAddress = this.receiver.getSelfAddress();
+		if (dest.equals(selfAddress)) {
+			this.receiver.processMessage(msg);
+			this.receiver.postProcessMessage(msg);
+			return;
+		}
+
+		// set signature
+		byte[] sig = this.receiver.provider.getMessageSignature();
+		msg.setSignature(sig);
+
+		ByteBuffer buf = Message.encode(msg, this.receiver.config);
+		try {
+			this.receiver.hub.send(dest.getPort(), buf);
+		}
+		finally {
+			BufferPool.release(buf);
+		}
+	}
+
+	public void send(List<MessagingAddress> dests, Message msg) throws IOException {
+		IOException exception = null;
+		String failed = "";
+		boolean local = false;
+
+		MessagingAddress selfAddress = this.receiver.getSelfAddress();
+		ByteBuffer buf = null;
+
+		try {
+			for (MessagingAddress dest: dests) {
+				if (dest.equals(selfAddress)) {
+					local = true;
+					continue;
+				}
+
+				if (buf == null) {
+					byte[] sig = this.receiver.provider.getMessageSignature();
+					msg.setSignature(sig);
+
+					buf = Message.encode(msg, this.receiver.config);
+				}
+
+				try {
+					this.receiver.hub.send(dest.getPort(), buf.duplicate());
+				}
+				catch (IOException e) {
+					if (exception == null) exception = e;
+					failed += " " + dest;
+				}
+			}
+		}
+		finally {
+			if (buf != null) BufferPool.release(buf);
+		}
+
+		// destination is local
+		if (local) {
+			this.receiver.processMessage(msg);
+			this.receiver.postProcessMessage(msg);
+		}
+
+		if (exception != null) {
+			throw new IOException("Failed to send message to" + failed + ": " + exception.getMessage(), exception);
+		}
+	}
+
+	/**
+	 * Not supported: rings are one-way.
+	 */
+	public Message sendAndReceive(MessagingAddress dest, Message msg) throws IOException {
+		throw new IOException("SHM messaging does not support sendAndReceive.");
+	}
+}
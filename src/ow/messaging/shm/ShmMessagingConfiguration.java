@@ -0,0 +1,75 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging.shm;
+
+import java.io.File;
+
+import ow.messaging.MessagingConfiguration;
+
+public final class ShmMessagingConfiguration extends MessagingConfiguration {
+	public final static String DEFAULT_DIRECTORY =
+		(new File("/dev/shm").isDirectory() ? "/dev/shm" : System.getProperty("java.io.tmpdir"))
+		+ File.separator + "dat-shm";
+		// Memory backed file system if available (Linux), temporary directory otherwise.
+	public final static int DEFAULT_RING_SIZE = 4 * 1024 * 1024;	// bytes
+	public final static int DEFAULT_SPIN_COUNT = 1000;
+		// Number of empty polls before the receiver starts parking.
+	public final static long DEFAULT_MAX_PARK_TIME = 1000L;	// usec
+	public final static long DEFAULT_SCAN_INTERVAL = 20L;	// msec
+		// Period to look for rings created by new peer processes.
+
+	private String directory = DEFAULT_DIRECTORY;
+	public String getDirectory() { return this.directory; }
+	public String setDirectory(String dir) {
+		String old = this.directory;
+		this.directory = dir;
+		return old;
+	}
+
+	private int ringSize = DEFAULT_RING_SIZE;
+	public int getRingSize() { return this.ringSize; }
+	public int setRingSize(int size) {
+		int old = this.ringSize;
+		this.ringSize = size;
+		return old;
+	}
+
+	private int spinCount = DEFAULT_SPIN_COUNT;
+	public int getSpinCount() { return this.spinCount; }
+	public int setSpinCount(int count) {
+		int old = this.spinCount;
+		this.spinCount = count;
+		return old;
+	}
+
+	private long maxParkTime = DEFAULT_MAX_PARK_TIME;
+	public long getMaxParkTime() { return this.maxParkTime; }
+	public long setMaxParkTime(long time) {
+		long old = this.maxParkTime;
+		this.maxParkTime = time;
+		return old;
+	}
+
+	private long scanInterval = DEFAULT_SCAN_INTERVAL;
+	public long getScanInterval() { return this.scanInterval; }
+	public long setScanInterval(long interval) {
+		long old = this.scanInterval;
+		this.scanInterval = interval;
+		return old;
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging.shm;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import ow.messaging.AbstractMessagingProvider;
+import ow.messaging.InetMessagingAddress;
+import ow.messaging.MessageReceiver;
+import ow.messaging.MessagingAddress;
+import ow.messaging.MessagingConfiguration;
+import ow.messaging.MessagingProvider;
+
+/**
+ * A messaging provider which exchanges messages with other processes in the same host
+ * through rings in memory-mapped files (see {@link ShmHub}).
+ * Addresses are host:port, as in TCP, but only the port is used to locate a receiver.
+ * Call MessagingFactory#getProvider() to obtain a provider.
+ */
+public class ShmMessagingProvider extends AbstractMessagingProvider {
+	private final static String NAME = "SHM";
+
+	private InetAddress selfAddress = null;
+	private MessagingAddress statCollectorAddress = null;
+
+	public String getName() { return NAME; }
+	public boolean isReliable() { return true; }
+
+	public MessagingConfiguration getDefaultConfiguration() { return new ShmMessagingConfiguration(); }
+
+	public MessageReceiver getReceiver(MessagingConfiguration config, int port) throws IOException {
+		return getReceiver(config, port, 1);
+	}
+
+	public MessageReceiver getReceiver(MessagingConfiguration config, int port, int portRange) throws IOException {
+		return new ShmMessageReceiver(this.selfAddress, port, portRange,
+				(ShmMessagingConfiguration)config, this);
+	}
+
+	public InetMessagingAddress getMessagingAddress(String hostAndPort, int port)
+			throws UnknownHostException {
+		return new InetMessagingAddress(hostAndPort, port);
+	}
+
+	public InetMessagingAddress getMessagingAddress(String hostAndPort)
+			throws UnknownHostException {
+		return new InetMessagingAddress(hostAndPort);
+	}
+
+	public InetMessagingAddress getMessagingAddress(int port) {
+		return new InetMessagingAddress(port);
+	}
+
+	public MessagingAddress getMessagingCollectorAddress() { return this.statCollectorAddress; }
+	public MessagingAddress setMessagingCollectorAddress(MessagingAddress addr) {
+		MessagingAddress old;
+
+		synchronized (this) {
+			old = this.statCollectorAddress;
+			this.statCollectorAddress = addr;
+		}
+
+		return old;
+	}
+
+	public MessagingProvider substitute() {
+		return null;
+	}
+
+	public void setSelfAddress(String host) throws UnknownHostException {
+		this.selfAddress = InetAddress.getByName(host);
+	}
+}
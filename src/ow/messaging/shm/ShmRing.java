@@ -0,0 +1,257 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single-producer/single-consumer ring of messages in a memory-mapped file,
+ * shared by two processes in the same host.
+ *
+ * The file starts with a header holding the producer position (tail), the consumer
+ * position (head) and a closed flag, each one in its own cache line. Positions only grow;
+ * the offset in the ring is the position modulo the capacity. The producer publishes a
+ * record by writing it and then its new tail with release semantics, and the consumer
+ * frees it by writing its head also with release semantics, so no locks are needed
+ * between the two processes.
+ *
+ * A record is [length (int)][port (int)][encoded message], aligned to 8 bytes.
+ * A record never wraps around the end of the ring: if it doesn't fit, the rest of the
+ * ring is marked as padding and the record is written at the beginning.
+ */
+final class ShmRing {
+	private final static VarHandle LONGS =
+		MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	private final static VarHandle INTS =
+		MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+	private final static int TAIL = 0;
+	private final static int HEAD = 64;
+	private final static int CLOSED = 128;
+	private final static int HEADER_SIZE = 192;
+
+	private final static int RECORD_HEADER = 8;
+	private final static int PADDING = -1;
+
+	private final static long MIN_PARK_TIME = 1000L;	// nsec
+
+	private final File file;
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+	private final int mask;
+
+	// tail for the producer, head for the consumer.
+	// Only accessed by the owner of this side of the ring.
+	private long position;
+	private int pendingRecord = 0;
+
+	private ShmRing(File file, MappedByteBuffer buffer, long position) {
+		this.file = file;
+		this.buffer = buffer;
+		this.capacity = buffer.capacity() - HEADER_SIZE;
+		this.mask = this.capacity - 1;
+		this.position = position;
+	}
+
+	/**
+	 * Opens the producer side of a ring, creating its file if it doesn't exist.
+	 * A new file is prepared with a temporary name and then renamed, so a consumer
+	 * never finds it partially created.
+	 *
+	 * @param size capacity of the ring. Is rounded up to the next power of two.
+	 */
+	static ShmRing createProducer(File file, int size) throws IOException {
+		if (!file.exists()) {
+			int capacity = Integer.highestOneBit(Math.max(size, 4096));
+			if (capacity < size) capacity <<= 1;
+
+			File tmp = new File(file.getPath() + ".tmp");
+			RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+			try {
+				raf.setLength(HEADER_SIZE + capacity);
+			}
+			finally {
+				raf.close();
+			}
+
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		MappedByteBuffer buffer = map(file);
+		return new ShmRing(file, buffer, (long)LONGS.getAcquire(buffer, TAIL));
+	}
+
+	/**
+	 * Opens the consumer side of an existing ring.
+	 */
+	static ShmRing openConsumer(File file) throws IOException {
+		MappedByteBuffer buffer = map(file);
+		return new ShmRing(file, buffer, (long)LONGS.getAcquire(buffer, HEAD));
+	}
+
+	private static MappedByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			int capacity = (int)raf.length() - HEADER_SIZE;
+			if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+				throw new IOException("Invalid ring file: " + file);
+			}
+
+			// the mapping remains valid after the channel is closed
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	File getFile() { return this.file; }
+
+	boolean isClosed() {
+		return (int)INTS.getAcquire(this.buffer, CLOSED) != 0;
+	}
+
+	/**
+	 * Marks this ring as closed. Further writes fail.
+	 */
+	void close() {
+		INTS.setRelease(this.buffer, CLOSED, 1);
+	}
+
+	/**
+	 * Writes a message, waiting for space if the ring is full.
+	 * Must be called only from the producer side. Threads of the producer are serialized.
+	 *
+	 * @param port destination port.
+	 * @param msg encoded message, from its position to its limit.
+	 * @param timeout maximum time to wait for space, in msec.
+	 * @param spinCount number of times to spin before parking.
+	 * @param maxParkTime maximum time to park between checks for space, in usec.
+	 * @throws IOException if the ring is closed, the message doesn't fit or the timeout expires.
+	 */
+	synchronized void write(int port, ByteBuffer msg, long timeout, int spinCount, long maxParkTime)
+			throws IOException {
+		int len = msg.remaining();
+		int record = align(RECORD_HEADER + len);
+		if (record > this.capacity / 2) {
+			throw new IOException("Message too large for the ring: " + len + " bytes.");
+		}
+
+		int offset = (int)(this.position & this.mask);
+		int toEnd = this.capacity - offset;
+		int needed = (toEnd < record ? toEnd + record : record);
+
+		// wait for the consumer to free enough space
+		long deadline = 0L;
+		long park = MIN_PARK_TIME;
+		int spins = 0;
+		while (this.position + needed - (long)LONGS.getAcquire(this.buffer, HEAD) > this.capacity) {
+			if (this.isClosed()) {
+				throw new IOException("Ring closed: " + this.file);
+			}
+
+			if (spins < spinCount) {
+				spins++;
+				Thread.onSpinWait();
+				continue;
+			}
+
+			long now = System.nanoTime();
+			if (deadline == 0L) {
+				deadline = now + TimeUnit.MILLISECONDS.toNanos(timeout);
+			}
+			else if (now - deadline > 0) {
+				throw new IOException("Timeout: ring full for " + timeout + " msec: " + this.file);
+			}
+
+			LockSupport.parkNanos(this, park);
+			park = Math.min(park * 2, TimeUnit.MICROSECONDS.toNanos(maxParkTime));
+		}
+
+		if (this.isClosed()) {
+			throw new IOException("Ring closed: " + this.file);
+		}
+
+		if (toEnd < record) {
+			this.buffer.putInt(HEADER_SIZE + offset, PADDING);
+			this.position += toEnd;
+			offset = 0;
+		}
+
+		int index = HEADER_SIZE + offset;
+		this.buffer.putInt(index, len);
+		this.buffer.putInt(index + 4, port);
+		this.buffer.put(index + RECORD_HEADER, msg, msg.position(), len);
+
+		this.position += record;
+		LONGS.setRelease(this.buffer, TAIL, this.position);
+	}
+
+	/**
+	 * Returns the next record without removing it, or null if the ring is empty.
+	 * The returned buffer starts with the destination port, followed by the encoded message,
+	 * and is valid until {@link #release()} is called.
+	 * Must be called only from the consumer side.
+	 */
+	ByteBuffer peek() {
+		while (true) {
+			long tail = (long)LONGS.getAcquire(this.buffer, TAIL);
+			if (this.position == tail) {
+				return null;
+			}
+
+			int offset = (int)(this.position & this.mask);
+			int len = this.buffer.getInt(HEADER_SIZE + offset);
+
+			if (len == PADDING) {
+				this.position += this.capacity - offset;
+				LONGS.setRelease(this.buffer, HEAD, this.position);
+				continue;
+			}
+
+			this.pendingRecord = align(RECORD_HEADER + len);
+			return this.buffer.slice(HEADER_SIZE + offset + 4, len + 4);
+		}
+	}
+
+	/**
+	 * Removes the record returned by the last call to {@link #peek()},
+	 * making its space available to the producer.
+	 */
+	void release() {
+		this.position += this.pendingRecord;
+		this.pendingRecord = 0;
+		LONGS.setRelease(this.buffer, HEAD, this.position);
+	}
+
+	private static int align(int len) {
+		return (len + 7) & ~7;
+	}
+}
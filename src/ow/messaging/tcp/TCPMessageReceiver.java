@@ -18,20 +18,22 @@
 package ow.messaging.tcp;
 
 import java.io.IOException;
+import java.net.BindException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.UnknownHostException;
-import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import dat.utils.NetworkUtils;
 
 import ow.messaging.ExtendedMessageHandler;
 import ow.messaging.InetMessagingAddress;
@@ -98,18 +100,62 @@ public class TCPMessageReceiver implements MessageReceiver, Runnable {
 
 	}
 
+	/**
+	 * Creates a receiver on a server channel already bound by a subclass.
+	 */
+	protected TCPMessageReceiver(ServerSocketChannel servSock, InetMessagingAddress selfAddr,
+			TCPMessagingConfiguration config, TCPMessagingProvider provider) {
+		this.config = config;
+		this.provider = provider;
+		this.servSock = servSock;
+		this.selfAddr = selfAddr;
+
+		this.connPool = new ConnectionPool(
+				config.getConnectionPoolSize(), config.getSenderKeepAliveTime());
+	}
+
+	/**
+	 * Next port to try in each range, by its first port. Receivers created concurrently
+	 * start from different ports instead of competing for the same one.
+	 */
+	private static ConcurrentMap<Integer,AtomicInteger> nextPort = new ConcurrentHashMap<Integer,AtomicInteger>();
+
+	/**
+	 * Binds the socket to the first free port of the range, trying the ports directly instead of probing
+	 * them first. A port 0 binds to an ephemeral port chosen by the system.
+	 *
+	 * @return the bound address, or null if no port of the range is free
+	 */
 	private InetMessagingAddress bind(
-			ServerSocket sock, InetAddress inetAddr, int fromPort, int range) throws IOException, NoSuchElementException {
-		InetMessagingAddress addr = null;
-		boolean bound = false;
+			ServerSocket sock, InetAddress inetAddr, int fromPort, int range) throws IOException {
 
-		int port = NetworkUtils.getNextAvailable(fromPort, range);
-		
-		addr = new InetMessagingAddress(inetAddr,port);
+		if (fromPort == 0) {
+			sock.bind(new InetSocketAddress(inetAddr, 0));
+			return new InetMessagingAddress(inetAddr, sock.getLocalPort());
+		}
 
-		sock.bind(addr.getInetSocketAddress());
+		if (range < 1) {
+			range = 1;
+		}
 
-		return addr;
+		AtomicInteger hint = nextPort.get(fromPort);
+		if (hint == null) {
+			nextPort.putIfAbsent(fromPort, new AtomicInteger());
+			hint = nextPort.get(fromPort);
+		}
+
+		int first = (hint.getAndIncrement() & Integer.MAX_VALUE) % range;
+		for (int i = 0; i < range; i++) {
+			InetMessagingAddress addr = new InetMessagingAddress(inetAddr, fromPort + (first + i) % range);
+			try {
+				sock.bind(addr.getInetSocketAddress());
+				return addr;
+			} catch (BindException e) {
+				// in use, try the next one
+			}
+		}
+
+		return null;
 	}
 
 	public MessagingAddress getSelfAddress() { return this.selfAddr; }
@@ -237,7 +283,10 @@ public class TCPMessageReceiver implements MessageReceiver, Runnable {
 		public void run() {
 			Thread th = Thread.currentThread();
 			String origName = th.getName();
-			th.setName("TCPMessageHandler: " + this.sock.socket().getInetAddress());
+			// socket() is not supported by channels other than TCP
+			String peer;
+			try { peer = String.valueOf(this.sock.getRemoteAddress()); } catch (IOException e) { peer = "unknown"; }
+			th.setName("TCPMessageHandler: " + peer);
 
 			int times = 0;	// # of times a message is received on this socket.
 			while (!Thread.interrupted()) {
@@ -272,9 +321,7 @@ public class TCPMessageReceiver implements MessageReceiver, Runnable {
 					MessagingAddress src = msg.getSource();
 					
 					try {
-						ByteBuffer buf = Message.encode(sock, ret);
-
-
+						Message.encode(sock, ret, config);
 					}
 					catch (IOException e) {
 						// close Socket
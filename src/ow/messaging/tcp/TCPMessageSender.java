@@ -18,10 +18,18 @@
 package ow.messaging.tcp;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.log4j.Logger;
 
@@ -29,6 +37,7 @@ import ow.messaging.InetMessagingAddress;
 import ow.messaging.Message;
 import ow.messaging.MessageSender;
 import ow.messaging.MessagingAddress;
+import ow.messaging.util.BufferPool;
 import ow.util.AlarmClock;
 import ow.util.Timer;
 import ow.util.concurrent.SingletonThreadPoolExecutors;
@@ -55,7 +64,129 @@ public class TCPMessageSender implements MessageSender {
 		}
 
 		// destination is remote
-		SocketAddress sockAddr = ((InetMessagingAddress)dest).getInetSocketAddress();
+		ByteBuffer buf = this.encode(msg);
+		try {
+			this.send(dest, msg, buf);
+		}
+		finally {
+			BufferPool.release(buf);
+		}
+	}
+
+	/**
+	 * Send the given message one-way to each destination.
+	 * The message is encoded once, and the encoded buffer is written to the
+	 * remote destinations in parallel if the thread pool is used.
+	 * All the destinations are tried before an exception is thrown.
+	 */
+	public void send(List<MessagingAddress> dests, final Message msg) throws IOException {
+		final List<MessagingAddress> remoteDests = new ArrayList<MessagingAddress>(dests.size());
+		boolean local = false;
+
+		MessagingAddress selfAddress = this.receiver.getSelfAddress();
+		for (MessagingAddress dest: dests) {
+			this.adjustLoopbackAddress((InetMessagingAddress)dest);
+
+			if (dest.equals(selfAddress)) local = true;
+			else remoteDests.add(dest);
+		}
+
+		IOException exception = null;
+		String failed = "";
+
+		if (!remoteDests.isEmpty()) {
+			ByteBuffer encoded = this.encode(msg);
+			final ByteBuffer buf = encoded.asReadOnlyBuffer();
+			boolean interrupted = false;
+
+			// write to all the destinations but the first in pooled threads
+			List<Future<?>> futures = new ArrayList<Future<?>>(remoteDests.size());
+			if (this.receiver.config.getUseThreadPool()) {
+				ExecutorService ex = SingletonThreadPoolExecutors.getThreadPool(
+						ExecutorBlockingMode.CONCURRENT_REJECTING, true);
+
+				for (int i = 1; i < remoteDests.size(); i++) {
+					final MessagingAddress dest = remoteDests.get(i);
+					Callable<Void> c = new Callable<Void>() {
+						public Void call() throws IOException {
+							TCPMessageSender.this.send(dest, msg, buf.duplicate());
+							return null;
+						}
+					};
+
+					try {
+						futures.add(ex.submit(c));
+					}
+					catch (RejectedExecutionException e) {
+						// no pooled thread available. write it in this thread.
+						futures.add(null);
+					}
+				}
+			}
+
+			for (int i = 0; i < remoteDests.size(); i++) {
+				Future<?> f = (i > 0 && i <= futures.size()) ? futures.get(i - 1) : null;
+
+				try {
+					if (f == null) {
+						this.send(remoteDests.get(i), msg, buf.duplicate());
+					}
+					else {
+						f.get();
+					}
+				}
+				catch (InterruptedException e) {
+					// the write may be still running
+					interrupted = true;
+					if (exception == null) exception = new InterruptedIOException();
+					failed += " " + remoteDests.get(i);
+				}
+				catch (Exception e) {
+					Throwable cause = (e instanceof ExecutionException) ? e.getCause() : e;
+					if (exception == null) {
+						exception = (cause instanceof IOException) ? (IOException)cause : new IOException(cause);
+					}
+					failed += " " + remoteDests.get(i);
+				}
+			}
+
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			else {
+				BufferPool.release(encoded);
+			}
+		}
+
+		// destination is local
+		if (local) {
+			this.receiver.processMessage(msg);
+			this.receiver.postProcessMessage(msg);
+		}
+
+		if (exception != null) {
+			throw new IOException("Failed to send message to" + failed + ": " + exception.getMessage(), exception);
+		}
+	}
+
+	/**
+	 * Sets the signature of the message and encodes it.
+	 */
+	private ByteBuffer encode(Message msg) throws IOException {
+		byte[] sig = this.receiver.provider.getMessageSignature();
+		msg.setSignature(sig);
+
+		return Message.encode(msg, this.receiver.config);
+	}
+
+	/**
+	 * Writes an encoded message to a remote destination.
+	 */
+	private void send(MessagingAddress dest, Message msg, ByteBuffer buf) throws IOException {
+		TCPSendEvent event = new TCPSendEvent();
+		event.begin();
+
+		SocketAddress sockAddr = this.getSocketAddress(dest);
 		SocketChannel sock = null;
 
 		int retryCount = 0;
@@ -64,7 +195,12 @@ public class TCPMessageSender implements MessageSender {
 				sock = this.receiver.connPool.get(sockAddr);
 
 			try {
-				this.send(sock, dest, msg);
+				synchronized (sock) {
+					buf.rewind();
+					do {
+						sock.write(buf);
+					} while (buf.hasRemaining());
+				}
 
 				break;
 			}
@@ -81,6 +217,13 @@ public class TCPMessageSender implements MessageSender {
 		}
 
 		this.receiver.connPool.put(sockAddr, sock);
+
+		if (event.shouldCommit()) {
+			event.destination = dest.toString();
+			event.tag = msg.getTag();
+			event.size = msg.getEncodedSize();
+			event.commit();
+		}
 	}
 
 	private void send(SocketChannel sock, MessagingAddress dest, Message msg)  throws IOException {
@@ -89,7 +232,7 @@ public class TCPMessageSender implements MessageSender {
 		byte[] sig = this.receiver.provider.getMessageSignature();
 		msg.setSignature(sig);
 
-			ByteBuffer buf = Message.encode(sock, msg);
+		Message.encode(sock, msg, this.receiver.config);
 
 	}
 
@@ -127,7 +270,7 @@ public class TCPMessageSender implements MessageSender {
 		}
 
 		// destination is remote
-		SocketAddress sockAddr = ((InetMessagingAddress)dest).getInetSocketAddress();
+		SocketAddress sockAddr = this.getSocketAddress(dest);
 		SocketChannel sock = null;
 
 		int retryCount = 0;
@@ -136,15 +279,20 @@ public class TCPMessageSender implements MessageSender {
 				sock = this.receiver.connPool.get(sockAddr);
 
 			// receive and dispose remaining data
-			ByteBuffer buf = ByteBuffer.allocate(1024);
-			sock.configureBlocking(false);
-			while (true) {
-				int read = sock.read(buf);
-				if (read <= 0) break;
-				buf.clear();
+			ByteBuffer buf = BufferPool.acquire(1024);
+			try {
+				sock.configureBlocking(false);
+				while (true) {
+					int read = sock.read(buf);
+					if (read <= 0) break;
+					buf.clear();
 
+				}
+				sock.configureBlocking(true);
+			}
+			finally {
+				BufferPool.release(buf);
 			}
-			sock.configureBlocking(true);
 
 			// send
 			try {
@@ -205,6 +353,13 @@ public class TCPMessageSender implements MessageSender {
 		return ret;
 	}
 
+	/**
+	 * Returns the address to connect to the given destination.
+	 */
+	protected SocketAddress getSocketAddress(MessagingAddress dest) {
+		return ((InetMessagingAddress)dest).getInetSocketAddress();
+	}
+
 	private void adjustLoopbackAddress(InetMessagingAddress dest) {
 		// adjust loopback address (e.g. 127.0.0.1) to a real address
 		if (dest.getInetAddress().isLoopbackAddress()) {
@@ -19,7 +19,7 @@ package ow.messaging.tcp;
 
 import ow.messaging.MessagingConfiguration;
 
-public final class TCPMessagingConfiguration extends MessagingConfiguration {
+public class TCPMessagingConfiguration extends MessagingConfiguration {
 	public final static int DEFAULT_CONNECTION_POOL_SIZE = 3;
 		// Connection pool is disabled if 0 or a negative value is specified.
 	public final static long DEFAULT_RECEIVER_KEEP_ALIVE_TIME = 20 * 1000L;	// 20 sec
@@ -81,11 +81,19 @@ public class TCPMessagingProvider extends AbstractMessagingProvider {
 //			}
 //		}
 
-		receiver = new TCPMessageReceiver(this.selfAddress, port, portRange,
-				(TCPMessagingConfiguration)config, this);
+		receiver = this.createReceiver(this.selfAddress, port, portRange,
+				(TCPMessagingConfiguration)config);
 		return receiver;
 	}
 
+	/**
+	 * Creates a receiver bound to the first available port in the range.
+	 */
+	protected TCPMessageReceiver createReceiver(InetAddress selfInetAddr, int port, int portRange,
+			TCPMessagingConfiguration config) throws IOException {
+		return new TCPMessageReceiver(selfInetAddr, port, portRange, config, this);
+	}
+
 	public InetMessagingAddress getMessagingAddress(String hostAndPort, int port)
 			throws UnknownHostException {
 		return new InetMessagingAddress(hostAndPort, port);
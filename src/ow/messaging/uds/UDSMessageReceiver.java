@@ -0,0 +1,118 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging.uds;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+
+import ow.messaging.InetMessagingAddress;
+import ow.messaging.MessageSender;
+import ow.messaging.tcp.TCPMessageReceiver;
+
+/**
+ * A TCPMessageReceiver listening on a Unix domain socket.
+ * The socket of port N is the file N.sock in the configured directory.
+ */
+public class UDSMessageReceiver extends TCPMessageReceiver {
+	private final File directory;
+
+	private UDSMessageReceiver(ServerSocketChannel servSock, InetMessagingAddress selfAddr,
+			UDSMessagingConfiguration config, UDSMessagingProvider provider) {
+		super(servSock, selfAddr, config, provider);
+
+		this.directory = new File(config.getDirectory());
+	}
+
+	/**
+	 * Binds the socket of the first free port in the range. Sockets left by
+	 * processes which are gone are removed and reused.
+	 */
+	static UDSMessageReceiver open(InetAddress selfInetAddr, int port, int portRange,
+			UDSMessagingConfiguration config, UDSMessagingProvider provider) throws IOException {
+		File dir = new File(config.getDirectory());
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create directory: " + dir);
+		}
+
+		if (selfInetAddr == null) {
+			selfInetAddr = InetAddress.getLocalHost();
+		}
+
+		for (int p = port; p < port + Math.max(portRange, 1); p++) {
+			UnixDomainSocketAddress addr = getSocketAddress(dir, p);
+
+			ServerSocketChannel servSock = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			try {
+				servSock.bind(addr);
+			}
+			catch (BindException e) {
+				if (isAlive(addr)) {
+					servSock.close();
+					continue;
+				}
+
+				// stale socket
+				Files.deleteIfExists(addr.getPath());
+				try {
+					servSock.bind(addr);
+				}
+				catch (BindException e1) {
+					servSock.close();
+					continue;
+				}
+			}
+
+			addr.getPath().toFile().deleteOnExit();
+
+			return new UDSMessageReceiver(servSock, new InetMessagingAddress(selfInetAddr, p), config, provider);
+		}
+
+		throw new IOException("Could not bind to port: " + port + "-" + (port + portRange - 1));
+	}
+
+	static UnixDomainSocketAddress getSocketAddress(File dir, int port) {
+		return UnixDomainSocketAddress.of(new File(dir, port + ".sock").toPath());
+	}
+
+	private static boolean isAlive(UnixDomainSocketAddress addr) throws IOException {
+		try {
+			SocketChannel.open(addr).close();
+			return true;
+		}
+		catch (ConnectException e) {
+			return false;
+		}
+	}
+
+	UnixDomainSocketAddress getSocketAddress(int port) {
+		return getSocketAddress(this.directory, port);
+	}
+
+	public MessageSender getSender() {
+		// does not share a sender
+		return new UDSMessageSender(this);
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging.uds;
+
+import java.net.SocketAddress;
+
+import ow.messaging.MessagingAddress;
+import ow.messaging.tcp.TCPMessageSender;
+
+/**
+ * A TCPMessageSender connecting to the Unix domain socket of the destination's port.
+ */
+public class UDSMessageSender extends TCPMessageSender {
+	private final UDSMessageReceiver receiver;
+
+	protected UDSMessageSender(UDSMessageReceiver receiver) {
+		super(receiver);
+		this.receiver = receiver;
+	}
+
+	protected SocketAddress getSocketAddress(MessagingAddress dest) {
+		return this.receiver.getSocketAddress(dest.getPort());
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging.uds;
+
+import java.io.File;
+
+import ow.messaging.tcp.TCPMessagingConfiguration;
+
+public final class UDSMessagingConfiguration extends TCPMessagingConfiguration {
+	public final static String DEFAULT_DIRECTORY =
+		System.getProperty("java.io.tmpdir") + File.separator + "dat-uds";
+		// Socket paths are limited to about 100 characters.
+
+	private String directory = DEFAULT_DIRECTORY;
+	public String getDirectory() { return this.directory; }
+	public String setDirectory(String dir) {
+		String old = this.directory;
+		this.directory = dir;
+		return old;
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging.uds;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+import ow.messaging.MessagingConfiguration;
+import ow.messaging.tcp.TCPMessageReceiver;
+import ow.messaging.tcp.TCPMessagingConfiguration;
+import ow.messaging.tcp.TCPMessagingProvider;
+
+/**
+ * A messaging provider which uses Unix domain sockets, for nodes in the same host.
+ * Messages are framed and connections pooled as in TCP.
+ * Addresses are host:port, as in TCP, but only the port is used to locate the socket of a receiver.
+ * Call MessagingFactory#getProvider() to obtain a provider.
+ */
+public class UDSMessagingProvider extends TCPMessagingProvider {
+	private final static String NAME = "UDS";
+
+	public String getName() { return NAME; }
+
+	public MessagingConfiguration getDefaultConfiguration() { return new UDSMessagingConfiguration(); }
+
+	protected TCPMessageReceiver createReceiver(InetAddress selfInetAddr, int port, int portRange,
+			TCPMessagingConfiguration config) throws IOException {
+		return UDSMessageReceiver.open(selfInetAddr, port, portRange, (UDSMessagingConfiguration)config, this);
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Per-thread pools of direct ByteBuffers, in power of two size classes
+ * from 256 bytes to 1 MB. Larger buffers are allocated in the heap and not pooled.
+ * A buffer acquired by a thread can be released by any other thread,
+ * and must not be used after it is released.
+ */
+public final class BufferPool {
+	private final static int MIN_SIZE_BITS = 8;
+	private final static int MAX_SIZE_BITS = 20;
+
+	/**
+	 * Number of buffers kept by each thread in each size class.
+	 */
+	private final static int BUFFERS_PER_CLASS = 4;
+
+	private final static ThreadLocal<BufferPool> pools = new ThreadLocal<BufferPool>() {
+		protected BufferPool initialValue() { return new BufferPool(); }
+	};
+
+	private final ByteBuffer[][] buffers = new ByteBuffer[MAX_SIZE_BITS - MIN_SIZE_BITS + 1][BUFFERS_PER_CLASS];
+	private final int[] counts = new int[MAX_SIZE_BITS - MIN_SIZE_BITS + 1];
+
+	private BufferPool() {}
+
+	/**
+	 * Returns a cleared buffer of at least the given capacity.
+	 */
+	public static ByteBuffer acquire(int size) {
+		int sizeClass = sizeClass(size);
+		if (sizeClass < 0) {
+			return ByteBuffer.allocate(size);
+		}
+
+		BufferPool pool = pools.get();
+		int count = pool.counts[sizeClass];
+		if (count == 0) {
+			return ByteBuffer.allocateDirect(1 << (sizeClass + MIN_SIZE_BITS));
+		}
+
+		count--;
+		ByteBuffer buf = pool.buffers[sizeClass][count];
+		pool.buffers[sizeClass][count] = null;
+		pool.counts[sizeClass] = count;
+
+		buf.clear();
+		return buf;
+	}
+
+	/**
+	 * Returns a buffer to the pool of the current thread.
+	 * Buffers not acquired from a pool, and read-only views, are ignored.
+	 */
+	public static void release(ByteBuffer buf) {
+		int capacity = buf.capacity();
+		if (!buf.isDirect() || buf.isReadOnly() || Integer.bitCount(capacity) != 1) {
+			return;
+		}
+
+		int sizeClass = sizeClass(capacity);
+		if (sizeClass < 0) {
+			return;
+		}
+
+		BufferPool pool = pools.get();
+		int count = pool.counts[sizeClass];
+		if (count < BUFFERS_PER_CLASS) {
+			pool.buffers[sizeClass][count] = buf;
+			pool.counts[sizeClass] = count + 1;
+		}
+	}
+
+	/**
+	 * Returns the size class of buffers of the given size, or -1 if it is not pooled.
+	 */
+	private static int sizeClass(int size) {
+		if (size <= (1 << MIN_SIZE_BITS)) {
+			return 0;
+		}
+
+		int bits = 32 - Integer.numberOfLeadingZeros(size - 1);
+		if (bits > MAX_SIZE_BITS) {
+			return -1;
+		}
+
+		return bits - MIN_SIZE_BITS;
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream which reads the remaining bytes of a ByteBuffer.
+ */
+public final class ByteBufferInputStream extends InputStream {
+	private final ByteBuffer buffer;
+
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	public int read() {
+		if (!this.buffer.hasRemaining()) {
+			return -1;
+		}
+
+		return this.buffer.get() & 0xff;
+	}
+
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+
+		int remaining = this.buffer.remaining();
+		if (remaining == 0) {
+			return -1;
+		}
+
+		len = Math.min(len, remaining);
+		this.buffer.get(b, off, len);
+		return len;
+	}
+
+	public long skip(long n) {
+		int len = (int)Math.max(0L, Math.min(n, this.buffer.remaining()));
+		this.buffer.position(this.buffer.position() + len);
+		return len;
+	}
+
+	public int available() {
+		return this.buffer.remaining();
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2006,2010 National Institute of Advanced Industrial Science
+ * and Technology (AIST), and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ow.messaging.util;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An output stream which writes into a ByteBuffer from its position.
+ * When the buffer is full, it is replaced by a larger one from the {@link BufferPool}
+ * and the replaced buffer is released to the pool.
+ */
+public final class ByteBufferOutputStream extends OutputStream {
+	private ByteBuffer buffer;
+
+	public ByteBufferOutputStream(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Returns the buffer, positioned after the last byte written.
+	 */
+	public ByteBuffer getBuffer() { return this.buffer; }
+
+	public void write(int b) {
+		this.ensureRemaining(1);
+		this.buffer.put((byte)b);
+	}
+
+	public void write(byte[] b, int off, int len) {
+		this.ensureRemaining(len);
+		this.buffer.put(b, off, len);
+	}
+
+	private void ensureRemaining(int len) {
+		if (this.buffer.remaining() >= len) {
+			return;
+		}
+
+		int size = Math.max(this.buffer.position() + len, this.buffer.capacity() * 2);
+		ByteBuffer larger = BufferPool.acquire(size);
+
+		this.buffer.flip();
+		larger.put(this.buffer);
+		BufferPool.release(this.buffer);
+
+		this.buffer = larger;
+	}
+}